@@ -0,0 +1,402 @@
+/*
+ * CalcServer.java
+ *
+ * This file is part of CalcHelper.
+ *
+ * CalcHelper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CalcHelper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CalcHelper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package calchelper.server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import calchelper.tree.Calculus;
+import calchelper.tree.CompiledExpression;
+import calchelper.tree.ExpressionException;
+import calchelper.tree.ExpressionTree;
+import calchelper.tree.TreeFactory;
+
+/**
+ * A headless HTTP front end to the expression tree library, built on the
+ * JDK's own HTTP server.
+ *
+ * The endpoints /derive, /integrate, /simplify and /evaluate take a batch
+ * of expressions, one per line of a POST body or as repeated "expr" query
+ * parameters, and answer with one line per expression: the result, or
+ * "error: " and the reason.  /evaluate takes the values of the variables
+ * as further query parameters, as in "/evaluate?expr=x^2&amp;x=3".
+ * /metrics reports request latencies and cache counters.
+ *
+ * Requests are handled on virtual threads where the JVM has them, and on a
+ * pool of platform threads otherwise.  All requests share one caching
+ * TreeFactory.
+ *
+ * @author Patrick MacArthur
+ */
+public class CalcServer
+{
+   public static final int DEFAULT_PORT = 8080;
+   public static final int DEFAULT_CACHE_CAPACITY = 4096;
+
+   // Operations
+   private static final int DERIVE = 0;
+   private static final int INTEGRATE = 1;
+   private static final int SIMPLIFY = 2;
+   private static final int EVALUATE = 3;
+
+   private static final String[] PATHS = { "/derive", "/integrate",
+      "/simplify", "/evaluate" };
+
+   private final HttpServer _server;
+   private final ExecutorService _executor;
+   private final TreeFactory _factory;
+   private final Calculus _calculus;
+   private final Map<String, LatencyHistogram> _latencies;
+
+   /**
+    * Creates a server on all interfaces.
+    *
+    * @param port The port to listen on, or 0 for any free port.
+    * @throws IOException if the port cannot be bound.
+    */
+   public CalcServer( int port ) throws IOException
+   {
+      this( new InetSocketAddress( port ), DEFAULT_CACHE_CAPACITY );
+   }
+
+   /**
+    * Creates a server.
+    *
+    * @param address The address to listen on.
+    * @param cacheCapacity The most parsed expressions to cache.
+    * @throws IOException if the address cannot be bound.
+    */
+   public CalcServer( InetSocketAddress address, int cacheCapacity )
+      throws IOException
+   {
+      _server = HttpServer.create( address, 0 );
+      _executor = newExecutor();
+      _server.setExecutor( _executor );
+      _factory = new TreeFactory( cacheCapacity );
+      _calculus = new Calculus( _factory );
+
+      // Filled in here and only read afterwards, so no locking is needed
+      _latencies = new LinkedHashMap<String, LatencyHistogram>();
+      for ( int i = 0; i < PATHS.length; ++i )
+      {
+         _latencies.put( PATHS[ i ], new LatencyHistogram() );
+         _server.createContext( PATHS[ i ], new Endpoint( i ) );
+      }
+      _server.createContext( "/metrics", new HttpHandler()
+      {
+         public void handle( HttpExchange exchange ) throws IOException
+         {
+            send( exchange, 200, getMetrics() );
+         }
+      } );
+   }
+
+   /**
+    * Returns an executor that runs each task on a new virtual thread, or a
+    * cached thread pool if this JVM has no virtual threads.
+    */
+   private static ExecutorService newExecutor()
+   {
+      try
+      {
+         Method method = Executors.class.getMethod(
+                  "newVirtualThreadPerTaskExecutor" );
+         return ( ExecutorService ) method.invoke( null );
+      }
+      catch ( ReflectiveOperationException e )
+      {
+         return Executors.newCachedThreadPool();
+      }
+   }
+
+   /**
+    * Starts answering requests.
+    */
+   public void start()
+   {
+      _server.start();
+   }
+
+   /**
+    * Stops answering requests, letting those under way finish.
+    */
+   public void stop()
+   {
+      _server.stop( 0 );
+      _executor.shutdown();
+   }
+
+   /**
+    * Returns the port the server listens on.
+    */
+   public int getPort()
+   {
+      return _server.getAddress().getPort();
+   }
+
+   /**
+    * Returns the latency of each endpoint and the counters of the parse
+    * and calculus caches, one per line.
+    */
+   public String getMetrics()
+   {
+      StringBuilder metrics = new StringBuilder();
+      for ( Map.Entry<String, LatencyHistogram> entry
+               : _latencies.entrySet() )
+      {
+         metrics.append( entry.getKey() ).append( ' ' )
+                  .append( entry.getValue() ).append( '\n' );
+      }
+      metrics.append( "parse cache " )
+               .append( _factory.getCacheStatistics() ).append( '\n' );
+      metrics.append( "calculus cache " )
+               .append( ExpressionTree.getCacheStatistics() ).append( '\n' );
+      return metrics.toString();
+   }
+
+   /**
+    * Answers requests for one operation.
+    */
+   private class Endpoint implements HttpHandler
+   {
+      private final int _operation;
+      private final LatencyHistogram _latency;
+
+      Endpoint( int operation )
+      {
+         _operation = operation;
+         _latency = _latencies.get( PATHS[ operation ] );
+      }
+
+      public void handle( HttpExchange exchange ) throws IOException
+      {
+         long start = System.nanoTime();
+         try
+         {
+            Map<String, List<String>> query = parseQuery(
+                     exchange.getRequestURI().getRawQuery() );
+            List<String> expressions = readExpressions( exchange, query );
+            if ( expressions.isEmpty() )
+            {
+               send( exchange, 400, "error: no expressions given\n" );
+            }
+            else
+            {
+               send( exchange, 200, apply( expressions, query ) );
+            }
+         }
+         finally
+         {
+            _latency.record( System.nanoTime() - start );
+         }
+      }
+
+      /**
+       * Applies the operation to a batch of expressions.
+       */
+      private String apply( List<String> expressions,
+                            Map<String, List<String>> query )
+      {
+         StringBuilder response = new StringBuilder();
+         if ( _operation == EVALUATE )
+         {
+            for ( String expression : expressions )
+            {
+               response.append( evaluate( expression, query ) ).append( '\n' );
+            }
+            return response.toString();
+         }
+
+         List<Calculus.Result> results;
+         if ( _operation == DERIVE )
+         {
+            results = _calculus.deriveAll( expressions );
+         }
+         else if ( _operation == INTEGRATE )
+         {
+            results = _calculus.integrateAll( expressions );
+         }
+         else
+         {
+            results = _calculus.simplifyAll( expressions );
+         }
+
+         for ( Calculus.Result result : results )
+         {
+            if ( result.isSuccess() )
+            {
+               response.append( result.getTree() );
+            }
+            else
+            {
+               response.append( "error: " )
+                        .append( result.getError().getMessage() );
+            }
+            response.append( '\n' );
+         }
+         return response.toString();
+      }
+   }
+
+   /**
+    * Evaluates one expression with the variable values given in the query.
+    *
+    * @return The value, or an error line.
+    */
+   private String evaluate( String expression,
+                            Map<String, List<String>> query )
+   {
+      try
+      {
+         CompiledExpression compiled = _factory.buildTree( expression )
+                  .compile();
+         String[] variables = compiled.getVariables();
+         double[] values = new double[ variables.length ];
+         for ( int i = 0; i < variables.length; ++i )
+         {
+            List<String> value = query.get( variables[ i ] );
+            if ( value == null )
+            {
+               return "error: no value for " + variables[ i ];
+            }
+            values[ i ] = Double.parseDouble( value.get( 0 ) );
+         }
+         return String.valueOf( compiled.evaluate( values ) );
+      }
+      catch ( ExpressionException e )
+      {
+         return "error: " + e.getMessage();
+      }
+      catch ( RuntimeException e )
+      {
+         return "error: " + e.getMessage();
+      }
+   }
+
+   /**
+    * Returns the expressions of a request: the "expr" query parameters and
+    * the non-blank lines of the body.
+    */
+   private static List<String> readExpressions( HttpExchange exchange,
+            Map<String, List<String>> query ) throws IOException
+   {
+      List<String> expressions = new ArrayList<String>();
+      if ( query.containsKey( "expr" ) )
+      {
+         expressions.addAll( query.get( "expr" ) );
+      }
+
+      BufferedReader body = new BufferedReader( new InputStreamReader(
+               exchange.getRequestBody(), StandardCharsets.UTF_8 ) );
+      for ( String line = body.readLine(); line != null;
+               line = body.readLine() )
+      {
+         if ( ! line.trim().isEmpty() )
+         {
+            expressions.add( line );
+         }
+      }
+      return expressions;
+   }
+
+   /**
+    * Splits a raw query string into its decoded parameters.
+    */
+   private static Map<String, List<String>> parseQuery( String query )
+      throws UnsupportedEncodingException
+   {
+      Map<String, List<String>> parameters =
+         new HashMap<String, List<String>>();
+      if ( query == null )
+      {
+         return parameters;
+      }
+
+      for ( String pair : query.split( "&" ) )
+      {
+         int equals = pair.indexOf( '=' );
+         String name = equals < 0 ? pair : pair.substring( 0, equals );
+         String value = equals < 0 ? "" : pair.substring( equals + 1 );
+         name = URLDecoder.decode( name, "UTF-8" );
+         List<String> values = parameters.get( name );
+         if ( values == null )
+         {
+            values = new ArrayList<String>();
+            parameters.put( name, values );
+         }
+         values.add( URLDecoder.decode( value, "UTF-8" ) );
+      }
+      return parameters;
+   }
+
+   /**
+    * Sends a plain text response.
+    */
+   private static void send( HttpExchange exchange, int status, String text )
+      throws IOException
+   {
+      byte[] bytes = text.getBytes( StandardCharsets.UTF_8 );
+      exchange.getResponseHeaders().set( "Content-Type",
+               "text/plain; charset=utf-8" );
+      exchange.sendResponseHeaders( status, bytes.length );
+      OutputStream out = exchange.getResponseBody();
+      try
+      {
+         out.write( bytes );
+      }
+      finally
+      {
+         out.close();
+      }
+   }
+
+   /**
+    * Runs the server until the process is killed.
+    *
+    * @param args The port to listen on, if not the default.
+    */
+   public static void main( String[] args ) throws IOException
+   {
+      int port = args.length > 0 ? Integer.parseInt( args[ 0 ] )
+               : DEFAULT_PORT;
+      CalcServer server = new CalcServer( port );
+      server.start();
+      System.out.println( "CalcHelper server listening on port "
+               + server.getPort() );
+   }
+}
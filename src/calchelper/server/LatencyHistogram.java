@@ -0,0 +1,123 @@
+/*
+ * LatencyHistogram.java
+ *
+ * This file is part of CalcHelper.
+ *
+ * CalcHelper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CalcHelper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CalcHelper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package calchelper.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts request latencies in buckets that double in width, so recording
+ * is a few atomic adds and percentiles are accurate to within a factor of
+ * two.  Bucket i holds latencies below 2^i microseconds.
+ *
+ * @author Patrick MacArthur
+ */
+final class LatencyHistogram
+{
+   private static final int BUCKETS = 40;
+
+   private final AtomicLongArray _counts;
+   private final LongAdder _count;
+   private final LongAdder _totalNanos;
+   private final AtomicLong _maxNanos;
+
+   /**
+    * Creates an empty histogram.
+    */
+   LatencyHistogram()
+   {
+      _counts = new AtomicLongArray( BUCKETS );
+      _count = new LongAdder();
+      _totalNanos = new LongAdder();
+      _maxNanos = new AtomicLong();
+   }
+
+   /**
+    * Records one latency.
+    *
+    * @param nanos The latency, in nanoseconds.
+    */
+   void record( long nanos )
+   {
+      long micros = Math.max( 0, nanos / 1000 );
+      int bucket = Math.min( BUCKETS - 1, 64 - Long.numberOfLeadingZeros(
+               micros ) );
+      _counts.incrementAndGet( bucket );
+      _count.increment();
+      _totalNanos.add( nanos );
+      for ( long max = _maxNanos.get();
+               nanos > max && ! _maxNanos.compareAndSet( max, nanos );
+               max = _maxNanos.get() )
+      {
+         // Another thread raised the maximum, so try again
+      }
+   }
+
+   /**
+    * Returns the number of latencies recorded.
+    */
+   long getCount()
+   {
+      return _count.sum();
+   }
+
+   /**
+    * Returns an upper bound on a percentile of the latencies.
+    *
+    * @param fraction The percentile as a fraction, such as 0.99.
+    * @return The bound in microseconds, or 0 if nothing is recorded.
+    */
+   long getPercentileMicros( double fraction )
+   {
+      long[] counts = new long[ BUCKETS ];
+      long total = 0;
+      for ( int i = 0; i < BUCKETS; ++i )
+      {
+         counts[ i ] = _counts.get( i );
+         total += counts[ i ];
+      }
+
+      long rank = ( long ) Math.ceil( fraction * total );
+      long seen = 0;
+      for ( int i = 0; i < BUCKETS; ++i )
+      {
+         seen += counts[ i ];
+         if ( seen >= rank && seen > 0 )
+         {
+            return 1L << i;
+         }
+      }
+      return 0;
+   }
+
+   /**
+    * Returns the counts and percentiles on one line.
+    */
+   public String toString()
+   {
+      long count = getCount();
+      double mean = count == 0 ? 0.0 : _totalNanos.sum() / 1000.0 / count;
+      return String.format( "count=%d mean=%.1fus p50<%dus p90<%dus "
+               + "p99<%dus max=%.1fus", count, mean,
+               getPercentileMicros( 0.5 ), getPercentileMicros( 0.9 ),
+               getPercentileMicros( 0.99 ), _maxNanos.get() / 1000.0 );
+   }
+}
@@ -22,6 +22,8 @@
  
 package calchelper.tree;
 
+import java.util.ArrayList;
+
 /**
  * A base class for all expression tree node types.
  *
@@ -30,6 +32,20 @@ package calchelper.tree;
 
 abstract class AbstractNode implements Cloneable
 {
+   // The cached hash code, or 0 if it has not been computed since this
+   // node last changed.  An int is read and written whole, and volatile
+   // makes a clearing by one thread seen by the others.
+   private volatile int _hash;
+
+   /* The operators whose cached hash codes were computed from this one.
+    * Nodes have no parent links, and may be shared between trees, so an
+    * operator adds itself here when it hashes its operands.  A change to
+    * this node clears their hash codes, and theirs in turn, and empties the
+    * list, so that it only holds operators whose hash codes are cached.
+    * Guarded by this node.
+    */
+   private ArrayList<AbstractNode> _dependents;
+
    /**
     * Returns a string representing the node of the tree.  Assumes 0 depth.
     */
@@ -85,6 +101,24 @@ abstract class AbstractNode implements Cloneable
       return 0;
    }
    
+   /**
+    * Evaluates the expression below this node, taking the value of each
+    * variable from its slot in the {@link SymbolTable}.
+    * 
+    * @param slots The value of each variable, indexed by slot.
+    * @return the value of the expression
+    * @throws UnsupportedOperationException if the node cannot be evaluated.
+    */
+   public double evaluate( double[] slots )
+   {
+      if ( hasValue() )
+      {
+         return getValue();
+      }
+      throw new UnsupportedOperationException( this.getStringValue()
+               + " cannot be evaluated" );
+   }
+
    /**
     * Returns a string representation of the value.
     * 
@@ -146,6 +180,123 @@ abstract class AbstractNode implements Cloneable
       return 0;
    }
     
+   /**
+    * Returns a hash code computed from the structure of the subtree, which
+    * is consistent with equals().  It is computed once and kept until this
+    * node or a node below it is changed.
+    * 
+    * @return the hash code
+    */
+   public final int hashCode()
+   {
+      int hash = _hash;
+      if ( hash == 0 )
+      {
+         hash = structuralHash();
+         _hash = hash;
+      }
+      return hash;
+   }
+
+   /**
+    * Computes the hash code of the subtree.  Nodes that override equals()
+    * override this to match.
+    * 
+    * @return the hash code
+    */
+   protected int structuralHash()
+   {
+      return System.identityHashCode( this );
+   }
+
+   /**
+    * Records that an operator's cached hash code is computed from this
+    * node's, so that a change to this node clears it.
+    * 
+    * @param operator The operator holding this node as an operand.
+    */
+   final void addDependent( AbstractNode operator )
+   {
+      synchronized ( this )
+      {
+         if ( _dependents == null )
+         {
+            _dependents = new ArrayList<AbstractNode>( 1 );
+         }
+         for ( AbstractNode dependent : _dependents )
+         {
+            if ( dependent == operator )
+            {
+               return;
+            }
+         }
+         _dependents.add( operator );
+      }
+   }
+
+   /**
+    * Forgets an operator that no longer holds this node as an operand.
+    * 
+    * @param operator The operator.
+    */
+   final void removeDependent( AbstractNode operator )
+   {
+      synchronized ( this )
+      {
+         if ( _dependents == null )
+         {
+            return;
+         }
+         for ( int i = 0; i < _dependents.size(); ++i )
+         {
+            if ( _dependents.get( i ) == operator )
+            {
+               _dependents.remove( i );
+               return;
+            }
+         }
+      }
+   }
+
+   /**
+    * Records that this node has been changed after it was built, so that
+    * its cached hash code, and those of the operators above it, are
+    * computed again.  Every method that changes an existing node must call
+    * this.
+    */
+   protected void changed()
+   {
+      _hash = 0;
+
+      ArrayList<AbstractNode> dependents;
+      synchronized ( this )
+      {
+         dependents = _dependents;
+         _dependents = null;
+      }
+      if ( dependents != null )
+      {
+         for ( AbstractNode dependent : dependents )
+         {
+            dependent.changed();
+         }
+      }
+   }
+
+   /**
+    * Clones the node.  The clone has no cached hash code, since no operand
+    * knows that it depends on them.
+    * 
+    * @return A clone of this node.
+    */
+   public Object clone() throws CloneNotSupportedException
+   {
+      AbstractNode clone = ( AbstractNode ) super.clone();
+      clone._hash = 0;
+      clone._dependents = null;
+      return clone;
+   }
+
    /**
     * Tests if two expressions are equal, ignoring coefficients. Only really 
     * makes a difference for those nodes that support constant coefficients.
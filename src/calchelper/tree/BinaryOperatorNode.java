@@ -64,7 +64,7 @@ abstract class BinaryOperatorNode extends OperatorNode
     */
    public void setLeft( AbstractNode node )
    {
-      _children.set( 0, node );
+      setChild( 0, node );
    }
    
    /**
@@ -75,7 +75,7 @@ abstract class BinaryOperatorNode extends OperatorNode
     */
    public void setRight( AbstractNode node )
    {
-      _children.set( 1, node );
+      setChild( 1, node );
    }
    
    /**
@@ -215,6 +215,14 @@ abstract class BinaryOperatorNode extends OperatorNode
       {
          return 10;
       }
+
+      /**
+       * Evaluates the node with the given variable values.
+       */
+      public double evaluate( double[] slots )
+      {
+         return getLeft().evaluate( slots ) + getRight().evaluate( slots );
+      }
    }
    
    /**
@@ -255,6 +263,14 @@ abstract class BinaryOperatorNode extends OperatorNode
       {
          return 15;
       }
+
+      /**
+       * Evaluates the node with the given variable values.
+       */
+      public double evaluate( double[] slots )
+      {
+         return getLeft().evaluate( slots ) * getRight().evaluate( slots );
+      }
       
       //++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
       /**
@@ -355,6 +371,14 @@ abstract class BinaryOperatorNode extends OperatorNode
       {
          return 10;
       }
+
+      /**
+       * Evaluates the node with the given variable values.
+       */
+      public double evaluate( double[] slots )
+      {
+         return getLeft().evaluate( slots ) - getRight().evaluate( slots );
+      }
       
       //++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
       /** Integrate - 
@@ -433,6 +457,14 @@ abstract class BinaryOperatorNode extends OperatorNode
       {
          return 15;
       }
+
+      /**
+       * Evaluates the node with the given variable values.
+       */
+      public double evaluate( double[] slots )
+      {
+         return getLeft().evaluate( slots ) / getRight().evaluate( slots );
+      }
       
       //++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
       /** Integrate - 
@@ -564,6 +596,15 @@ abstract class BinaryOperatorNode extends OperatorNode
       {
          return 20;
       }
+
+      /**
+       * Evaluates the node with the given variable values.
+       */
+      public double evaluate( double[] slots )
+      {
+         return Program.power( getLeft().evaluate( slots ),
+                  getRight().evaluate( slots ) );
+      }
       
       //++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
       /** Integrate - 
@@ -0,0 +1,196 @@
+/*
+ * BoundedCache.java
+ *
+ * This file is part of CalcHelper.
+ *
+ * CalcHelper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CalcHelper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CalcHelper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package calchelper.tree;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A map of at most a fixed number of entries that drops the least recently
+ * used entry to make room for a new one.
+ *
+ * The cache is split into independently locked stripes by key hash, so
+ * threads using different keys seldom wait for each other.  Each stripe
+ * evicts on its own, so the least recently used entry overall is not always
+ * the one dropped.
+ *
+ * @param <K> The key type.
+ * @param <V> The value type.
+ *
+ * @author Patrick MacArthur
+ */
+final class BoundedCache<K, V>
+{
+   /**
+    * One stripe of the cache, in access order.
+    */
+   private static final class Stripe<K, V> extends LinkedHashMap<K, V>
+   {
+      private static final long serialVersionUID = 1L;
+
+      private final int _capacity;
+      private final LongAdder _evictions;
+
+      Stripe( int capacity, LongAdder evictions )
+      {
+         super( 16, 0.75f, true );
+         _capacity = capacity;
+         _evictions = evictions;
+      }
+
+      protected boolean removeEldestEntry( Map.Entry<K, V> eldest )
+      {
+         if ( size() > _capacity )
+         {
+            _evictions.increment();
+            return true;
+         }
+         return false;
+      }
+   }
+
+   private final Stripe<K, V>[] _stripes;
+   private final int _capacity;
+   private final LongAdder _hits;
+   private final LongAdder _misses;
+   private final LongAdder _evictions;
+
+   /**
+    * Creates an empty cache.
+    *
+    * @param capacity The most entries to hold, which must be positive.
+    */
+   @SuppressWarnings( "unchecked" )
+   BoundedCache( int capacity )
+   {
+      if ( capacity <= 0 )
+      {
+         throw new IllegalArgumentException( "Capacity must be positive: "
+                  + capacity );
+      }
+
+      _capacity = capacity;
+      _hits = new LongAdder();
+      _misses = new LongAdder();
+      _evictions = new LongAdder();
+
+      // Small caches get fewer stripes, so that each holds at least 16
+      int stripes = Math.max( 1,
+               Math.min( 16, Integer.highestOneBit( capacity / 16 ) ) );
+      _stripes = ( Stripe<K, V>[] ) new Stripe<?, ?>[ stripes ];
+      for ( int i = 0; i < stripes; ++i )
+      {
+         // Spread the remainder over the first stripes
+         _stripes[ i ] = new Stripe<K, V>( capacity / stripes
+                  + ( i < capacity % stripes ? 1 : 0 ), _evictions );
+      }
+   }
+
+   /**
+    * Returns the value for a key, counting a hit or a miss.
+    *
+    * @param key The key to look up.
+    * @return The value, or null if the key is not in the cache.
+    */
+   V get( K key )
+   {
+      Stripe<K, V> stripe = stripe( key );
+      V value;
+      synchronized ( stripe )
+      {
+         value = stripe.get( key );
+      }
+      if ( value != null )
+      {
+         _hits.increment();
+      }
+      else
+      {
+         _misses.increment();
+      }
+      return value;
+   }
+
+   /**
+    * Adds or replaces the value for a key, evicting an entry if the key's
+    * stripe is full.
+    *
+    * @param key The key.
+    * @param value The value, which must not be null.
+    */
+   void put( K key, V value )
+   {
+      Stripe<K, V> stripe = stripe( key );
+      synchronized ( stripe )
+      {
+         stripe.put( key, value );
+      }
+   }
+
+   /**
+    * Removes every entry.  The counters are not reset.
+    */
+   void clear()
+   {
+      for ( Stripe<K, V> stripe : _stripes )
+      {
+         synchronized ( stripe )
+         {
+            stripe.clear();
+         }
+      }
+   }
+
+   /**
+    * Returns the number of entries.
+    */
+   int size()
+   {
+      int size = 0;
+      for ( Stripe<K, V> stripe : _stripes )
+      {
+         synchronized ( stripe )
+         {
+            size += stripe.size();
+         }
+      }
+      return size;
+   }
+
+   /**
+    * Returns a snapshot of the counters.
+    */
+   CacheStatistics statistics()
+   {
+      return new CacheStatistics( _hits.sum(), _misses.sum(),
+               _evictions.sum(), size(), _capacity );
+   }
+
+   /**
+    * Returns the stripe holding a key.
+    */
+   private Stripe<K, V> stripe( K key )
+   {
+      int hash = key.hashCode();
+      hash ^= hash >>> 16;
+      return _stripes[ hash & ( _stripes.length - 1 ) ];
+   }
+}
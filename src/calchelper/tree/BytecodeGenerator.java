@@ -0,0 +1,540 @@
+/*
+ * BytecodeGenerator.java
+ *
+ * This file is part of CalcHelper.
+ *
+ * CalcHelper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CalcHelper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CalcHelper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package calchelper.tree;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.HashMap;
+
+/**
+ * Translates a {@link Program} into JVM bytecode and loads it as a hidden
+ * class implementing {@link Evaluator}.
+ *
+ * Every register becomes a local variable of the generated evaluate()
+ * method, so the method is straight-line arithmetic that the JIT compiler
+ * can optimize as a whole.  The generated class has no fields and is safe
+ * to share between threads.
+ *
+ * @author Patrick MacArthur
+ */
+class BytecodeGenerator
+{
+   /*
+    * HotSpot refuses to JIT-compile methods longer than 8000 bytes, and an
+    * interpreted generated method is slower than the Program interpreter.
+    */
+   private static final int MAX_CODE_LENGTH = 8000;
+
+   private static final String CLASS_NAME = "calchelper/tree/GeneratedEvaluator";
+   private static final String PROGRAM_CLASS = "calchelper/tree/Program";
+   private static final String MATH_CLASS = "java/lang/Math";
+
+   // Opcodes of the JVM instructions used
+   private static final int DCONST_0 = 0x0e;
+   private static final int DCONST_1 = 0x0f;
+   private static final int BIPUSH = 0x10;
+   private static final int SIPUSH = 0x11;
+   private static final int LDC_W = 0x13;
+   private static final int LDC2_W = 0x14;
+   private static final int DLOAD = 0x18;
+   private static final int ALOAD_0 = 0x2a;
+   private static final int ALOAD_1 = 0x2b;
+   private static final int DALOAD = 0x31;
+   private static final int DSTORE = 0x39;
+   private static final int DADD = 0x63;
+   private static final int DSUB = 0x67;
+   private static final int DMUL = 0x6b;
+   private static final int DDIV = 0x6f;
+   private static final int DRETURN = 0xaf;
+   private static final int RETURN = 0xb1;
+   private static final int INVOKESPECIAL = 0xb7;
+   private static final int INVOKESTATIC = 0xb8;
+   private static final int WIDE = 0xc4;
+
+   private Program _program;
+
+   // The constant pool
+   private ByteArrayOutputStream _poolBytes;
+   private DataOutputStream _pool;
+   private HashMap<String, Integer> _poolIndex;
+   private int _poolCount;
+
+   // The code of the evaluate() method
+   private ByteArrayOutputStream _codeBytes;
+   private DataOutputStream _code;
+
+   /**
+    * Creates a generator for the given program.
+    *
+    * @param program The program to translate.
+    */
+   BytecodeGenerator( Program program )
+   {
+      _program = program;
+      _poolBytes = new ByteArrayOutputStream();
+      _pool = new DataOutputStream( _poolBytes );
+      _poolIndex = new HashMap<String, Integer>();
+      _poolCount = 1;
+      _codeBytes = new ByteArrayOutputStream();
+      _code = new DataOutputStream( _codeBytes );
+   }
+
+   /**
+    * Generates and loads an evaluator for the program.
+    *
+    * @return The evaluator, or null if the program is too large to be
+    * compiled efficiently by the JIT.
+    */
+   Evaluator generate()
+   {
+      try
+      {
+         byte[] bytes = generateClass();
+         if ( bytes == null )
+         {
+            return null;
+         }
+
+         MethodHandles.Lookup lookup = MethodHandles.lookup()
+                  .defineHiddenClass( bytes, true );
+         return ( Evaluator ) lookup.findConstructor( lookup.lookupClass(),
+                  MethodType.methodType( void.class ) ).invoke();
+      }
+      catch ( RuntimeException e )
+      {
+         throw e;
+      }
+      catch ( Throwable e )
+      {
+         throw new IllegalStateException( "Could not load generated code", e );
+      }
+   }
+
+   /**
+    * Generates the class file.
+    *
+    * @return The class file, or null if the evaluate() method would be too
+    * long.
+    */
+   byte[] generateClass() throws IOException
+   {
+      int thisClass = classEntry( CLASS_NAME );
+      int superClass = classEntry( "java/lang/Object" );
+      int evaluatorClass = classEntry( "calchelper/tree/Evaluator" );
+      int objectInit = methodEntry( "java/lang/Object", "<init>", "()V" );
+      int initName = utf8Entry( "<init>" );
+      int initType = utf8Entry( "()V" );
+      int evaluateName = utf8Entry( "evaluate" );
+      int evaluateType = utf8Entry( "([D)D" );
+      int codeName = utf8Entry( "Code" );
+
+      generateEvaluate();
+      if ( _codeBytes.size() > MAX_CODE_LENGTH )
+      {
+         return null;
+      }
+
+      ByteArrayOutputStream classBytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream( classBytes );
+      out.writeInt( 0xCAFEBABE );
+      out.writeShort( 0 );  // minor version
+      out.writeShort( 52 ); // major version (Java 8); no stack maps needed
+      out.writeShort( _poolCount );
+      _pool.flush();
+      _poolBytes.writeTo( out );
+      out.writeShort( 0x0001 | 0x0010 | 0x0020 ); // public final super
+      out.writeShort( thisClass );
+      out.writeShort( superClass );
+      out.writeShort( 1 );
+      out.writeShort( evaluatorClass );
+      out.writeShort( 0 ); // fields
+
+      out.writeShort( 2 ); // methods
+
+      // public <init>() { super(); }
+      out.writeShort( 0x0001 );
+      out.writeShort( initName );
+      out.writeShort( initType );
+      out.writeShort( 1 );
+      out.writeShort( codeName );
+      out.writeInt( 12 + 5 );
+      out.writeShort( 1 ); // max stack
+      out.writeShort( 1 ); // max locals
+      out.writeInt( 5 );
+      out.writeByte( ALOAD_0 );
+      out.writeByte( INVOKESPECIAL );
+      out.writeShort( objectInit );
+      out.writeByte( RETURN );
+      out.writeShort( 0 ); // exception table
+      out.writeShort( 0 ); // attributes
+
+      // public double evaluate( double[] values )
+      _code.flush();
+      out.writeShort( 0x0001 );
+      out.writeShort( evaluateName );
+      out.writeShort( evaluateType );
+      out.writeShort( 1 );
+      out.writeShort( codeName );
+      out.writeInt( 12 + _codeBytes.size() );
+      out.writeShort( 8 );                                   // max stack
+      out.writeShort( local( _program.size() ) );           // max locals
+      out.writeInt( _codeBytes.size() );
+      _codeBytes.writeTo( out );
+      out.writeShort( 0 ); // exception table
+      out.writeShort( 0 ); // attributes
+
+      out.writeShort( 0 ); // class attributes
+      out.flush();
+      return classBytes.toByteArray();
+   }
+
+   /**
+    * Generates the body of the evaluate() method.
+    */
+   private void generateEvaluate() throws IOException
+   {
+      for ( int i = 0; i < _program.size(); ++i )
+      {
+         int op = _program.op( i );
+         switch ( op )
+         {
+            case Program.CONST:
+               pushConstant( _program.constant( i ) );
+               break;
+            case Program.VAR:
+               _code.writeByte( ALOAD_1 );
+               pushInt( _program.left( i ) );
+               _code.writeByte( DALOAD );
+               break;
+            case Program.POLY:
+               generatePolynomial( _program.left( i ), _program.right( i ) );
+               break;
+            case Program.ADD:
+            case Program.SUB:
+            case Program.MUL:
+            case Program.DIV:
+               load( _program.left( i ) );
+               load( _program.right( i ) );
+               _code.writeByte( arithmeticInstruction( op ) );
+               break;
+            case Program.POW:
+               load( _program.left( i ) );
+               load( _program.right( i ) );
+               invokeStatic( PROGRAM_CLASS, "power", "(DD)D" );
+               break;
+            case Program.COT:
+            case Program.SEC:
+            case Program.CSC:
+               // reciprocal functions: 1.0 / f( x )
+               _code.writeByte( DCONST_1 );
+               load( _program.left( i ) );
+               invokeStatic( MATH_CLASS, mathFunction( op ), "(D)D" );
+               _code.writeByte( DDIV );
+               break;
+            default:
+               load( _program.left( i ) );
+               invokeStatic( MATH_CLASS, mathFunction( op ), "(D)D" );
+         }
+         store( i );
+      }
+
+      load( _program.size() - 1 );
+      _code.writeByte( DRETURN );
+   }
+
+   /**
+    * Generates the sum of the terms of a polynomial.
+    */
+   private void generatePolynomial( int variable, int index )
+      throws IOException
+   {
+      double[] powers = _program.polyPowers( index );
+      double[] coefficients = _program.polyCoefficients( index );
+
+      if ( powers == null )
+      {
+         // Horner's rule
+         pushConstant( coefficients[ coefficients.length - 1 ] );
+         for ( int k = coefficients.length - 2; k >= 0; --k )
+         {
+            load( variable );
+            _code.writeByte( DMUL );
+            if ( coefficients[ k ] != 0.0 )
+            {
+               pushConstant( coefficients[ k ] );
+               _code.writeByte( DADD );
+            }
+         }
+         return;
+      }
+
+      _code.writeByte( DCONST_0 );
+      for ( int k = 0; k < powers.length; ++k )
+      {
+         pushConstant( coefficients[ k ] );
+         if ( powers[ k ] != 0.0 )
+         {
+            load( variable );
+            if ( powers[ k ] != 1.0 )
+            {
+               pushConstant( powers[ k ] );
+               invokeStatic( PROGRAM_CLASS, "power", "(DD)D" );
+            }
+            _code.writeByte( DMUL );
+         }
+         _code.writeByte( DADD );
+      }
+   }
+
+   /**
+    * Returns the JVM instruction for an arithmetic opcode.
+    */
+   private static int arithmeticInstruction( int op )
+   {
+      switch ( op )
+      {
+         case Program.ADD: return DADD;
+         case Program.SUB: return DSUB;
+         case Program.MUL: return DMUL;
+         default:          return DDIV;
+      }
+   }
+
+   /**
+    * Returns the java.lang.Math method that implements a function opcode.
+    */
+   private static String mathFunction( int op )
+   {
+      switch ( op )
+      {
+         case Program.SIN: return "sin";
+         case Program.COS: return "cos";
+         case Program.TAN: return "tan";
+         case Program.COT: return "tan";
+         case Program.SEC: return "cos";
+         case Program.CSC: return "sin";
+         case Program.LN:  return "log";
+         default:
+            throw new IllegalStateException( "Not a function opcode: " + op );
+      }
+   }
+
+   /**
+    * Returns the local variable slot holding a register.  Slot 0 is "this"
+    * and slot 1 is the values array; each double takes two slots.
+    */
+   private static int local( int register )
+   {
+      return 2 + 2 * register;
+   }
+
+   /**
+    * Pushes a register onto the operand stack.
+    */
+   private void load( int register ) throws IOException
+   {
+      localInstruction( DLOAD, local( register ) );
+   }
+
+   /**
+    * Pops the operand stack into a register.
+    */
+   private void store( int register ) throws IOException
+   {
+      localInstruction( DSTORE, local( register ) );
+   }
+
+   /**
+    * Writes a load or store, using the wide form if needed.
+    */
+   private void localInstruction( int opcode, int slot ) throws IOException
+   {
+      if ( slot > 0xff )
+      {
+         _code.writeByte( WIDE );
+         _code.writeByte( opcode );
+         _code.writeShort( slot );
+      }
+      else
+      {
+         _code.writeByte( opcode );
+         _code.writeByte( slot );
+      }
+   }
+
+   /**
+    * Pushes an int constant onto the operand stack.
+    */
+   private void pushInt( int value ) throws IOException
+   {
+      if ( value <= Byte.MAX_VALUE )
+      {
+         _code.writeByte( BIPUSH );
+         _code.writeByte( value );
+      }
+      else if ( value <= Short.MAX_VALUE )
+      {
+         _code.writeByte( SIPUSH );
+         _code.writeShort( value );
+      }
+      else
+      {
+         _code.writeByte( LDC_W );
+         _code.writeShort( intEntry( value ) );
+      }
+   }
+
+   /**
+    * Pushes a double constant onto the operand stack.
+    */
+   private void pushConstant( double value ) throws IOException
+   {
+      if ( Double.doubleToRawLongBits( value ) == 0L )
+      {
+         _code.writeByte( DCONST_0 );
+      }
+      else if ( value == 1.0 )
+      {
+         _code.writeByte( DCONST_1 );
+      }
+      else
+      {
+         _code.writeByte( LDC2_W );
+         _code.writeShort( doubleEntry( value ) );
+      }
+   }
+
+   /**
+    * Writes a call to a static method.
+    */
+   private void invokeStatic( String owner, String name, String type )
+      throws IOException
+   {
+      _code.writeByte( INVOKESTATIC );
+      _code.writeShort( methodEntry( owner, name, type ) );
+   }
+
+   //------------------------ constant pool ---------------------------------
+
+   /**
+    * Returns the index of a UTF-8 string in the constant pool.
+    */
+   private int utf8Entry( String value ) throws IOException
+   {
+      String key = "U" + value;
+      Integer index = _poolIndex.get( key );
+      if ( index == null )
+      {
+         _pool.writeByte( 1 );
+         _pool.writeUTF( value );
+         index = addEntry( key, 1 );
+      }
+      return index;
+   }
+
+   /**
+    * Returns the index of a class in the constant pool.
+    */
+   private int classEntry( String name ) throws IOException
+   {
+      String key = "C" + name;
+      Integer index = _poolIndex.get( key );
+      if ( index == null )
+      {
+         int nameIndex = utf8Entry( name );
+         _pool.writeByte( 7 );
+         _pool.writeShort( nameIndex );
+         index = addEntry( key, 1 );
+      }
+      return index;
+   }
+
+   /**
+    * Returns the index of a method reference in the constant pool.
+    */
+   private int methodEntry( String owner, String name, String type )
+      throws IOException
+   {
+      String key = "M" + owner + "." + name + type;
+      Integer index = _poolIndex.get( key );
+      if ( index == null )
+      {
+         int ownerIndex = classEntry( owner );
+         int nameIndex = utf8Entry( name );
+         int typeIndex = utf8Entry( type );
+         _pool.writeByte( 12 ); // NameAndType
+         _pool.writeShort( nameIndex );
+         _pool.writeShort( typeIndex );
+         int nameAndType = addEntry( "N" + name + type, 1 );
+         _pool.writeByte( 10 ); // Methodref
+         _pool.writeShort( ownerIndex );
+         _pool.writeShort( nameAndType );
+         index = addEntry( key, 1 );
+      }
+      return index;
+   }
+
+   /**
+    * Returns the index of an int constant in the constant pool.
+    */
+   private int intEntry( int value ) throws IOException
+   {
+      String key = "I" + value;
+      Integer index = _poolIndex.get( key );
+      if ( index == null )
+      {
+         _pool.writeByte( 3 );
+         _pool.writeInt( value );
+         index = addEntry( key, 1 );
+      }
+      return index;
+   }
+
+   /**
+    * Returns the index of a double constant in the constant pool.
+    */
+   private int doubleEntry( double value ) throws IOException
+   {
+      long bits = Double.doubleToRawLongBits( value );
+      String key = "D" + bits;
+      Integer index = _poolIndex.get( key );
+      if ( index == null )
+      {
+         _pool.writeByte( 6 );
+         _pool.writeLong( bits );
+         index = addEntry( key, 2 ); // doubles take two entries
+      }
+      return index;
+   }
+
+   /**
+    * Records a new constant pool entry.
+    */
+   private int addEntry( String key, int width )
+   {
+      int index = _poolCount;
+      _poolCount += width;
+      _poolIndex.put( key, index );
+      return index;
+   }
+}
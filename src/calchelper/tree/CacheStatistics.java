@@ -0,0 +1,125 @@
+/*
+ * CacheStatistics.java
+ *
+ * This file is part of CalcHelper.
+ *
+ * CalcHelper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CalcHelper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CalcHelper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package calchelper.tree;
+
+/**
+ * A snapshot of the counters of one of the library's caches, for use in
+ * choosing its size.
+ *
+ * @author Patrick MacArthur
+ */
+public final class CacheStatistics
+{
+   private final long _hits;
+   private final long _misses;
+   private final long _evictions;
+   private final int _size;
+   private final int _capacity;
+
+   /**
+    * Creates a snapshot.
+    *
+    * @param hits The number of lookups that found an entry.
+    * @param misses The number of lookups that did not.
+    * @param evictions The number of entries dropped to make room.
+    * @param size The number of entries.
+    * @param capacity The most entries the cache holds.
+    */
+   CacheStatistics( long hits, long misses, long evictions, int size,
+                    int capacity )
+   {
+      _hits = hits;
+      _misses = misses;
+      _evictions = evictions;
+      _size = size;
+      _capacity = capacity;
+   }
+
+   /**
+    * Returns the number of lookups that found an entry.
+    *
+    * @return The hit count.
+    */
+   public long getHitCount()
+   {
+      return _hits;
+   }
+
+   /**
+    * Returns the number of lookups that did not find an entry.
+    *
+    * @return The miss count.
+    */
+   public long getMissCount()
+   {
+      return _misses;
+   }
+
+   /**
+    * Returns the number of entries dropped to make room for others.
+    *
+    * @return The eviction count.
+    */
+   public long getEvictionCount()
+   {
+      return _evictions;
+   }
+
+   /**
+    * Returns the number of entries in the cache.
+    *
+    * @return The size.
+    */
+   public int getSize()
+   {
+      return _size;
+   }
+
+   /**
+    * Returns the most entries the cache holds.
+    *
+    * @return The capacity.
+    */
+   public int getCapacity()
+   {
+      return _capacity;
+   }
+
+   /**
+    * Returns the fraction of lookups that found an entry.
+    *
+    * @return The hit rate, or 0 if there have been no lookups.
+    */
+   public double getHitRate()
+   {
+      long lookups = _hits + _misses;
+      return lookups == 0 ? 0.0 : ( double ) _hits / lookups;
+   }
+
+   /**
+    * Returns a human-readable summary of the counters.
+    */
+   public String toString()
+   {
+      return String.format( "hits=%d misses=%d hitRate=%.3f evictions=%d "
+               + "size=%d/%d", _hits, _misses, getHitRate(), _evictions,
+               _size, _capacity );
+   }
+}
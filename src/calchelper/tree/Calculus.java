@@ -0,0 +1,214 @@
+/*
+ * Calculus.java
+ *
+ * This file is part of CalcHelper.
+ *
+ * CalcHelper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CalcHelper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CalcHelper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package calchelper.tree;
+
+import java.util.List;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Parses, simplifies and differentiates or integrates whole batches of
+ * expressions, spread across all processors with a parallel stream.
+ *
+ * Each expression succeeds or fails on its own: a failure, such as an
+ * invalid expression or an integral that cannot be found, is recorded in
+ * that expression's {@link Result} and the rest of the batch goes on.
+ *
+ * @author Patrick MacArthur
+ */
+public final class Calculus
+{
+   // Operations
+   private static final int SIMPLIFY = 0;
+   private static final int DERIVE = 1;
+   private static final int INTEGRATE = 2;
+
+   /**
+    * The outcome for one expression of a batch: either a tree or the
+    * exception that kept it from being found.
+    */
+   public static final class Result
+   {
+      private final String _expression;
+      private final ExpressionTree _tree;
+      private final Exception _error;
+
+      Result( String expression, ExpressionTree tree, Exception error )
+      {
+         _expression = expression;
+         _tree = tree;
+         _error = error;
+      }
+
+      /**
+       * Returns the expression this is the result for.
+       */
+      public String getExpression()
+      {
+         return _expression;
+      }
+
+      /**
+       * Returns the resulting tree.
+       *
+       * @return The tree, or null if the operation failed.
+       */
+      public ExpressionTree getTree()
+      {
+         return _tree;
+      }
+
+      /**
+       * Returns the reason the operation failed: an ExpressionException if
+       * the expression is invalid, or an UnsupportedOperationException or
+       * other runtime exception if it could not be carried out.
+       *
+       * @return The exception, or null if the operation succeeded.
+       */
+      public Exception getError()
+      {
+         return _error;
+      }
+
+      /**
+       * Determines whether the operation succeeded.
+       */
+      public boolean isSuccess()
+      {
+         return _error == null;
+      }
+
+      /**
+       * Returns the resulting tree or the error as a string.
+       */
+      public String toString()
+      {
+         return _error == null ? _tree.toString() : _error.toString();
+      }
+   }
+
+   private final TreeFactory _factory;
+
+   /**
+    * Creates a batch processor that parses with a new TreeFactory.
+    */
+   public Calculus()
+   {
+      this( new TreeFactory() );
+   }
+
+   /**
+    * Creates a batch processor that parses with the given factory, which
+    * may have a parse cache.
+    *
+    * @param factory The factory, which all threads share.
+    */
+   public Calculus( TreeFactory factory )
+   {
+      _factory = factory;
+   }
+
+   /**
+    * Parses and simplifies each expression of a batch.
+    *
+    * @param expressions The infix expressions.
+    * @return The results, in the same order as the expressions.
+    */
+   public List<Result> simplifyAll( List<String> expressions )
+   {
+      return applyAll( expressions, SIMPLIFY );
+   }
+
+   /**
+    * Parses, simplifies and differentiates each expression of a batch.
+    *
+    * @param expressions The infix expressions.
+    * @return The results, in the same order as the expressions.
+    */
+   public List<Result> deriveAll( List<String> expressions )
+   {
+      return applyAll( expressions, DERIVE );
+   }
+
+   /**
+    * Parses, simplifies and integrates each expression of a batch.
+    *
+    * @param expressions The infix expressions.
+    * @return The results, in the same order as the expressions.
+    */
+   public List<Result> integrateAll( List<String> expressions )
+   {
+      return applyAll( expressions, INTEGRATE );
+   }
+
+   /**
+    * Applies an operation to every expression of a batch in parallel.
+    */
+   private List<Result> applyAll( final List<String> expressions,
+                                  final int operation )
+   {
+      return IntStream.range( 0, expressions.size() ).parallel().mapToObj(
+               new IntFunction<Result>()
+               {
+                  public Result apply( int i )
+                  {
+                     return Calculus.this.apply( expressions.get( i ),
+                              operation );
+                  }
+               } ).collect( Collectors.<Result>toList() );
+   }
+
+   /**
+    * Applies an operation to one expression, catching any failure.
+    */
+   private Result apply( String expression, int operation )
+   {
+      try
+      {
+         ExpressionTree tree = _factory.buildTree( expression );
+         tree.simplify();
+         if ( operation == DERIVE )
+         {
+            tree = tree.derive();
+         }
+         else if ( operation == INTEGRATE )
+         {
+            tree = tree.integrate();
+         }
+
+         if ( tree == null || tree.getRoot() == null )
+         {
+            throw new UnsupportedOperationException( expression
+                     + ( operation == DERIVE ? " cannot be derived"
+                              : " cannot be integrated" ) );
+         }
+         return new Result( expression, tree, null );
+      }
+      catch ( ExpressionException e )
+      {
+         return new Result( expression, null, e );
+      }
+      catch ( RuntimeException e )
+      {
+         return new Result( expression, null, e );
+      }
+   }
+}
@@ -0,0 +1,202 @@
+/*
+ * CalculusCache.java
+ *
+ * This file is part of CalcHelper.
+ *
+ * CalcHelper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CalcHelper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CalcHelper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package calchelper.tree;
+
+/**
+ * Remembers derivatives and integrals so that asking for the same one again
+ * costs a lookup.  Results are keyed by the hash-consed
+ * {@link ImmutableExpression} of the expression, so any two structurally
+ * identical expressions share an entry, including identical subexpressions
+ * of different expressions.
+ *
+ * The cache is global and bounded, dropping the least recently used results
+ * when full.  Failures are not cached.
+ *
+ * @author Patrick MacArthur
+ */
+final class CalculusCache
+{
+   // The number of results kept unless changed by setCapacity()
+   static final int DEFAULT_CAPACITY = 4096;
+
+   // Operations
+   private static final int DERIVE = 0;
+   private static final int TREE_DERIVE = 1;
+   private static final int TREE_INTEGRATE = 2;
+
+   /**
+    * Identifies a result: an operation applied to an expression.
+    */
+   private static final class Key
+   {
+      private final ImmutableExpression _expression;
+      private final int _operation;
+      private final String _variable;
+
+      Key( ImmutableExpression expression, int operation, String variable )
+      {
+         _expression = expression;
+         _operation = operation;
+         _variable = variable;
+      }
+
+      public boolean equals( Object obj )
+      {
+         if ( ! ( obj instanceof Key ) )
+         {
+            return false;
+         }
+         Key key = ( Key ) obj;
+         return _expression == key._expression
+                  && _operation == key._operation
+                  && ( _variable == null ? key._variable == null
+                           : _variable.equals( key._variable ) );
+      }
+
+      public int hashCode()
+      {
+         int hash = _expression.hashCode() * 31 + _operation;
+         return _variable == null ? hash : hash * 31 + _variable.hashCode();
+      }
+   }
+
+   private static volatile BoundedCache<Key, ImmutableExpression> _cache =
+      new BoundedCache<Key, ImmutableExpression>( DEFAULT_CAPACITY );
+
+   private CalculusCache()
+   {
+   }
+
+   /**
+    * Returns the derivative of an immutable expression, computing it if it
+    * is not cached.
+    *
+    * @param expression The expression to differentiate.
+    * @param variable The variable to differentiate with respect to.
+    * @return The derivative.
+    */
+   static ImmutableExpression derive( ImmutableExpression expression,
+                                      String variable )
+   {
+      BoundedCache<Key, ImmutableExpression> cache = _cache;
+      Key key = new Key( expression, DERIVE, variable );
+      ImmutableExpression derivative = cache.get( key );
+      if ( derivative == null )
+      {
+         derivative = expression.computeDerivative( variable );
+         cache.put( key, derivative );
+      }
+      return derivative;
+   }
+
+   /**
+    * Returns the derivative of a subtree as given by
+    * {@link AbstractNode#derive()}.  The subtree is not changed, and the
+    * result shares no nodes with it.
+    *
+    * @param root The root of the subtree.
+    * @return The derivative, or null if the subtree has none.
+    */
+   static AbstractNode deriveTree( AbstractNode root )
+   {
+      return applyToTree( root, TREE_DERIVE );
+   }
+
+   /**
+    * Returns the integral of a subtree as given by
+    * {@link AbstractNode#integrate()}.  The subtree is not changed, and the
+    * result shares no nodes with it.
+    *
+    * @param root The root of the subtree.
+    * @return The integral, or null if the subtree has none.
+    */
+   static AbstractNode integrateTree( AbstractNode root )
+   {
+      return applyToTree( root, TREE_INTEGRATE );
+   }
+
+   /**
+    * Returns the result of deriving or integrating a subtree.
+    */
+   private static AbstractNode applyToTree( AbstractNode root, int operation )
+   {
+      ImmutableExpression expression;
+      try
+      {
+         expression = ImmutableExpression.of( root );
+      }
+      catch ( IllegalArgumentException e )
+      {
+         // Not a tree we can key on, so don't cache it
+         return apply( root, operation );
+      }
+
+      BoundedCache<Key, ImmutableExpression> cache = _cache;
+      Key key = new Key( expression, operation, null );
+      ImmutableExpression cached = cache.get( key );
+      if ( cached != null )
+      {
+         // Fold polynomials in several variables back together, so that a
+         // hit gives the same tree as a miss
+         return cached.toFoldedNode();
+      }
+
+      // Work on a copy, since some nodes change themselves as they go
+      AbstractNode result = apply( expression.toNode(), operation );
+      if ( result != null )
+      {
+         try
+         {
+            cache.put( key, ImmutableExpression.of( result ) );
+         }
+         catch ( IllegalArgumentException e )
+         {
+            // The result has holes in it, so leave it out
+         }
+      }
+      return result;
+   }
+
+   /**
+    * Derives or integrates a subtree.
+    */
+   private static AbstractNode apply( AbstractNode root, int operation )
+   {
+      return operation == TREE_DERIVE ? root.derive() : root.integrate();
+   }
+
+   /**
+    * Returns a snapshot of the cache's counters.
+    */
+   static CacheStatistics statistics()
+   {
+      return _cache.statistics();
+   }
+
+   /**
+    * Replaces the cache with an empty one of the given capacity.
+    *
+    * @param capacity The most results to keep, which must be positive.
+    */
+   static void setCapacity( int capacity )
+   {
+      _cache = new BoundedCache<Key, ImmutableExpression>( capacity );
+   }
+}
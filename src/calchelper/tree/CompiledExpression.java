@@ -0,0 +1,391 @@
+/*
+ * CompiledExpression.java
+ *
+ * This file is part of CalcHelper.
+ *
+ * CalcHelper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CalcHelper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CalcHelper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package calchelper.tree;
+
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * An expression that has been compiled for fast, repeated evaluation.
+ * Evaluating a compiled expression neither recurses nor allocates.
+ *
+ * A compiled expression keeps its own scratch space, so a single instance
+ * must not be evaluated from more than one thread at a time.  Use
+ * {@link #copy()} to get an instance for another thread.
+ *
+ * Expressions compiled with {@link ExpressionTree#compileToBytecode} run as
+ * generated JVM code rather than through the program interpreter.
+ *
+ * @author Patrick MacArthur
+ */
+public final class CompiledExpression
+{
+   private final Program _program;
+   private final String[] _variables;
+   private final Evaluator _evaluator;
+   private final boolean _generated;
+   private final double[] _point;
+   private double[][] _blockRegisters;
+   private double[] _dualRegisters;   // values, for differentiation
+   private double[] _tangents;        // derivatives or adjoints
+   private double[] _dual;
+
+   /**
+    * Wraps a compiled program.
+    *
+    * @param program The program to run.
+    * @param variables The variable bound to each slot.
+    * @param generated Whether to run the program as generated bytecode.
+    */
+   CompiledExpression( Program program, String[] variables,
+                       boolean generated )
+   {
+      Evaluator evaluator = null;
+      if ( generated )
+      {
+         evaluator = new BytecodeGenerator( program ).generate();
+      }
+
+      _program = program;
+      _variables = variables;
+      _generated = evaluator != null;
+      _evaluator = _generated ? evaluator : program.newInterpreter();
+      _point = new double[ Math.max( 1, variables.length ) ];
+   }
+
+   /**
+    * Creates a copy that shares the given evaluator.
+    */
+   private CompiledExpression( CompiledExpression other, Evaluator evaluator )
+   {
+      _program = other._program;
+      _variables = other._variables;
+      _generated = other._generated;
+      _evaluator = evaluator;
+      _point = new double[ other._point.length ];
+   }
+
+   /**
+    * Evaluates the expression at the given point.
+    *
+    * @param values The value of each variable, in the order given by
+    * {@link #getVariables()}.
+    * @return The value of the expression.
+    */
+   public double evaluate( double... values )
+   {
+      if ( values.length < _variables.length )
+      {
+         throw new IllegalArgumentException( "Expected " + _variables.length
+                  + " values but got " + values.length );
+      }
+      return _evaluator.evaluate( values );
+   }
+
+   /**
+    * Evaluates an expression of at most one variable.
+    *
+    * @param x The value of the variable.
+    * @return The value of the expression.
+    */
+   public double evaluate( double x )
+   {
+      if ( _variables.length > 1 )
+      {
+         throw new IllegalStateException( "Expression has "
+                  + _variables.length + " variables" );
+      }
+      _point[ 0 ] = x;
+      return _evaluator.evaluate( _point );
+   }
+
+   /**
+    * Evaluates the expression and its derivative with respect to one of its
+    * variables in a single pass, by forward-mode automatic differentiation.
+    * This is much cheaper than differentiating the tree symbolically when
+    * only the numeric derivative at some points is needed.
+    *
+    * @param variable The index of the variable in {@link #getVariables()}.
+    * @param values The value of each variable, in the order given by
+    * {@link #getVariables()}.
+    * @param result Receives the value of the expression in element 0 and
+    * its derivative in element 1.
+    * @throws IllegalArgumentException if there are too few values or no
+    * variable has the given index.
+    */
+   public void evaluateWithDerivative( int variable, double[] values,
+                                       double[] result )
+   {
+      if ( values.length < _variables.length )
+      {
+         throw new IllegalArgumentException( "Expected " + _variables.length
+                  + " values but got " + values.length );
+      }
+      if ( variable < 0 || variable >= _variables.length )
+      {
+         throw new IllegalArgumentException( "No variable " + variable
+                  + " among " + _variables.length );
+      }
+      if ( _tangents == null )
+      {
+         _dualRegisters = new double[ _program.size() ];
+         _tangents = new double[ _program.size() ];
+      }
+      int register = _program.runDual( values, variable, _dualRegisters,
+               _tangents );
+      result[ 0 ] = _dualRegisters[ register ];
+      result[ 1 ] = _tangents[ register ];
+   }
+
+   /**
+    * Evaluates the expression and its gradient, the derivative with respect
+    * to every variable, by reverse-mode automatic differentiation: one pass
+    * forward through the compiled program and one back, whatever the
+    * number of variables.  After the first call, nothing is allocated.
+    *
+    * @param values The value of each variable, in the order given by
+    * {@link #getVariables()}.
+    * @param gradient Receives the partial derivative with respect to each
+    * variable, in the same order.
+    * @return The value of the expression.
+    */
+   public double evaluateWithGradient( double[] values, double[] gradient )
+   {
+      if ( values.length < _variables.length
+               || gradient.length < _variables.length )
+      {
+         throw new IllegalArgumentException( "Expected "
+                  + _variables.length + " values and partial derivatives" );
+      }
+      if ( _tangents == null )
+      {
+         _dualRegisters = new double[ _program.size() ];
+         _tangents = new double[ _program.size() ];
+      }
+      return _program.runGradient( values, _dualRegisters, _tangents,
+               gradient );
+   }
+
+   /**
+    * Evaluates the derivative of the expression with respect to one of its
+    * variables.
+    *
+    * @param variable The index of the variable in {@link #getVariables()}.
+    * @param values The value of each variable, in the order given by
+    * {@link #getVariables()}.
+    * @return The value of the derivative.
+    * @throws IllegalArgumentException if there are too few values or no
+    * variable has the given index.
+    * @see #evaluateWithDerivative(int, double[], double[])
+    */
+   public double derivative( int variable, double... values )
+   {
+      if ( _dual == null )
+      {
+         _dual = new double[ 2 ];
+      }
+      evaluateWithDerivative( variable, values, _dual );
+      return _dual[ 1 ];
+   }
+
+   /**
+    * Evaluates the derivative of an expression of at most one variable.
+    *
+    * @param x The value of the variable.
+    * @return The value of the derivative.
+    * @see #evaluateWithDerivative(int, double[], double[])
+    */
+   public double derivative( double x )
+   {
+      if ( _variables.length > 1 )
+      {
+         throw new IllegalStateException( "Expression has "
+                  + _variables.length + " variables" );
+      }
+      else if ( _variables.length == 0 )
+      {
+         // A constant
+         return 0.0;
+      }
+      _point[ 0 ] = x;
+      return derivative( 0, _point );
+   }
+
+   /**
+    * Evaluates an expression of at most one variable at every point of an
+    * array.
+    *
+    * @param xs The values of the variable.
+    * @param out Receives the value of the expression at each point.  It may
+    * be the same array as xs.
+    * @throws IllegalArgumentException if out is shorter than xs.
+    */
+   public void evaluateAll( double[] xs, double[] out )
+   {
+      if ( _variables.length > 1 )
+      {
+         throw new IllegalStateException( "Expression has "
+                  + _variables.length + " variables" );
+      }
+      if ( out.length < xs.length )
+      {
+         throw new IllegalArgumentException( "Expected room for "
+                  + xs.length + " values but got " + out.length );
+      }
+      evaluateAll( new double[][] { xs }, xs.length, out );
+   }
+
+   /**
+    * Evaluates the expression at many points.
+    *
+    * @param columns The values of each variable, one array per variable in
+    * the order given by {@link #getVariables()}.  Point i is made up of
+    * element i of every array.
+    * @param out Receives the value of the expression at each point.
+    * @throws IllegalArgumentException if a column is missing or is shorter
+    * than out.
+    */
+   public void evaluateAll( double[][] columns, double[] out )
+   {
+      if ( columns.length < _variables.length )
+      {
+         throw new IllegalArgumentException( "Expected " + _variables.length
+                  + " columns but got " + columns.length );
+      }
+      for ( int slot = 0; slot < _variables.length; ++slot )
+      {
+         if ( columns[ slot ].length < out.length )
+         {
+            throw new IllegalArgumentException( "Expected " + out.length
+                     + " values for " + _variables[ slot ] + " but got "
+                     + columns[ slot ].length );
+         }
+      }
+      evaluateAll( columns, out.length, out );
+   }
+
+   /**
+    * Evaluates the expression at the given number of points.
+    */
+   private void evaluateAll( double[][] columns, int count, double[] out )
+   {
+      if ( _generated )
+      {
+         // Generated code is fast enough per point that gathering each
+         // point beats running the interpreter a block at a time.
+         for ( int i = 0; i < count; ++i )
+         {
+            for ( int slot = 0; slot < _variables.length; ++slot )
+            {
+               _point[ slot ] = columns[ slot ][ i ];
+            }
+            out[ i ] = _evaluator.evaluate( _point );
+         }
+         return;
+      }
+
+      if ( _blockRegisters == null )
+      {
+         _blockRegisters = new double[ _program.size() ][ Program.BLOCK ];
+      }
+      for ( int offset = 0; offset < count; offset += Program.BLOCK )
+      {
+         int length = Math.min( Program.BLOCK, count - offset );
+         double[] result = _program.runBlock( columns, offset, length,
+                  _blockRegisters );
+         System.arraycopy( result, 0, out, offset, length );
+      }
+   }
+
+   /**
+    * Returns this expression as a function of its only variable.
+    *
+    * @return A function that evaluates this expression.
+    */
+   public DoubleUnaryOperator asFunction()
+   {
+      return new DoubleUnaryOperator()
+      {
+         public double applyAsDouble( double x )
+         {
+            return evaluate( x );
+         }
+      };
+   }
+
+   /**
+    * Returns the variables of the expression in slot order.
+    *
+    * @return The variable names.
+    */
+   public String[] getVariables()
+   {
+      return _variables.clone();
+   }
+
+   /**
+    * Returns the number of operations performed per evaluation.  Each
+    * distinct subexpression is computed only once.
+    *
+    * @return The number of operations.
+    */
+   public int getOperationCount()
+   {
+      return _program.size();
+   }
+
+   /**
+    * Returns the number of operations an evaluation would take if repeated
+    * subexpressions were computed again each time, as a walk of the tree
+    * would.  Compare it with {@link #getOperationCount()} to see what
+    * sharing saves.
+    *
+    * @return The number of operations.
+    */
+   public long getUnsharedOperationCount()
+   {
+      return _program.unsharedSize();
+   }
+
+   /**
+    * Determines whether the expression runs as generated bytecode.  This is
+    * false if bytecode was not requested or the expression was too large to
+    * generate efficient code for.
+    *
+    * @return true if the expression runs as generated bytecode
+    */
+   public boolean isGenerated()
+   {
+      return _generated;
+   }
+
+   /**
+    * Returns a new instance with its own scratch space, for use by another
+    * thread.
+    *
+    * @return A copy of this expression.
+    */
+   public CompiledExpression copy()
+   {
+      // Generated evaluators keep their registers in local variables, so
+      // only the interpreter needs new scratch space.
+      return new CompiledExpression( this,
+               _generated ? _evaluator : _program.newInterpreter() );
+   }
+}
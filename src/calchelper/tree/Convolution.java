@@ -0,0 +1,367 @@
+/*
+ * Convolution.java
+ *
+ * This file is part of CalcHelper.
+ *
+ * CalcHelper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CalcHelper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CalcHelper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package calchelper.tree;
+
+/**
+ * Multiplies polynomials with integer coefficients, given as arrays indexed
+ * by power.  Small products use the schoolbook method, mid-size ones
+ * Karatsuba's method and large ones a number-theoretic transform, so large
+ * products take far less than quadratic time.
+ *
+ * All three methods are exact as long as the sum of the absolute values of
+ * one factor's coefficients times that of the other's is less than
+ * {@link #MAX_EXACT}; {@link #isExact} checks this.
+ *
+ * @author Patrick MacArthur
+ */
+final class Convolution
+{
+   // Products whose coefficient sums multiply to less than this are exact
+   static final long MAX_EXACT = 1L << 53;
+
+   // Factors shorter than this are multiplied by the schoolbook method
+   static final int KARATSUBA_THRESHOLD = 64;
+
+   // Factors at least this long are multiplied by transform
+   static final int NTT_THRESHOLD = 2048;
+
+   /*
+    * The transform is done modulo two primes of the form c * 2^k + 1, each
+    * with primitive root 3, and the results combined by the Chinese
+    * remainder theorem.  Their product is about 2^57, so any coefficient
+    * less than MAX_EXACT in absolute value is recovered exactly.
+    */
+   private static final long P1 = 998244353L;     // 119 * 2^23 + 1
+   private static final long P2 = 167772161L;     // 5 * 2^25 + 1
+   private static final long ROOT = 3L;
+   private static final long P1_INVERSE = power( P1 % P2, P2 - 2, P2 );
+
+   private Convolution()
+   {
+   }
+
+   /**
+    * Determines whether the product of two factors is computed exactly.
+    *
+    * @param a The left factor.
+    * @param b The right factor.
+    * @return true if no coefficient of the product, or of any intermediate
+    * result, can reach MAX_EXACT.
+    */
+   static boolean isExact( long[] a, long[] b )
+   {
+      double bound = ( double ) absoluteSum( a ) * absoluteSum( b );
+      return bound < MAX_EXACT;
+   }
+
+   /**
+    * Multiplies two polynomials, choosing the method by their size.
+    *
+    * @param a The left factor, indexed by power.
+    * @param b The right factor, indexed by power.
+    * @return The product, of length a.length + b.length - 1.
+    */
+   static long[] multiply( long[] a, long[] b )
+   {
+      int shorter = Math.min( a.length, b.length );
+      if ( shorter < KARATSUBA_THRESHOLD )
+      {
+         return schoolbook( a, b );
+      }
+      else if ( shorter < NTT_THRESHOLD )
+      {
+         return karatsuba( a, b );
+      }
+      else
+      {
+         return transform( a, b );
+      }
+   }
+
+   /**
+    * Multiplies two polynomials term by term.
+    */
+   static long[] schoolbook( long[] a, long[] b )
+   {
+      long[] product = new long[ a.length + b.length - 1 ];
+      for ( int i = 0; i < a.length; ++i )
+      {
+         long c = a[ i ];
+         if ( c == 0 )
+         {
+            continue;
+         }
+         for ( int j = 0; j < b.length; ++j )
+         {
+            product[ i + j ] += c * b[ j ];
+         }
+      }
+      return product;
+   }
+
+   /**
+    * Multiplies two polynomials by Karatsuba's method.
+    */
+   static long[] karatsuba( long[] a, long[] b )
+   {
+      long[] product = new long[ a.length + b.length - 1 ];
+      karatsuba( a, 0, a.length, b, 0, b.length, product, 0 );
+      return product;
+   }
+
+   /**
+    * Adds the product of a[ aFrom, aFrom + aLength ) and
+    * b[ bFrom, bFrom + bLength ) into out starting at outFrom.
+    */
+   private static void karatsuba( long[] a, int aFrom, int aLength,
+                                  long[] b, int bFrom, int bLength,
+                                  long[] out, int outFrom )
+   {
+      if ( Math.min( aLength, bLength ) < KARATSUBA_THRESHOLD )
+      {
+         for ( int i = 0; i < aLength; ++i )
+         {
+            long c = a[ aFrom + i ];
+            for ( int j = 0; j < bLength; ++j )
+            {
+               out[ outFrom + i + j ] += c * b[ bFrom + j ];
+            }
+         }
+         return;
+      }
+
+      // Split both at the same power: a = a0 + a1 x^m, b = b0 + b1 x^m
+      int m = ( Math.max( aLength, bLength ) + 1 ) / 2;
+      if ( m >= aLength || m >= bLength )
+      {
+         // Lopsided, so multiply the long factor in pieces instead
+         if ( aLength < bLength )
+         {
+            for ( int from = 0; from < bLength; from += aLength )
+            {
+               karatsuba( a, aFrom, aLength, b, bFrom + from,
+                        Math.min( aLength, bLength - from ), out,
+                        outFrom + from );
+            }
+         }
+         else
+         {
+            for ( int from = 0; from < aLength; from += bLength )
+            {
+               karatsuba( a, aFrom + from, Math.min( bLength, aLength - from ),
+                        b, bFrom, bLength, out, outFrom + from );
+            }
+         }
+         return;
+      }
+
+      int aHigh = aLength - m;
+      int bHigh = bLength - m;
+
+      // z0 = a0 b0 and z2 = a1 b1
+      long[] z0 = new long[ 2 * m - 1 ];
+      long[] z2 = new long[ aHigh + bHigh - 1 ];
+      karatsuba( a, aFrom, m, b, bFrom, m, z0, 0 );
+      karatsuba( a, aFrom + m, aHigh, b, bFrom + m, bHigh, z2, 0 );
+
+      // z1 = ( a0 + a1 )( b0 + b1 ) - z0 - z2
+      long[] aSum = new long[ m ];
+      long[] bSum = new long[ m ];
+      for ( int i = 0; i < m; ++i )
+      {
+         aSum[ i ] = a[ aFrom + i ] + ( i < aHigh ? a[ aFrom + m + i ] : 0 );
+         bSum[ i ] = b[ bFrom + i ] + ( i < bHigh ? b[ bFrom + m + i ] : 0 );
+      }
+      long[] z1 = new long[ 2 * m - 1 ];
+      karatsuba( aSum, 0, m, bSum, 0, m, z1, 0 );
+      for ( int i = 0; i < z0.length; ++i )
+      {
+         z1[ i ] -= z0[ i ];
+      }
+      for ( int i = 0; i < z2.length; ++i )
+      {
+         z1[ i ] -= z2[ i ];
+      }
+
+      for ( int i = 0; i < z0.length; ++i )
+      {
+         out[ outFrom + i ] += z0[ i ];
+      }
+      for ( int i = 0; i < z1.length; ++i )
+      {
+         out[ outFrom + m + i ] += z1[ i ];
+      }
+      for ( int i = 0; i < z2.length; ++i )
+      {
+         out[ outFrom + 2 * m + i ] += z2[ i ];
+      }
+   }
+
+   /**
+    * Multiplies two polynomials by number-theoretic transform.
+    */
+   static long[] transform( long[] a, long[] b )
+   {
+      int length = a.length + b.length - 1;
+      int n = Integer.highestOneBit( Math.max( 1, length - 1 ) ) << 1;
+
+      long[] r1 = transform( a, b, n, P1 );
+      long[] r2 = transform( a, b, n, P2 );
+
+      // Combine the residues, then recover the sign
+      long[] product = new long[ length ];
+      long modulus = P1 * P2;
+      for ( int i = 0; i < length; ++i )
+      {
+         long k = ( ( r2[ i ] - r1[ i ] ) % P2 + P2 ) % P2 * P1_INVERSE % P2;
+         long x = r1[ i ] + P1 * k;
+         product[ i ] = x > modulus / 2 ? x - modulus : x;
+      }
+      return product;
+   }
+
+   /**
+    * Multiplies two polynomials modulo p with transforms of length n.
+    */
+   private static long[] transform( long[] a, long[] b, int n, long p )
+   {
+      long[] fa = new long[ n ];
+      long[] fb = new long[ n ];
+      for ( int i = 0; i < a.length; ++i )
+      {
+         fa[ i ] = ( a[ i ] % p + p ) % p;
+      }
+      for ( int i = 0; i < b.length; ++i )
+      {
+         fb[ i ] = ( b[ i ] % p + p ) % p;
+      }
+
+      transform( fa, false, p );
+      transform( fb, false, p );
+      for ( int i = 0; i < n; ++i )
+      {
+         fa[ i ] = fa[ i ] * fb[ i ] % p;
+      }
+      transform( fa, true, p );
+      return fa;
+   }
+
+   /**
+    * Transforms an array in place, or does the inverse transform.  The
+    * length must be a power of two.
+    */
+   private static void transform( long[] f, boolean inverse, long p )
+   {
+      int n = f.length;
+
+      // Bit-reversal permutation
+      for ( int i = 1, j = 0; i < n; ++i )
+      {
+         int bit = n >> 1;
+         for ( ; ( j & bit ) != 0; bit >>= 1 )
+         {
+            j ^= bit;
+         }
+         j ^= bit;
+         if ( i < j )
+         {
+            long t = f[ i ];
+            f[ i ] = f[ j ];
+            f[ j ] = t;
+         }
+      }
+
+      // Powers of the nth root of unity, so stage "length" uses every
+      // ( n / length )th one
+      long w = power( ROOT, ( p - 1 ) / n, p );
+      if ( inverse )
+      {
+         w = power( w, p - 2, p );
+      }
+      long[] roots = new long[ Math.max( 1, n >> 1 ) ];
+      roots[ 0 ] = 1;
+      for ( int k = 1; k < roots.length; ++k )
+      {
+         roots[ k ] = roots[ k - 1 ] * w % p;
+      }
+
+      for ( int length = 2; length <= n; length <<= 1 )
+      {
+         int half = length >> 1;
+         int step = n / length;
+         for ( int start = 0; start < n; start += length )
+         {
+            for ( int k = 0; k < half; ++k )
+            {
+               long u = f[ start + k ];
+               long v = f[ start + k + half ] * roots[ k * step ] % p;
+               f[ start + k ] = u + v < p ? u + v : u + v - p;
+               f[ start + k + half ] = u - v >= 0 ? u - v : u - v + p;
+            }
+         }
+      }
+
+      if ( inverse )
+      {
+         long nInverse = power( n, p - 2, p );
+         for ( int i = 0; i < n; ++i )
+         {
+            f[ i ] = f[ i ] * nInverse % p;
+         }
+      }
+   }
+
+   /**
+    * Returns base^exponent mod p.
+    */
+   private static long power( long base, long exponent, long p )
+   {
+      long result = 1;
+      base %= p;
+      while ( exponent > 0 )
+      {
+         if ( ( exponent & 1 ) != 0 )
+         {
+            result = result * base % p;
+         }
+         base = base * base % p;
+         exponent >>= 1;
+      }
+      return result;
+   }
+
+   /**
+    * Returns the sum of the absolute values of the coefficients, saturating
+    * at Long.MAX_VALUE.
+    */
+   private static long absoluteSum( long[] a )
+   {
+      long sum = 0;
+      for ( long c : a )
+      {
+         sum += Math.abs( c );
+         if ( sum < 0 || c == Long.MIN_VALUE )
+         {
+            return Long.MAX_VALUE;
+         }
+      }
+      return sum;
+   }
+}
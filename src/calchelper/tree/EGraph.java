@@ -0,0 +1,907 @@
+/*
+ * EGraph.java
+ *
+ * This file is part of CalcHelper.
+ *
+ * CalcHelper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CalcHelper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CalcHelper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package calchelper.tree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Simplifies an expression by equality saturation.
+ *
+ * An e-graph holds many equivalent expressions at once: it groups nodes
+ * into classes of equal value, and the operands of a node are classes
+ * rather than single expressions.  Identities (commutativity, power laws,
+ * sin^2 + cos^2 = 1 and so on) add the expressions they prove equal to the
+ * graph without removing any, so no identity can hide a simplification
+ * found by another.  This goes on until no identity adds anything or a
+ * budget of nodes or time runs out, and then the cheapest expression in
+ * the class of the original one is taken out.
+ *
+ * As with {@link Simplifier}, nothing is assumed to be divided by zero.
+ * An EGraph is used for one expression and is not thread-safe.
+ *
+ * @author Patrick MacArthur
+ */
+final class EGraph
+{
+   // Kinds of node
+   private static final int POLY = ImmutableExpression.POLY;
+   private static final int ADD  = ImmutableExpression.ADD;
+   private static final int SUB  = ImmutableExpression.SUB;
+   private static final int MUL  = ImmutableExpression.MUL;
+   private static final int DIV  = ImmutableExpression.DIV;
+   private static final int POW  = ImmutableExpression.POW;
+   private static final int SIN  = ImmutableExpression.SIN;
+   private static final int COS  = ImmutableExpression.COS;
+
+   // The class of a node that would not fit in the budget
+   private static final int FULL = -1;
+
+   /**
+    * An operation on classes, or a polynomial.
+    */
+   private static final class ENode
+   {
+      private static final int[] NONE = new int[ 0 ];
+
+      final int _kind;
+      final int[] _children;              // classes of the operands
+      final ImmutableExpression _leaf;    // the polynomial, for POLY
+
+      ENode( int kind, int[] children, ImmutableExpression leaf )
+      {
+         _kind = kind;
+         _children = children;
+         _leaf = leaf;
+      }
+
+      ENode( ImmutableExpression leaf )
+      {
+         this( POLY, NONE, leaf );
+      }
+
+      int child( int i )
+      {
+         return _children[ i ];
+      }
+
+      public boolean equals( Object other )
+      {
+         if ( ! ( other instanceof ENode ) )
+         {
+            return false;
+         }
+         ENode node = ( ENode ) other;
+         return _kind == node._kind && _leaf == node._leaf
+                  && Arrays.equals( _children, node._children );
+      }
+
+      public int hashCode()
+      {
+         return 31 * ( 31 * _kind + ( _leaf == null ? 0 : _leaf.hashCode() ) )
+                  + Arrays.hashCode( _children );
+      }
+   }
+
+   private final int _nodeBudget;
+   private final long _deadline;
+   private int _limit;                               // most nodes to add
+
+   private int[] _parent;                            // union-find forest
+   private final List<List<ENode>> _classes;         // null once merged
+   private final Map<ENode, Integer> _memo;          // node to its class
+   private final List<int[]> _pending;               // classes to merge
+
+   // The nodes of the original expression, operands first, and their
+   // classes
+   private final List<ENode> _original;
+   private final List<Integer> _originalClasses;
+
+   /**
+    * Creates an empty e-graph.
+    *
+    * @param nodeBudget The most nodes to grow the graph to.
+    * @param timeBudgetMillis The most time to spend growing it.
+    */
+   EGraph( int nodeBudget, long timeBudgetMillis )
+   {
+      _nodeBudget = nodeBudget;
+      _deadline = System.nanoTime() + timeBudgetMillis * 1000000L;
+      _limit = Integer.MAX_VALUE;
+      _parent = new int[ 64 ];
+      _classes = new ArrayList<List<ENode>>();
+      _memo = new HashMap<ENode, Integer>();
+      _pending = new ArrayList<int[]>();
+      _original = new ArrayList<ENode>();
+      _originalClasses = new ArrayList<Integer>();
+   }
+
+   /**
+    * Simplifies an expression.  The time budget is checked between steps,
+    * so it can be overrun by the time of one step: applying the identities
+    * to one node, or one pass over the graph while merging classes or
+    * taking out the result.  Those passes take time in proportion to the
+    * node budget.
+    *
+    * @param expression The expression.
+    * @return The cheapest equivalent expression found, which costs no more
+    * than the original.
+    */
+   ImmutableExpression simplify( ImmutableExpression expression )
+   {
+      int root = add( expression );
+      _limit = _nodeBudget;
+      while ( ! isSpent() && saturate() )
+      {
+         // Apply the identities again to what they added
+      }
+      return extract( find( root ) );
+   }
+
+   /**
+    * Returns the number of nodes in the graph.
+    */
+   int size()
+   {
+      return _memo.size();
+   }
+
+   /**
+    * Determines whether the node or time budget has run out.
+    */
+   private boolean isSpent()
+   {
+      return _memo.size() >= _nodeBudget || isLate();
+   }
+
+   /**
+    * Determines whether the time budget has run out.
+    */
+   private boolean isLate()
+   {
+      return System.nanoTime() >= _deadline;
+   }
+
+   /*
+    * Building the graph
+    */
+
+   /**
+    * Adds an expression and returns its class.
+    */
+   private int add( ImmutableExpression expression )
+   {
+      int kind = expression.kind();
+      ENode node;
+      if ( kind == POLY )
+      {
+         node = new ENode( expression );
+      }
+      else if ( kind < SIN )
+      {
+         node = new ENode( kind, new int[] { add( expression.first() ),
+                  add( expression.second() ) }, null );
+      }
+      else
+      {
+         node = new ENode( kind, new int[] { add( expression.first() ),
+                  add( expression.second() ), add( expression.third() ) },
+                  null );
+      }
+
+      // The graph has no budget yet, so this cannot be FULL
+      int id = add( node );
+      _original.add( node );
+      _originalClasses.add( id );
+      return id;
+   }
+
+   /**
+    * Adds an operation on classes and returns its class.
+    */
+   private int node( int kind, int... children )
+   {
+      for ( int child : children )
+      {
+         if ( child == FULL )
+         {
+            return FULL;
+         }
+      }
+      return add( new ENode( kind, children, null ) );
+   }
+
+   /**
+    * Returns the class of a constant, adding it if needed.
+    */
+   private int constant( double value )
+   {
+      return add( new ENode( ImmutableExpression.constant( value ) ) );
+   }
+
+   /**
+    * Adds a node, unless the graph already has it, and returns its class.
+    *
+    * @return The class, or FULL if the node is new and the graph has
+    * reached its budget.
+    */
+   private int add( ENode node )
+   {
+      node = canonical( node );
+      Integer id = _memo.get( node );
+      if ( id != null )
+      {
+         return find( id );
+      }
+      else if ( _memo.size() >= _limit )
+      {
+         return FULL;
+      }
+
+      int newId = _classes.size();
+      if ( newId == _parent.length )
+      {
+         _parent = Arrays.copyOf( _parent, 2 * newId );
+      }
+      _parent[ newId ] = newId;
+      List<ENode> nodes = new ArrayList<ENode>( 2 );
+      nodes.add( node );
+      _classes.add( nodes );
+      _memo.put( node, newId );
+      return newId;
+   }
+
+   /**
+    * Returns a node with each operand replaced by its representative class.
+    */
+   private ENode canonical( ENode node )
+   {
+      if ( node._children.length == 0 )
+      {
+         return node;
+      }
+      int[] children = new int[ node._children.length ];
+      for ( int i = 0; i < children.length; ++i )
+      {
+         children[ i ] = find( node._children[ i ] );
+      }
+      return new ENode( node._kind, children, null );
+   }
+
+   /**
+    * Returns the representative of a class.
+    */
+   private int find( int id )
+   {
+      while ( _parent[ id ] != id )
+      {
+         _parent[ id ] = _parent[ _parent[ id ] ];
+         id = _parent[ id ];
+      }
+      return id;
+   }
+
+   /**
+    * Merges two classes.
+    *
+    * @return false if they were already one class.
+    */
+   private boolean union( int a, int b )
+   {
+      a = find( a );
+      b = find( b );
+      if ( a == b )
+      {
+         return false;
+      }
+      if ( _classes.get( a ).size() < _classes.get( b ).size() )
+      {
+         int swap = a;
+         a = b;
+         b = swap;
+      }
+      _parent[ b ] = a;
+      _classes.get( a ).addAll( _classes.get( b ) );
+      _classes.set( b, null );
+      return true;
+   }
+
+   /**
+    * Records that two classes are equal, to be merged after matching.
+    * A FULL class is ignored.
+    */
+   private void equate( int a, int b )
+   {
+      if ( a == FULL || b == FULL )
+      {
+         return;
+      }
+      _pending.add( new int[] { a, b } );
+   }
+
+   /**
+    * Merges the pending classes and then any classes that now hold the same
+    * node, until every node appears once with canonical operands or the
+    * time budget runs out.  Stopping early leaves some equal classes apart
+    * and some nodes repeated, which costs nothing but a simpler result.
+    *
+    * @return true if any classes were merged.
+    */
+   private boolean rebuild()
+   {
+      boolean any = false;
+      while ( ! _pending.isEmpty() )
+      {
+         if ( isLate() )
+         {
+            _pending.clear();
+            break;
+         }
+
+         for ( int[] pair : _pending )
+         {
+            any |= union( pair[ 0 ], pair[ 1 ] );
+         }
+         _pending.clear();
+
+         // Merging operands can make two nodes the same
+         _memo.clear();
+         for ( int id = 0; id < _classes.size() && ! isLate(); ++id )
+         {
+            List<ENode> nodes = _classes.get( id );
+            if ( nodes == null )
+            {
+               continue;
+            }
+            List<ENode> unique = new ArrayList<ENode>( nodes.size() );
+            for ( ENode node : nodes )
+            {
+               node = canonical( node );
+               Integer other = _memo.get( node );
+               if ( other == null )
+               {
+                  _memo.put( node, id );
+                  unique.add( node );
+               }
+               else if ( other != id )
+               {
+                  equate( other, id );
+               }
+            }
+            _classes.set( id, unique );
+         }
+      }
+      return any;
+   }
+
+   /*
+    * Applying identities
+    */
+
+   /**
+    * Applies every identity to every node once.
+    *
+    * @return true if the graph changed.
+    */
+   private boolean saturate()
+   {
+      int size = _memo.size();
+      int count = _classes.size();
+      for ( int id = 0; id < count && ! isSpent(); ++id )
+      {
+         List<ENode> nodes = _classes.get( id );
+         if ( nodes == null )
+         {
+            continue;
+         }
+         for ( ENode node : new ArrayList<ENode>( nodes ) )
+         {
+            if ( isSpent() )
+            {
+               break;
+            }
+            match( id, node );
+         }
+      }
+      boolean merged = rebuild();
+      return merged || _memo.size() != size;
+   }
+
+   /**
+    * Applies the identities to one node of a class.
+    */
+   private void match( int id, ENode node )
+   {
+      int kind = node._kind;
+      if ( kind == POLY )
+      {
+         return;
+      }
+      else if ( kind >= SIN )
+      {
+         matchFunction( id, node );
+         return;
+      }
+
+      int a = node.child( 0 );
+      int b = node.child( 1 );
+      foldPolynomials( id, kind, a, b );
+      switch ( kind )
+      {
+         case ADD:
+            matchSum( id, a, b );
+            break;
+         case SUB:
+            matchDifference( id, a, b );
+            break;
+         case MUL:
+            matchProduct( id, a, b );
+            break;
+         case DIV:
+            matchQuotient( id, a, b );
+            break;
+         default:
+            matchPower( id, a, b );
+            break;
+      }
+   }
+
+   /**
+    * p op q = r for polynomials p and q whose result r is a polynomial.
+    */
+   private void foldPolynomials( int id, int kind, int a, int b )
+   {
+      for ( ImmutableExpression p : leaves( a ) )
+      {
+         for ( ImmutableExpression q : leaves( b ) )
+         {
+            if ( kind == DIV && isZero( q ) )
+            {
+               continue;
+            }
+            ImmutableExpression folded = ImmutableExpression.fold( kind, p, q );
+            if ( folded.kind() == POLY )
+            {
+               equate( id, add( folded ) );
+            }
+         }
+      }
+   }
+
+   private void matchSum( int id, int a, int b )
+   {
+      // a + b = b + a
+      equate( id, node( ADD, b, a ) );
+
+      // 0 + b = b, a + 0 = a, a + a = 2a
+      if ( isZero( a ) )
+      {
+         equate( id, b );
+      }
+      if ( isZero( b ) )
+      {
+         equate( id, a );
+      }
+      if ( a == b )
+      {
+         equate( id, node( MUL, constant( 2.0 ), a ) );
+      }
+
+      for ( ENode left : nodes( a, ADD ) )
+      {
+         // ( x + y ) + b = x + ( y + b )
+         equate( id, node( ADD, left.child( 0 ),
+                  node( ADD, left.child( 1 ), b ) ) );
+      }
+
+      for ( ENode left : nodes( a, MUL ) )
+      {
+         for ( ENode right : nodes( b, MUL ) )
+         {
+            // xy + xz = x( y + z )
+            if ( left.child( 0 ) == right.child( 0 ) )
+            {
+               equate( id, node( MUL, left.child( 0 ),
+                        node( ADD, left.child( 1 ), right.child( 1 ) ) ) );
+            }
+         }
+      }
+
+      for ( ENode left : functions( a ) )
+      {
+         for ( ENode right : functions( b ) )
+         {
+            combineFunctions( id, ADD, left, right );
+
+            // c sin^2( u ) + c cos^2( u ) = c
+            if ( left._kind + right._kind == SIN + COS
+                     && ( left._kind == SIN || left._kind == COS )
+                     && left.child( 0 ) == right.child( 0 )
+                     && left.child( 1 ) == right.child( 1 )
+                     && isConstant( left.child( 2 ), 2.0 )
+                     && isConstant( right.child( 2 ), 2.0 ) )
+            {
+               equate( id, left.child( 0 ) );
+            }
+         }
+      }
+   }
+
+   private void matchDifference( int id, int a, int b )
+   {
+      // a - 0 = a, a - a = 0
+      if ( isZero( b ) )
+      {
+         equate( id, a );
+      }
+      if ( a == b )
+      {
+         equate( id, constant( 0.0 ) );
+      }
+
+      for ( ENode left : functions( a ) )
+      {
+         for ( ENode right : functions( b ) )
+         {
+            combineFunctions( id, SUB, left, right );
+         }
+      }
+   }
+
+   /**
+    * a f^n( u ) op b f^n( u ) = ( a op b ) f^n( u )
+    */
+   private void combineFunctions( int id, int kind, ENode left, ENode right )
+   {
+      if ( left._kind == right._kind && left.child( 1 ) == right.child( 1 )
+               && left.child( 2 ) == right.child( 2 ) )
+      {
+         equate( id, node( left._kind, node( kind, left.child( 0 ),
+                  right.child( 0 ) ), left.child( 1 ), left.child( 2 ) ) );
+      }
+   }
+
+   private void matchProduct( int id, int a, int b )
+   {
+      // ab = ba
+      equate( id, node( MUL, b, a ) );
+
+      // 0b = 0, 1b = b, a1 = a, aa = a^2
+      if ( isZero( a ) || isZero( b ) )
+      {
+         equate( id, constant( 0.0 ) );
+      }
+      if ( isConstant( a, 1.0 ) )
+      {
+         equate( id, b );
+      }
+      if ( isConstant( b, 1.0 ) )
+      {
+         equate( id, a );
+      }
+      if ( a == b )
+      {
+         equate( id, node( POW, a, constant( 2.0 ) ) );
+      }
+
+      for ( ENode left : nodes( a, MUL ) )
+      {
+         // ( xy )b = x( yb )
+         equate( id, node( MUL, left.child( 0 ),
+                  node( MUL, left.child( 1 ), b ) ) );
+      }
+
+      for ( ENode left : nodes( a, POW ) )
+      {
+         // x^m x = x^( m + 1 )
+         if ( left.child( 0 ) == b )
+         {
+            equate( id, node( POW, b, node( ADD, left.child( 1 ),
+                     constant( 1.0 ) ) ) );
+         }
+
+         // x^m x^n = x^( m + n )
+         for ( ENode right : nodes( b, POW ) )
+         {
+            if ( left.child( 0 ) == right.child( 0 ) )
+            {
+               equate( id, node( POW, left.child( 0 ), node( ADD,
+                        left.child( 1 ), right.child( 1 ) ) ) );
+            }
+         }
+      }
+
+      for ( ENode right : functions( b ) )
+      {
+         // p( c f^n( u ) ) = ( pc ) f^n( u ) for a constant p; functions
+         // derive their coefficients as constants, so nothing else may be
+         // moved into one
+         if ( constantIn( a ) != null )
+         {
+            equate( id, node( right._kind, node( MUL, a, right.child( 0 ) ),
+                     right.child( 1 ), right.child( 2 ) ) );
+         }
+
+         // a f^m( u ) b f^n( u ) = ab f^( m + n )( u )
+         for ( ENode left : functions( a ) )
+         {
+            if ( left._kind == right._kind
+                     && left.child( 1 ) == right.child( 1 ) )
+            {
+               equate( id, node( left._kind, node( MUL, left.child( 0 ),
+                        right.child( 0 ) ), left.child( 1 ), node( ADD,
+                        left.child( 2 ), right.child( 2 ) ) ) );
+            }
+         }
+      }
+   }
+
+   private void matchQuotient( int id, int a, int b )
+   {
+      // a / 1 = a, 0 / b = 0, a / a = 1
+      if ( isConstant( b, 1.0 ) )
+      {
+         equate( id, a );
+      }
+      if ( isZero( b ) )
+      {
+         return;
+      }
+      if ( isZero( a ) )
+      {
+         equate( id, constant( 0.0 ) );
+      }
+      if ( a == b )
+      {
+         equate( id, constant( 1.0 ) );
+      }
+   }
+
+   private void matchPower( int id, int a, int b )
+   {
+      // a^1 = a, a^0 = 1, 1^b = 1
+      if ( isConstant( b, 1.0 ) )
+      {
+         equate( id, a );
+      }
+      if ( isZero( b ) || isConstant( a, 1.0 ) )
+      {
+         equate( id, constant( 1.0 ) );
+      }
+
+      // Powers of powers, for a whole number n
+      ImmutableExpression n = constantIn( b );
+      if ( n != null && n.getValue() == Math.rint( n.getValue() ) )
+      {
+         // ( x^m )^n = x^( mn )
+         for ( ENode base : nodes( a, POW ) )
+         {
+            equate( id, node( POW, base.child( 0 ),
+                     node( MUL, base.child( 1 ), b ) ) );
+         }
+
+         // ( c f^m( u ) )^n = c^n f^( mn )( u )
+         for ( ENode base : functions( a ) )
+         {
+            equate( id, node( base._kind, node( POW, base.child( 0 ), b ),
+                     base.child( 1 ), node( MUL, base.child( 2 ), b ) ) );
+         }
+      }
+   }
+
+   private void matchFunction( int id, ENode node )
+   {
+      // 0 f^n( u ) = 0, c f^0( u ) = c
+      if ( isZero( node.child( 0 ) ) )
+      {
+         equate( id, constant( 0.0 ) );
+      }
+      if ( isZero( node.child( 2 ) ) )
+      {
+         equate( id, node.child( 0 ) );
+      }
+   }
+
+   /*
+    * Looking into classes
+    */
+
+   /**
+    * Returns the nodes of a class with the given kind.
+    */
+   private List<ENode> nodes( int id, int kind )
+   {
+      List<ENode> nodes = new ArrayList<ENode>( 2 );
+      for ( ENode node : _classes.get( find( id ) ) )
+      {
+         if ( node._kind == kind )
+         {
+            nodes.add( node );
+         }
+      }
+      return nodes;
+   }
+
+   /**
+    * Returns the functions in a class.
+    */
+   private List<ENode> functions( int id )
+   {
+      List<ENode> nodes = new ArrayList<ENode>( 2 );
+      for ( ENode node : _classes.get( find( id ) ) )
+      {
+         if ( node._kind >= SIN )
+         {
+            nodes.add( node );
+         }
+      }
+      return nodes;
+   }
+
+   /**
+    * Returns the polynomials in a class.
+    */
+   private List<ImmutableExpression> leaves( int id )
+   {
+      List<ImmutableExpression> leaves =
+         new ArrayList<ImmutableExpression>( 1 );
+      for ( ENode node : _classes.get( find( id ) ) )
+      {
+         if ( node._kind == POLY )
+         {
+            leaves.add( node._leaf );
+         }
+      }
+      return leaves;
+   }
+
+   /**
+    * Returns a constant in a class, or null if it has none.
+    */
+   private ImmutableExpression constantIn( int id )
+   {
+      for ( ImmutableExpression leaf : leaves( id ) )
+      {
+         if ( leaf.isConstant() )
+         {
+            return leaf;
+         }
+      }
+      return null;
+   }
+
+   /**
+    * Determines whether a class holds the given constant.
+    */
+   private boolean isConstant( int id, double value )
+   {
+      ImmutableExpression constant = constantIn( id );
+      return constant != null && constant.getValue() == value;
+   }
+
+   private boolean isZero( int id )
+   {
+      return isConstant( id, 0.0 );
+   }
+
+   private static boolean isZero( ImmutableExpression poly )
+   {
+      return poly.isConstant() && poly.getValue() == 0.0;
+   }
+
+   /*
+    * Extraction
+    */
+
+   /**
+    * Returns the cheapest expression in a class, by the cost of
+    * {@link Simplifier#cost}: one for each operator and polynomial term.
+    * If the time budget runs out first, the cheapest found so far is
+    * returned.
+    */
+   private ImmutableExpression extract( int root )
+   {
+      int count = _classes.size();
+      int[] costs = new int[ count ];
+      ENode[] best = new ENode[ count ];
+      Arrays.fill( costs, Integer.MAX_VALUE );
+
+      // Cost the original expression first, so that every class of it has
+      // a choice no costlier than it, however soon this stops
+      for ( int i = 0; i < _original.size(); ++i )
+      {
+         int id = find( _originalClasses.get( i ) );
+         int cost = cost( _original.get( i ), costs );
+         if ( cost < costs[ id ] )
+         {
+            costs[ id ] = cost;
+            best[ id ] = _original.get( i );
+         }
+      }
+
+      // Costs only fall, so this settles once no class gets cheaper
+      boolean changed = true;
+      while ( changed && ! isLate() )
+      {
+         changed = false;
+         for ( int id = 0; id < count; ++id )
+         {
+            List<ENode> nodes = _classes.get( id );
+            if ( nodes == null )
+            {
+               continue;
+            }
+            for ( ENode node : nodes )
+            {
+               int cost = cost( node, costs );
+               if ( cost < costs[ id ] )
+               {
+                  costs[ id ] = cost;
+                  best[ id ] = node;
+                  changed = true;
+               }
+            }
+         }
+      }
+      return build( root, best );
+   }
+
+   /**
+    * Returns the cost of a node given the costs of the classes so far.
+    */
+   private int cost( ENode node, int[] costs )
+   {
+      if ( node._kind == POLY )
+      {
+         return Math.max( 1, node._leaf.terms().size() );
+      }
+      long cost = 1;
+      for ( int child : node._children )
+      {
+         cost += costs[ find( child ) ];
+      }
+      return ( int ) Math.min( cost, Integer.MAX_VALUE );
+   }
+
+   /**
+    * Builds the chosen expression of a class.  Each chosen node costs more
+    * than the classes of its operands, so this cannot loop.
+    */
+   private ImmutableExpression build( int id, ENode[] best )
+   {
+      ENode node = best[ find( id ) ];
+      if ( node._kind == POLY )
+      {
+         return node._leaf;
+      }
+      else if ( node._kind < SIN )
+      {
+         return ImmutableExpression.binary( node._kind,
+                  build( node.child( 0 ), best ),
+                  build( node.child( 1 ), best ) );
+      }
+      return ImmutableExpression.function( node._kind,
+               build( node.child( 0 ), best ), build( node.child( 1 ), best ),
+               build( node.child( 2 ), best ) );
+   }
+}
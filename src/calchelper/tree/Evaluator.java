@@ -0,0 +1,36 @@
+/*
+ * Evaluator.java
+ *
+ * This file is part of CalcHelper.
+ *
+ * CalcHelper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CalcHelper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CalcHelper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package calchelper.tree;
+
+/**
+ * A backend that evaluates a compiled {@link Program}.
+ *
+ * @author Patrick MacArthur
+ */
+interface Evaluator
+{
+   /**
+    * Evaluates the program.
+    *
+    * @param values The value of each variable slot.
+    * @return The value of the expression.
+    */
+   double evaluate( double[] values );
+}
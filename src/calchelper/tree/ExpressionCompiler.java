@@ -0,0 +1,428 @@
+/*
+ * ExpressionCompiler.java
+ *
+ * This file is part of CalcHelper.
+ *
+ * CalcHelper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CalcHelper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CalcHelper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package calchelper.tree;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Translates an expression tree into a flat {@link Program}.  Subtrees made
+ * up only of constants are folded while compiling.
+ *
+ * Instructions are numbered by value, so a subexpression that appears more
+ * than once, as the product and quotient rules leave in derivatives, is
+ * computed once and its register read wherever it is used.
+ *
+ * @author Patrick MacArthur
+ */
+class ExpressionCompiler
+{
+   /**
+    * An instruction, compared by the value it computes.
+    */
+   private static final class Instruction
+   {
+      final int _op;
+      final int _left;
+      final int _right;
+      final long _constant;
+      final double[] _powers;
+      final double[] _coefficients;
+
+      Instruction( int op, int left, int right, double constant,
+                   double[] powers, double[] coefficients )
+      {
+         _op = op;
+         _left = left;
+         _right = right;
+         _constant = Double.doubleToLongBits( constant );
+         _powers = powers;
+         _coefficients = coefficients;
+      }
+
+      public boolean equals( Object other )
+      {
+         if ( ! ( other instanceof Instruction ) )
+         {
+            return false;
+         }
+         Instruction insn = ( Instruction ) other;
+         return _op == insn._op && _left == insn._left
+                  && _right == insn._right && _constant == insn._constant
+                  && Arrays.equals( _powers, insn._powers )
+                  && Arrays.equals( _coefficients, insn._coefficients );
+      }
+
+      public int hashCode()
+      {
+         int hash = _op;
+         hash = 31 * hash + _left;
+         hash = 31 * hash + _right;
+         hash = 31 * hash + ( int ) ( _constant ^ ( _constant >>> 32 ) );
+         hash = 31 * hash + Arrays.hashCode( _powers );
+         return 31 * hash + Arrays.hashCode( _coefficients );
+      }
+   }
+
+   private Program _program;
+   private String[] _variables;
+   private Map<Instruction, Integer> _registers;
+
+   /**
+    * Creates a compiler that binds the given variables to slots in order.
+    *
+    * @param variables The variable names, one per slot.
+    */
+   ExpressionCompiler( String[] variables )
+   {
+      _variables = variables;
+      _program = new Program( variables.length );
+      _registers = new HashMap<Instruction, Integer>();
+   }
+
+   /**
+    * Compiles the tree rooted at the given node.
+    *
+    * @param root The root of the tree.
+    * @return The compiled program.
+    * @throws ExpressionException if the tree uses an unbound variable or a
+    * node that cannot be evaluated.
+    */
+   Program compile( AbstractNode root ) throws ExpressionException
+   {
+      if ( root == null )
+      {
+         throw new ExpressionException( "Cannot compile an empty tree." );
+      }
+      return _program.prune( emit( root ) );
+   }
+
+   /**
+    * Collects the names of all variables used below the given node, in
+    * alphabetical order.
+    *
+    * @param root The root of the tree.
+    * @return The variable names.
+    */
+   static String[] findVariables( AbstractNode root )
+   {
+      TreeSet<String> names = new TreeSet<String>();
+      collectVariables( root, names );
+      return names.toArray( new String[ names.size() ] );
+   }
+
+   /**
+    * Adds the variables used below the node to the set.
+    */
+   private static void collectVariables( AbstractNode node,
+                                         TreeSet<String> names )
+   {
+      if ( node instanceof Polynomial )
+      {
+         Polynomial poly = ( Polynomial ) node;
+         if ( poly.getVariable() != null )
+         {
+            names.add( poly.getVariable() );
+         }
+      }
+      else if ( node instanceof MultiPolynomial )
+      {
+         names.addAll( Arrays.asList(
+                  ( ( MultiPolynomial ) node ).getVariables() ) );
+      }
+      else if ( node instanceof OperatorNode )
+      {
+         OperatorNode opNode = ( OperatorNode ) node;
+         for ( AbstractNode child : opNode._children )
+         {
+            collectVariables( child, names );
+         }
+      }
+   }
+
+   /**
+    * Emits the instructions for the given node.
+    *
+    * @return The register holding the value of the node.
+    */
+   private int emit( AbstractNode node ) throws ExpressionException
+   {
+      if ( node instanceof Polynomial )
+      {
+         return emitPolynomial( ( Polynomial ) node );
+      }
+      else if ( node instanceof MultiPolynomial )
+      {
+         return emit( ( ( MultiPolynomial ) node ).expand() );
+      }
+      else if ( node instanceof BinaryOperatorNode )
+      {
+         BinaryOperatorNode binNode = ( BinaryOperatorNode ) node;
+         int left = emit( binNode.getLeft() );
+         int right = emit( binNode.getRight() );
+         return emitOp( binaryOpcode( binNode ), left, right );
+      }
+      else if ( node instanceof TrigOperatorNode )
+      {
+         TrigOperatorNode trigNode = ( TrigOperatorNode ) node;
+
+         // coefficient * f( argument ) ^ power
+         int arg = emit( trigNode.getArgument() );
+         int result = emitOp( functionOpcode( trigNode ), arg, 0 );
+         int power = emit( trigNode.getPower() );
+         if ( ! isConstant( power, 1.0 ) )
+         {
+            result = emitOp( Program.POW, result, power );
+         }
+         int coef = emit( trigNode.getCoefficientTerm() );
+         if ( ! isConstant( coef, 1.0 ) )
+         {
+            result = emitOp( Program.MUL, coef, result );
+         }
+         return result;
+      }
+      else
+      {
+         throw new ExpressionException( "Cannot evaluate " + node );
+      }
+   }
+
+   /**
+    * Emits the instructions for a polynomial.
+    */
+   private int emitPolynomial( Polynomial poly ) throws ExpressionException
+   {
+      PolynomialTerms terms = poly.getTerms();
+      double[] powers = new double[ terms.size() ];
+      double[] coefficients = new double[ terms.size() ];
+      double constant = 0.0;
+      int count = 0;
+      for ( int i = terms.first(); i >= 0; i = terms.next( i ) )
+      {
+         if ( terms.power( i ) == 0.0 )
+         {
+            constant += terms.coefficient( i );
+         }
+         else
+         {
+            powers[ count ] = terms.power( i );
+            coefficients[ count ] = terms.coefficient( i );
+            ++count;
+         }
+      }
+
+      if ( count == 0 )
+      {
+         return constant( constant );
+      }
+
+      int var = append( Program.VAR, slot( poly.getVariable() ), 0 );
+      if ( count == 1 && constant == 0.0 && powers[ 0 ] == 1.0
+               && coefficients[ 0 ] == 1.0 )
+      {
+         return var;
+      }
+      if ( terms.isDense() )
+      {
+         return appendPolynomial( var, null, terms.denseCoefficients() );
+      }
+      if ( constant != 0.0 )
+      {
+         powers[ count ] = 0.0;
+         coefficients[ count ] = constant;
+         ++count;
+      }
+      return appendPolynomial( var, Arrays.copyOf( powers, count ),
+               Arrays.copyOf( coefficients, count ) );
+   }
+
+   /**
+    * Emits an arithmetic instruction, folding it if all operands are
+    * constants.
+    */
+   private int emitOp( int op, int left, int right )
+   {
+      if ( Program.isUnary( op ) )
+      {
+         if ( _program.op( left ) == Program.CONST )
+         {
+            return constant( Program.compute( op,
+                     _program.constant( left ), 0.0 ) );
+         }
+      }
+      else if ( _program.op( left ) == Program.CONST
+               && _program.op( right ) == Program.CONST )
+      {
+         return constant( Program.compute( op, _program.constant( left ),
+                  _program.constant( right ) ) );
+      }
+      else if ( ( op == Program.ADD || op == Program.MUL ) && left > right )
+      {
+         // Order the operands so that x + y and y + x are numbered alike
+         int swap = left;
+         left = right;
+         right = swap;
+      }
+      return append( op, left, right );
+   }
+
+   /**
+    * Returns the register holding a constant.
+    */
+   private int constant( double value )
+   {
+      Instruction insn = new Instruction( Program.CONST, 0, 0, value, null,
+               null );
+      Integer register = _registers.get( insn );
+      if ( register == null )
+      {
+         register = _program.append( Program.CONST, 0, 0, value );
+         _registers.put( insn, register );
+      }
+      return register;
+   }
+
+   /**
+    * Returns the register holding the result of an instruction that takes
+    * no constant, appending the instruction if it is not already there.
+    */
+   private int append( int op, int left, int right )
+   {
+      Instruction insn = new Instruction( op, left, right, 0.0, null, null );
+      Integer register = _registers.get( insn );
+      if ( register == null )
+      {
+         register = _program.append( op, left, right, 0.0 );
+         _registers.put( insn, register );
+      }
+      return register;
+   }
+
+   /**
+    * Returns the register holding the value of a polynomial, appending the
+    * instruction and its table of terms if they are not already there.
+    */
+   private int appendPolynomial( int var, double[] powers,
+                                 double[] coefficients )
+   {
+      Instruction insn = new Instruction( Program.POLY, var, 0, 0.0, powers,
+               coefficients );
+      Integer register = _registers.get( insn );
+      if ( register == null )
+      {
+         int index = _program.addPolynomial( powers, coefficients );
+         register = _program.append( Program.POLY, var, index, 0.0 );
+         _registers.put( insn, register );
+      }
+      return register;
+   }
+
+   /**
+    * Determines whether the register holds the given constant.
+    */
+   private boolean isConstant( int register, double value )
+   {
+      return _program.op( register ) == Program.CONST
+               && _program.constant( register ) == value;
+   }
+
+   /**
+    * Finds the slot of a variable.
+    */
+   private int slot( String variable ) throws ExpressionException
+   {
+      for ( int x = 0; x < _variables.length; ++x )
+      {
+         if ( _variables[ x ].equals( variable ) )
+         {
+            return x;
+         }
+      }
+      throw new ExpressionException( "Unbound variable: " + variable );
+   }
+
+   /**
+    * Returns the opcode for a binary operator node.
+    */
+   private static int binaryOpcode( BinaryOperatorNode node )
+      throws ExpressionException
+   {
+      if ( node instanceof BinaryOperatorNode.Addition )
+      {
+         return Program.ADD;
+      }
+      else if ( node instanceof BinaryOperatorNode.Subtraction )
+      {
+         return Program.SUB;
+      }
+      else if ( node instanceof BinaryOperatorNode.Multiplication )
+      {
+         return Program.MUL;
+      }
+      else if ( node instanceof BinaryOperatorNode.Division )
+      {
+         return Program.DIV;
+      }
+      else if ( node instanceof BinaryOperatorNode.Power )
+      {
+         return Program.POW;
+      }
+      throw new ExpressionException( "Unknown operator: " + node.getType() );
+   }
+
+   /**
+    * Returns the opcode for a function node.
+    */
+   private static int functionOpcode( TrigOperatorNode node )
+      throws ExpressionException
+   {
+      if ( node instanceof TrigOperatorNode.Sine )
+      {
+         return Program.SIN;
+      }
+      else if ( node instanceof TrigOperatorNode.Cosine )
+      {
+         return Program.COS;
+      }
+      else if ( node instanceof TrigOperatorNode.Tangent )
+      {
+         return Program.TAN;
+      }
+      else if ( node instanceof TrigOperatorNode.Cotangent )
+      {
+         return Program.COT;
+      }
+      else if ( node instanceof TrigOperatorNode.Secant )
+      {
+         return Program.SEC;
+      }
+      else if ( node instanceof TrigOperatorNode.Cosecant )
+      {
+         return Program.CSC;
+      }
+      else if ( node instanceof TrigOperatorNode.NatLog )
+      {
+         return Program.LN;
+      }
+      throw new ExpressionException( "Unknown function: " + node.getType() );
+   }
+}
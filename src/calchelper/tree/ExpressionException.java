@@ -33,6 +33,8 @@ public class ExpressionException extends java.lang.Exception
 	private static final long serialVersionUID = 1L;
 	
 	private String _infix; // the infix expression
+	private int _line;     // where the error is, or 0 if not known
+	private int _column;
 
 	/**
     * Creates a new exception object.
@@ -57,18 +59,74 @@ public class ExpressionException extends java.lang.Exception
       _infix = infix;
    }
 
+	/**
+	 * Creates a new exception object for an error at a known place.
+	 *
+	 * @param message A user-readable message describing the reason for the
+	 * exception.
+	 * @param infix The infix expression that resulted in the exception.
+	 * @param line The line of the error, counting from 1.
+	 * @param column The column of the error within its line, counting from
+	 * 1.
+	 */
+	public ExpressionException( String message, String infix, int line,
+			int column )
+	{
+		super( message );
+		_infix = infix;
+		_line = line;
+		_column = column;
+	}
+
+	/**
+	 * Returns the infix expression that resulted in the exception.
+	 *
+	 * @return The expression, or null if not known.
+	 */
+	public String getInfix()
+	{
+		return _infix;
+	}
+
+	/**
+	 * Returns the line on which the error was found.
+	 *
+	 * @return The line, counting from 1, or 0 if not known.
+	 */
+	public int getLine()
+	{
+		return _line;
+	}
+
+	/**
+	 * Returns the column at which the error was found.
+	 *
+	 * @return The column within the line, counting from 1, or 0 if not
+	 * known.
+	 */
+	public int getColumn()
+	{
+		return _column;
+	}
+
    /**
     * Returns a string representing the exception that occurred.
     */
    public String toString()
    {
+      String message = getMessage();
+      if ( _line > 0 )
+      {
+         message += " (line " + _line + ", column " + _column + ")";
+      }
+
       if ( _infix == null )
       {
-         return getMessage();
+         return message;
       }
       else
       {
-         return getMessage() + "\nExpression: " + _infix;
+         return message + "\nExpression: " + _infix;
       }
    }
 }
@@ -0,0 +1,372 @@
+/*
+ * ExpressionReader.java
+ *
+ * This file is part of CalcHelper.
+ *
+ * CalcHelper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CalcHelper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CalcHelper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package calchelper.tree;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads expressions one per line from a character stream or a buffer of
+ * UTF-8 bytes, such as a memory-mapped file, and builds a tree for each.
+ * Blank lines are skipped.
+ *
+ * Input is read a block at a time into a buffer that is reused for every
+ * line, so the whole input is never held in memory, and a line is only made
+ * into a String when it holds an error or the factory caches trees.
+ *
+ * Errors in a line are reported with its line number and the column within
+ * it; reading can go on with the next line.  An ExpressionReader is not
+ * thread-safe.  Obtain one from {@link TreeFactory#read(Reader)} or its
+ * siblings.
+ *
+ * @author Patrick MacArthur
+ */
+public final class ExpressionReader implements Closeable
+{
+   private static final int BLOCK_SIZE = 8192;
+
+   private final TreeFactory _factory;
+   private final Reader _reader;
+   private final ByteBuffer _bytes;
+   private final CharsetDecoder _decoder;
+
+   private final CharBuffer _block; // read but not yet split into lines
+   private CharBuffer _line;        // the current line
+   private int _lineNumber;
+   private boolean _done;
+
+   /**
+    * Creates a reader of a character stream.
+    *
+    * @param factory The factory to build trees with.
+    * @param reader The stream to read.
+    */
+   ExpressionReader( TreeFactory factory, Reader reader )
+   {
+      this( factory, reader, null );
+   }
+
+   /**
+    * Creates a reader of the remaining bytes of a buffer.
+    *
+    * @param factory The factory to build trees with.
+    * @param bytes The buffer, in UTF-8.
+    */
+   ExpressionReader( TreeFactory factory, ByteBuffer bytes )
+   {
+      this( factory, null, bytes );
+   }
+
+   private ExpressionReader( TreeFactory factory, Reader reader,
+                             ByteBuffer bytes )
+   {
+      _factory = factory;
+      _reader = reader;
+      _bytes = bytes;
+      _decoder = bytes == null ? null : StandardCharsets.UTF_8.newDecoder();
+      _block = CharBuffer.allocate( BLOCK_SIZE );
+      _block.flip();
+      _line = CharBuffer.allocate( 256 );
+   }
+
+   /**
+    * Builds the tree for the next expression.
+    *
+    * @return The tree, or null if there are no more expressions.
+    * @throws ExpressionException if the expression is invalid, giving its
+    * line and column.  The next call reads the line after it.
+    * @throws IOException if the input cannot be read.
+    */
+   public ExpressionTree readTree() throws ExpressionException, IOException
+   {
+      while ( readLine() )
+      {
+         if ( isBlank( _line ) )
+         {
+            continue;
+         }
+
+         try
+         {
+            return _factory.buildTree( _line );
+         }
+         catch ( ExpressionException e )
+         {
+            throw new ExpressionException( e.getMessage(), e.getInfix(),
+                     _lineNumber, e.getColumn() );
+         }
+         catch ( RuntimeException e )
+         {
+            // A bug building one tree must not stop the lines after it
+            throw failure( e );
+         }
+      }
+      return null;
+   }
+
+   /**
+    * Returns the trees of the remaining expressions as a lazy, sequential
+    * stream.  Invalid expressions are passed to a handler and left out.
+    * Closing the stream closes this reader.
+    *
+    * @param onError The handler for invalid expressions.
+    * @return The stream of trees.
+    * @throws UncheckedIOException from the stream if the input cannot be
+    * read.
+    */
+   public Stream<ExpressionTree> trees(
+            final Consumer<? super ExpressionException> onError )
+   {
+      return stream( new Function<ExpressionTree, ExpressionTree>()
+      {
+         public ExpressionTree apply( ExpressionTree tree )
+         {
+            return tree;
+         }
+      }, onError );
+   }
+
+   /**
+    * Returns the remaining expressions, each compiled with the given
+    * variables, as a lazy, sequential stream.  Expressions that are invalid
+    * or cannot be compiled are passed to a handler and left out.  Closing
+    * the stream closes this reader.
+    *
+    * @param onError The handler for invalid expressions.
+    * @param variables The variables, in the order in which values will be
+    * given, or none to use the variables of each expression in sorted
+    * order.
+    * @return The stream of compiled expressions.
+    * @throws UncheckedIOException from the stream if the input cannot be
+    * read.
+    * @see ExpressionTree#compile(String...)
+    */
+   public Stream<CompiledExpression> compiled(
+            final Consumer<? super ExpressionException> onError,
+            final String... variables )
+   {
+      return stream( new Function<ExpressionTree, CompiledExpression>()
+      {
+         public CompiledExpression apply( ExpressionTree tree )
+         {
+            try
+            {
+               return tree.compile( variables );
+            }
+            catch ( ExpressionException e )
+            {
+               onError.accept( new ExpressionException( e.getMessage(),
+                        _line.toString(), _lineNumber, 1 ) );
+               return null;
+            }
+            catch ( RuntimeException e )
+            {
+               onError.accept( failure( e ) );
+               return null;
+            }
+         }
+      }, onError );
+   }
+
+   /**
+    * Returns an exception for an unexpected failure on the current line.
+    */
+   private ExpressionException failure( RuntimeException e )
+   {
+      String message = e.getMessage() != null ? e.getMessage() : e.toString();
+      return new ExpressionException( message, _line.toString(), _lineNumber,
+               1 );
+   }
+
+   /**
+    * Returns the line number of the last line read.
+    *
+    * @return The line number, counting from 1, or 0 before the first line.
+    */
+   public int getLineNumber()
+   {
+      return _lineNumber;
+   }
+
+   /**
+    * Closes the underlying character stream, if any.
+    */
+   public void close() throws IOException
+   {
+      if ( _reader != null )
+      {
+         _reader.close();
+      }
+   }
+
+   /**
+    * Returns a stream of the trees of the remaining expressions, each passed
+    * through a function that returns null to leave it out.
+    */
+   private <T> Stream<T> stream( final Function<ExpressionTree, T> function,
+            final Consumer<? super ExpressionException> onError )
+   {
+      Spliterator<T> spliterator = new Spliterators.AbstractSpliterator<T>(
+               Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL )
+      {
+         public boolean tryAdvance( Consumer<? super T> action )
+         {
+            for ( ;; )
+            {
+               try
+               {
+                  ExpressionTree tree = readTree();
+                  if ( tree == null )
+                  {
+                     return false;
+                  }
+                  T result = function.apply( tree );
+                  if ( result != null )
+                  {
+                     action.accept( result );
+                     return true;
+                  }
+               }
+               catch ( ExpressionException e )
+               {
+                  onError.accept( e );
+               }
+               catch ( IOException e )
+               {
+                  throw new UncheckedIOException( e );
+               }
+            }
+         }
+      };
+
+      return StreamSupport.stream( spliterator, false ).onClose(
+               new Runnable()
+               {
+                  public void run()
+                  {
+                     try
+                     {
+                        close();
+                     }
+                     catch ( IOException e )
+                     {
+                        throw new UncheckedIOException( e );
+                     }
+                  }
+               } );
+   }
+
+   /**
+    * Reads the next line into _line, without its line terminator.
+    *
+    * @return false if there are no more lines.
+    */
+   private boolean readLine() throws IOException
+   {
+      _line.clear();
+      boolean any = false;
+      while ( _block.hasRemaining() || fill() )
+      {
+         char ch = _block.get();
+         any = true;
+         if ( ch == '\n' )
+         {
+            break;
+         }
+         if ( ! _line.hasRemaining() )
+         {
+            CharBuffer longer = CharBuffer.allocate( 2 * _line.capacity() );
+            _line.flip();
+            longer.put( _line );
+            _line = longer;
+         }
+         _line.put( ch );
+      }
+
+      _line.flip();
+      if ( any )
+      {
+         ++_lineNumber;
+      }
+      return any;
+   }
+
+   /**
+    * Reads the next block of input into _block.
+    *
+    * @return false if there is no more input.
+    */
+   private boolean fill() throws IOException
+   {
+      if ( _done )
+      {
+         return false;
+      }
+
+      _block.clear();
+      if ( _reader != null )
+      {
+         _done = _reader.read( _block ) < 0;
+      }
+      else
+      {
+         CoderResult result = _decoder.decode( _bytes, _block, true );
+         if ( result.isError() )
+         {
+            result.throwException();
+         }
+         if ( ! _bytes.hasRemaining() )
+         {
+            _decoder.flush( _block );
+            _done = true;
+         }
+      }
+      _block.flip();
+      return _block.hasRemaining();
+   }
+
+   /**
+    * Determines whether a line holds only white space.
+    */
+   private static boolean isBlank( CharSequence line )
+   {
+      for ( int i = 0; i < line.length(); ++i )
+      {
+         if ( ! Character.isWhitespace( line.charAt( i ) ) )
+         {
+            return false;
+         }
+      }
+      return true;
+   }
+}
@@ -44,17 +44,37 @@ public class ExpressionTree
    }
 
    /**
-    * Simplifies the tree.
+    * Simplifies the tree by rewriting it until no rule makes it smaller.
+    *
+    * @see Simplifier
     */
    public void simplify()
    {
-      Polynomial poly = Polynomial.createPolynomial( getRoot() );
-      if ( poly != null )
-      {
-         setRoot( poly );
-      }
-      
-      getRoot().simplify();
+      setRoot( Simplifier.simplify( getRoot() ) );
+   }
+
+   /**
+    * Simplifies the tree more thoroughly than {@link #simplify()}, by
+    * applying algebraic and trigonometric identities, such as
+    * sin^2(x) + cos^2(x) = 1, in every combination until they find nothing
+    * new or a budget runs out.  The cheapest equivalent tree found replaces
+    * this one.
+    *
+    * @param nodeBudget The most subexpressions to consider, which bounds the
+    * memory used.  Some thousands suffice for most expressions.
+    * @param timeBudgetMillis The time to spend, in milliseconds.  It may be
+    * overrun by a little, as {@link EGraph#simplify} describes.
+    * @see EGraph
+    */
+   public void simplifyExhaustive( int nodeBudget, long timeBudgetMillis )
+   {
+      simplify();
+      EGraph graph = new EGraph( nodeBudget, timeBudgetMillis );
+      setRoot( graph.simplify( ImmutableExpression.of( getRoot() ) )
+               .toNode() );
+
+      // Fold any polynomials in several variables back together
+      simplify();
    }
    
    /**
@@ -90,7 +110,10 @@ public class ExpressionTree
    }
    
    /**
-    * Returns the derivative tree of the tree.
+    * Returns the derivative tree of the tree.  Derivatives are cached, so
+    * asking for the derivative of the same expression again is cheap; see
+    * {@link #getCacheStatistics()}.  The returned tree is always a new
+    * copy.
     * 
     * @return An expression tree containing the derivative of this expression.
     */
@@ -102,12 +125,13 @@ public class ExpressionTree
       }
       else
       {
-         return new ExpressionTree( getRoot().derive() );
+         return new ExpressionTree( CalculusCache.deriveTree( getRoot() ) );
       }     
    }
 
    /**
-    * Returns the integral tree of the tree.
+    * Returns the integral tree of the tree.  Integrals are cached like
+    * derivatives.
     * 
     * @return An expression tree containing the integral of this expression.
     */
@@ -119,10 +143,120 @@ public class ExpressionTree
       }
       else
       {
-         return new ExpressionTree( getRoot().integrate() );
+         return new ExpressionTree( CalculusCache.integrateTree( getRoot() ) );
       }
    }
    
+   /**
+    * Returns the counters of the cache of derivatives and integrals, which
+    * is shared by all trees and {@link ImmutableExpression}s.
+    *
+    * @return A snapshot of the counters.
+    */
+   public static CacheStatistics getCacheStatistics()
+   {
+      return CalculusCache.statistics();
+   }
+
+   /**
+    * Empties the cache of derivatives and integrals and sets the number of
+    * results it keeps.
+    *
+    * @param capacity The most results to keep, which must be positive.
+    */
+   public static void setCacheCapacity( int capacity )
+   {
+      CalculusCache.setCapacity( capacity );
+   }
+
+   /**
+    * Compiles the tree into an evaluator that can be run many times with
+    * different variable values.  Later changes to the tree do not affect the
+    * compiled expression.
+    *
+    * @param variables The variables to bind, in slot order.  If none are
+    * given, every variable in the tree is bound in alphabetical order.
+    * @return The compiled expression.
+    * @throws ExpressionException if the tree uses a variable that is not
+    * bound or contains a node that cannot be evaluated.
+    */
+   public CompiledExpression compile( String... variables )
+      throws ExpressionException
+   {
+      return compile( false, variables );
+   }
+
+   /**
+    * Compiles the tree into generated JVM bytecode.  This takes longer than
+    * {@link #compile(String...)}, but the result runs as straight-line code
+    * that the JIT compiler can inline and optimize, which pays off when the
+    * expression is evaluated in a tight loop.  Expressions too large for
+    * the JIT to compile fall back to the interpreter.
+    *
+    * @param variables The variables to bind, in slot order.  If none are
+    * given, every variable in the tree is bound in alphabetical order.
+    * @return The compiled expression.
+    * @throws ExpressionException if the tree uses a variable that is not
+    * bound or contains a node that cannot be evaluated.
+    */
+   public CompiledExpression compileToBytecode( String... variables )
+      throws ExpressionException
+   {
+      return compile( true, variables );
+   }
+
+   /**
+    * Evaluates the tree by walking it, taking the value of each variable
+    * from its slot in the {@link SymbolTable}.  This suits evaluating a tree
+    * a few times; to evaluate it many times, {@link #compile(String...)
+    * compile} it.
+    *
+    * @param slots The value of each variable, indexed by slot.
+    * @return The value of the expression.
+    * @throws UnsupportedOperationException if the tree contains a node that
+    * cannot be evaluated.
+    */
+   public double evaluate( double[] slots )
+   {
+      return getRoot().evaluate( slots );
+   }
+
+   /**
+    * Evaluates the tree at every point of an array.  Callers evaluating the
+    * same tree repeatedly should {@link #compile(String...) compile} it
+    * once and use {@link CompiledExpression#evaluateAll(double[], double[])}.
+    *
+    * @param variable The variable to bind.
+    * @param xs The values of the variable.
+    * @param out Receives the value of the expression at each point.
+    * @throws ExpressionException if the tree uses another variable or
+    * contains a node that cannot be evaluated.
+    */
+   public void evaluate( String variable, double[] xs, double[] out )
+      throws ExpressionException
+   {
+      compile( variable ).evaluateAll( xs, out );
+   }
+
+   /**
+    * Compiles the tree with the specified backend.
+    */
+   private CompiledExpression compile( boolean generated, String[] variables )
+      throws ExpressionException
+   {
+      if ( variables.length == 0 )
+      {
+         variables = ExpressionCompiler.findVariables( getRoot() );
+      }
+      else
+      {
+         variables = variables.clone();
+      }
+
+      Program program = new ExpressionCompiler( variables ).compile( getRoot() );
+      return new CompiledExpression( program, variables, generated );
+   }
+
    /**
     * Returns true if the object represents the same tree as this one.
     * 
@@ -138,5 +272,17 @@ public class ExpressionTree
    	
    	return this.getRoot().equals( tree.getRoot() );
    }
+
+   /**
+    * Returns a hash code for the tree, which is that of its root.  It is
+    * cached by the nodes, so is cheap to ask for again until the tree is
+    * changed.
+    * 
+    * @return A hash code consistent with equals().
+    */
+   public int hashCode()
+   {
+      return getRoot() == null ? 0 : getRoot().hashCode();
+   }
    
 }
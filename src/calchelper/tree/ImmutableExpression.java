@@ -0,0 +1,784 @@
+/*
+ * ImmutableExpression.java
+ *
+ * This file is part of CalcHelper.
+ *
+ * CalcHelper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CalcHelper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CalcHelper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package calchelper.tree;
+
+/**
+ * An expression that cannot be changed.  Unlike the nodes of an
+ * {@link ExpressionTree}, immutable expressions are hash-consed: there is
+ * only ever one instance of each distinct expression, so identical
+ * subexpressions are shared rather than copied, and two expressions are
+ * equal exactly when they are the same object.
+ *
+ * Derivatives are built from the shared parts of the original expression,
+ * so taking many derivatives of a large expression uses little memory, and
+ * they are cached, so each distinct subexpression is differentiated once.
+ * Expressions that are no longer referenced are garbage collected as usual.
+ *
+ * Immutable expressions are safe to share between threads.
+ *
+ * @author Patrick MacArthur
+ */
+public final class ImmutableExpression
+{
+   // Kinds of expression
+   static final int POLY = 0;
+   static final int ADD  = 1;
+   static final int SUB  = 2;
+   static final int MUL  = 3;
+   static final int DIV  = 4;
+   static final int POW  = 5;
+   static final int SIN  = 6;
+   static final int COS  = 7;
+   static final int TAN  = 8;
+   static final int COT  = 9;
+   static final int SEC  = 10;
+   static final int CSC  = 11;
+   static final int LN   = 12;
+
+   // The node type of each kind, as used by NodeFactory
+   private static final String[] TYPES = { null, "+", "-", "*", "/", "^",
+      "sin", "cos", "tan", "cot", "sec", "csc", "ln" };
+
+   private static final InternTable TABLE = new InternTable();
+
+   /*
+    * Implementation notes:
+    *
+    * POLY    : _terms and _variable hold the polynomial; _terms is never
+    *           changed
+    * binary  : _first and _second are the left and right operands
+    * function: _first is the coefficient, _second the argument and _third
+    *           the power, as in TrigOperatorNode
+    */
+   private final int _kind;
+   private final ImmutableExpression _first;
+   private final ImmutableExpression _second;
+   private final ImmutableExpression _third;
+   private final PolynomialTerms _terms;
+   private final Symbol _variable;
+   private final int _hash;
+
+   /**
+    * Creates an expression, which must then be interned.
+    */
+   private ImmutableExpression( int kind, ImmutableExpression first,
+                                ImmutableExpression second,
+                                ImmutableExpression third,
+                                PolynomialTerms terms, Symbol variable )
+   {
+      _kind = kind;
+      _first = first;
+      _second = second;
+      _third = third;
+      _terms = terms;
+      _variable = variable;
+
+      int hash = kind;
+      hash = 31 * hash + ( variable == null ? 0 : variable.hashCode() );
+      hash = 31 * hash + ( terms == null ? 0 : terms.hashCode() );
+      hash = 31 * hash + ( first == null ? 0 : first._hash );
+      hash = 31 * hash + ( second == null ? 0 : second._hash );
+      hash = 31 * hash + ( third == null ? 0 : third._hash );
+      _hash = hash;
+   }
+
+   /**
+    * Returns the immutable form of an expression tree.
+    *
+    * @param tree The tree to convert.
+    * @return The equivalent immutable expression.
+    */
+   public static ImmutableExpression of( ExpressionTree tree )
+   {
+      return of( tree.getRoot() );
+   }
+
+   /**
+    * Returns the immutable form of a subtree.  Polynomials in several
+    * variables become sums of products of single-variable polynomials.
+    *
+    * @param node The root of the subtree.
+    * @return The equivalent immutable expression.
+    */
+   static ImmutableExpression of( AbstractNode node )
+   {
+      if ( node instanceof Polynomial )
+      {
+         Polynomial poly = ( Polynomial ) node;
+         return polynomial( poly.getTerms(), poly.getSymbol() );
+      }
+      else if ( node instanceof MultiPolynomial )
+      {
+         return of( ( ( MultiPolynomial ) node ).expand() );
+      }
+      else if ( node instanceof BinaryOperatorNode )
+      {
+         BinaryOperatorNode binNode = ( BinaryOperatorNode ) node;
+         return binary( kindOf( binNode.getType() ), of( binNode.getLeft() ),
+                  of( binNode.getRight() ) );
+      }
+      else if ( node instanceof TrigOperatorNode )
+      {
+         TrigOperatorNode trigNode = ( TrigOperatorNode ) node;
+         return function( kindOf( trigNode.getType() ),
+                  of( trigNode.getCoefficientTerm() ),
+                  of( trigNode.getArgument() ), of( trigNode.getPower() ) );
+      }
+      else
+      {
+         throw new IllegalArgumentException( "Cannot convert " + node );
+      }
+   }
+
+   /**
+    * Returns the polynomial with a copy of the given terms.
+    */
+   static ImmutableExpression polynomial( PolynomialTerms terms,
+                                          Symbol variable )
+   {
+      return intern( new ImmutableExpression( POLY, null, null, null,
+               new PolynomialTerms( terms ), variable ) );
+   }
+
+   /**
+    * Returns a constant.
+    */
+   static ImmutableExpression constant( double value )
+   {
+      PolynomialTerms terms = new PolynomialTerms();
+      terms.put( 0.0, value );
+      return intern( new ImmutableExpression( POLY, null, null, null, terms,
+               null ) );
+   }
+
+   /**
+    * Returns a binary operation without simplifying it.
+    */
+   static ImmutableExpression binary( int kind, ImmutableExpression left,
+                                      ImmutableExpression right )
+   {
+      return intern( new ImmutableExpression( kind, left, right, null, null,
+               null ) );
+   }
+
+   /**
+    * Returns a function without simplifying it.
+    */
+   static ImmutableExpression function( int kind,
+                                        ImmutableExpression coefficient,
+                                        ImmutableExpression argument,
+                                        ImmutableExpression power )
+   {
+      return intern( new ImmutableExpression( kind, coefficient, argument,
+               power, null, null ) );
+   }
+
+   /**
+    * Returns the canonical instance of a new expression.
+    */
+   private static ImmutableExpression intern( ImmutableExpression candidate )
+   {
+      return TABLE.intern( candidate );
+   }
+
+   /**
+    * Returns the number of distinct expressions currently in existence.
+    */
+   static int internedCount()
+   {
+      return TABLE.size();
+   }
+
+   /**
+    * Determines whether this expression has the same structure as another
+    * newly built one.  Since operands are interned, they are compared by
+    * reference.
+    */
+   boolean sameNode( ImmutableExpression other )
+   {
+      return _kind == other._kind && _first == other._first
+               && _second == other._second && _third == other._third
+               && _variable == other._variable
+               && ( _terms == null ? other._terms == null
+                        : _terms.equals( other._terms ) );
+   }
+
+   /**
+    * Returns the kind of expression.
+    */
+   int kind()
+   {
+      return _kind;
+   }
+
+   /**
+    * Returns the left operand, or the coefficient of a function.
+    */
+   ImmutableExpression first()
+   {
+      return _first;
+   }
+
+   /**
+    * Returns the right operand, or the argument of a function.
+    */
+   ImmutableExpression second()
+   {
+      return _second;
+   }
+
+   /**
+    * Returns the power of a function.
+    */
+   ImmutableExpression third()
+   {
+      return _third;
+   }
+
+   /**
+    * Returns the terms of a polynomial, which must not be changed.
+    */
+   PolynomialTerms terms()
+   {
+      return _terms;
+   }
+
+   /**
+    * Returns the variable of a polynomial, or null if it is constant.
+    */
+   String variable()
+   {
+      return _variable == null ? null : _variable.getName();
+   }
+
+   /**
+    * Determines whether this expression is a constant.
+    *
+    * @return true if the expression is a polynomial with no variable terms
+    */
+   public boolean isConstant()
+   {
+      if ( _kind != POLY )
+      {
+         return false;
+      }
+      for ( int i = _terms.first(); i >= 0; i = _terms.next( i ) )
+      {
+         if ( _terms.power( i ) != 0.0 )
+         {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Returns the value of a constant expression.
+    *
+    * @return The value, or 0 if the expression is not constant.
+    */
+   public double getValue()
+   {
+      return isConstant() ? _terms.get( 0.0 ) : 0.0;
+   }
+
+   /**
+    * Returns the derivative of this expression with respect to a variable.
+    * Constant parts of the result are folded together as it is built.
+    *
+    * @param variable The variable to differentiate with respect to.
+    * @return The derivative.
+    */
+   public ImmutableExpression derive( String variable )
+   {
+      return CalculusCache.derive( this, variable );
+   }
+
+   /**
+    * Computes the derivative of this expression.  Derivatives of the
+    * operands come through {@link #derive(String)}, so they are cached.
+    */
+   ImmutableExpression computeDerivative( String variable )
+   {
+      switch ( _kind )
+      {
+         case POLY:
+            if ( _variable != null && variable.equals( _variable.getName() ) )
+            {
+               return simplePolynomial( _terms.derive(), _variable );
+            }
+            return constant( 0.0 );
+
+         case ADD:
+            return sum( _first.derive( variable ), _second.derive( variable ) );
+
+         case SUB:
+            return difference( _first.derive( variable ),
+                     _second.derive( variable ) );
+
+         case MUL:
+            return sum( product( _first.derive( variable ), _second ),
+                     product( _first, _second.derive( variable ) ) );
+
+         case DIV:
+            return quotient( difference(
+                     product( _first.derive( variable ), _second ),
+                     product( _first, _second.derive( variable ) ) ),
+                     product( _second, _second ) );
+
+         case POW:
+            return derivePower( variable );
+
+         default:
+            return deriveFunction( variable );
+      }
+   }
+
+   /**
+    * Returns the derivative of a power.
+    */
+   private ImmutableExpression derivePower( String variable )
+   {
+      if ( _second.isConstant() )
+      {
+         // d( u^n ) = n u^( n - 1 ) du
+         double n = _second.getValue();
+         return product( product( constant( n ),
+                  power( _first, constant( n - 1 ) ) ),
+                  _first.derive( variable ) );
+      }
+      else if ( _first.isConstant() )
+      {
+         // d( a^v ) = a^v ln( a ) dv
+         return product( product( this, constant( Math.log( _first.getValue() ) ) ),
+                  _second.derive( variable ) );
+      }
+      else
+      {
+         // d( u^v ) = u^v ( dv ln( u ) + v du / u )
+         ImmutableExpression log = function( LN, constant( 1.0 ), _first,
+                  constant( 1.0 ) );
+         return product( this, sum( product( _second.derive( variable ), log ),
+                  quotient( product( _second, _first.derive( variable ) ),
+                           _first ) ) );
+      }
+   }
+
+   /**
+    * Returns the derivative of c f^n( u ).
+    */
+   private ImmutableExpression deriveFunction( String variable )
+   {
+      ImmutableExpression one = constant( 1.0 );
+      if ( ! _third.isConstant() )
+      {
+         // Treat c f( u )^v as an ordinary product and power
+         return product( _first, power( applied( _kind, one, _second, one ),
+                  _third ) ).derive( variable );
+      }
+
+      // d( c f^n( u ) ) = dc f^n( u ) + c n f^( n - 1 )( u ) f'( u ) du
+      double n = _third.getValue();
+      ImmutableExpression outer = product( _first, product( constant( n ),
+               _second.derive( variable ) ) );
+      ImmutableExpression inner = n == 1.0 ? outer : product( outer,
+               applied( _kind, one, _second, constant( n - 1 ) ) );
+      ImmutableExpression chain = product( inner,
+               derivedFunction( _kind, _second ) );
+      return sum( product( _first.derive( variable ),
+               applied( _kind, one, _second, _third ) ), chain );
+   }
+
+   /**
+    * Returns f'( u ) for the function of the given kind.
+    */
+   private static ImmutableExpression derivedFunction( int kind,
+                                                       ImmutableExpression u )
+   {
+      ImmutableExpression one = constant( 1.0 );
+      ImmutableExpression minusOne = constant( -1.0 );
+      ImmutableExpression two = constant( 2.0 );
+      switch ( kind )
+      {
+         case SIN: return applied( COS, one, u, one );
+         case COS: return applied( SIN, minusOne, u, one );
+         case TAN: return applied( SEC, one, u, two );
+         case COT: return applied( CSC, minusOne, u, two );
+         case SEC: return product( applied( SEC, one, u, one ),
+                           applied( TAN, one, u, one ) );
+         case CSC: return product( applied( CSC, minusOne, u, one ),
+                           applied( COT, one, u, one ) );
+         case LN:  return quotient( one, u );
+         default:
+            throw new IllegalStateException( "Not a function: " + kind );
+      }
+   }
+
+   /**
+    * Returns a binary operation, folding constants and polynomials as
+    * derivatives are folded.
+    *
+    * @param kind The operation, from ADD to POW.
+    * @return The folded result, or the operation itself if nothing folds.
+    */
+   static ImmutableExpression fold( int kind, ImmutableExpression a,
+                                    ImmutableExpression b )
+   {
+      switch ( kind )
+      {
+         case ADD:
+            return sum( a, b );
+         case SUB:
+            return difference( a, b );
+         case MUL:
+            return product( a, b );
+         case DIV:
+            return quotient( a, b );
+         case POW:
+            return power( a, b );
+         default:
+            throw new IllegalArgumentException( "Not binary: " + kind );
+      }
+   }
+
+   /**
+    * Returns a + b, folding constants and polynomials.
+    */
+   private static ImmutableExpression sum( ImmutableExpression a,
+                                           ImmutableExpression b )
+   {
+      if ( a.isZero() )
+      {
+         return b;
+      }
+      else if ( b.isZero() )
+      {
+         return a;
+      }
+      else if ( compatible( a, b ) )
+      {
+         return combine( a, b, 1.0 );
+      }
+      return binary( ADD, a, b );
+   }
+
+   /**
+    * Returns a - b, folding constants and polynomials.
+    */
+   private static ImmutableExpression difference( ImmutableExpression a,
+                                                  ImmutableExpression b )
+   {
+      if ( b.isZero() )
+      {
+         return a;
+      }
+      else if ( compatible( a, b ) )
+      {
+         return combine( a, b, -1.0 );
+      }
+      return binary( SUB, a, b );
+   }
+
+   /**
+    * Returns a * b, folding constants and polynomials.
+    */
+   private static ImmutableExpression product( ImmutableExpression a,
+                                               ImmutableExpression b )
+   {
+      if ( a.isZero() || b.isZero() )
+      {
+         return constant( 0.0 );
+      }
+      else if ( a.isOne() )
+      {
+         return b;
+      }
+      else if ( b.isOne() )
+      {
+         return a;
+      }
+      else if ( compatible( a, b ) )
+      {
+         return simplePolynomial( PolynomialTerms.multiply( a._terms, b._terms ),
+                  commonVariable( a, b ) );
+      }
+      return binary( MUL, a, b );
+   }
+
+   /**
+    * Returns a / b, folding constants and polynomials.
+    */
+   private static ImmutableExpression quotient( ImmutableExpression a,
+                                                ImmutableExpression b )
+   {
+      if ( b.isOne() )
+      {
+         return a;
+      }
+      else if ( a.isZero() )
+      {
+         return constant( 0.0 );
+      }
+      else if ( compatible( a, b ) && b._terms.size() == 1 )
+      {
+         int term = b._terms.first();
+         double divisorPower = b._terms.power( term );
+         double divisor = b._terms.coefficient( term );
+         PolynomialTerms terms = new PolynomialTerms();
+         for ( int i = a._terms.first(); i >= 0; i = a._terms.next( i ) )
+         {
+            terms.add( a._terms.power( i ) - divisorPower,
+                     a._terms.coefficient( i ) / divisor );
+         }
+         return simplePolynomial( terms,
+                  commonVariable( a, b ) );
+      }
+      return binary( DIV, a, b );
+   }
+
+   /**
+    * Returns a^b, folding constants and monomials.
+    */
+   private static ImmutableExpression power( ImmutableExpression a,
+                                             ImmutableExpression b )
+   {
+      if ( b.isConstant() )
+      {
+         double n = b.getValue();
+         if ( n == 0.0 )
+         {
+            return constant( 1.0 );
+         }
+         else if ( n == 1.0 )
+         {
+            return a;
+         }
+         else if ( a._kind == POLY && a._terms.size() == 1 )
+         {
+            int term = a._terms.first();
+            PolynomialTerms terms = new PolynomialTerms();
+            terms.put( a._terms.power( term ) * n,
+                     Math.pow( a._terms.coefficient( term ), n ) );
+            return simplePolynomial( terms, a._variable );
+         }
+      }
+      return binary( POW, a, b );
+   }
+
+   /**
+    * Returns c f^n( u ), folding a zero coefficient or power.
+    */
+   private static ImmutableExpression applied( int kind,
+                                               ImmutableExpression coefficient,
+                                               ImmutableExpression argument,
+                                               ImmutableExpression power )
+   {
+      if ( coefficient.isZero() )
+      {
+         return constant( 0.0 );
+      }
+      else if ( power.isZero() )
+      {
+         return coefficient;
+      }
+      return function( kind, coefficient, argument, power );
+   }
+
+   /**
+    * Returns a + factor * b for two compatible polynomials.
+    */
+   private static ImmutableExpression combine( ImmutableExpression a,
+                                               ImmutableExpression b,
+                                               double factor )
+   {
+      PolynomialTerms terms = new PolynomialTerms( a._terms );
+      for ( int i = b._terms.first(); i >= 0; i = b._terms.next( i ) )
+      {
+         terms.add( b._terms.power( i ), b._terms.coefficient( i ) * factor );
+      }
+      return simplePolynomial( terms,
+               commonVariable( a, b ) );
+   }
+
+   /**
+    * Returns the polynomial with the given terms, dropping zero terms and
+    * the variable of a constant.  The terms are not copied.
+    */
+   private static ImmutableExpression simplePolynomial( PolynomialTerms terms,
+                                                        Symbol variable )
+   {
+      terms.removeZeros();
+      if ( terms.size() == 0 )
+      {
+         return constant( 0.0 );
+      }
+      if ( terms.size() == 1 && terms.contains( 0.0 ) )
+      {
+         variable = null;
+      }
+      return intern( new ImmutableExpression( POLY, null, null, null, terms,
+               variable ) );
+   }
+
+   /**
+    * Determines whether two expressions are polynomials that can be
+    * combined, which is when they are over the same variable or at least
+    * one is constant.
+    */
+   private static boolean compatible( ImmutableExpression a,
+                                      ImmutableExpression b )
+   {
+      return a._kind == POLY && b._kind == POLY
+               && ( a._variable == null || b._variable == null
+                        || a._variable == b._variable
+                        || a.isConstant() || b.isConstant() );
+   }
+
+   /**
+    * Returns the variable of the result of combining two compatible
+    * polynomials.
+    */
+   private static Symbol commonVariable( ImmutableExpression a,
+                                         ImmutableExpression b )
+   {
+      if ( a.isConstant() )
+      {
+         return b._variable;
+      }
+      else if ( b.isConstant() )
+      {
+         return a._variable;
+      }
+      return a._variable != null ? a._variable : b._variable;
+   }
+
+   /**
+    * Determines whether this is the constant 0.
+    */
+   private boolean isZero()
+   {
+      return isConstant() && getValue() == 0.0;
+   }
+
+   /**
+    * Determines whether this is the constant 1.
+    */
+   private boolean isOne()
+   {
+      return isConstant() && _terms.size() == 1 && getValue() == 1.0;
+   }
+
+   /**
+    * Returns a new, mutable expression tree equivalent to this expression.
+    *
+    * @return The expression tree.
+    */
+   public ExpressionTree toTree()
+   {
+      return new ExpressionTree( toNode() );
+   }
+
+   /**
+    * Returns a new subtree equivalent to this expression.
+    */
+   AbstractNode toNode()
+   {
+      switch ( _kind )
+      {
+         case POLY:
+            return new Polynomial( _terms, _variable );
+         case ADD:
+            return new BinaryOperatorNode.Addition( _first.toNode(),
+                     _second.toNode() );
+         case SUB:
+            return new BinaryOperatorNode.Subtraction( _first.toNode(),
+                     _second.toNode() );
+         case MUL:
+            return new BinaryOperatorNode.Multiplication( _first.toNode(),
+                     _second.toNode() );
+         case DIV:
+            return new BinaryOperatorNode.Division( _first.toNode(),
+                     _second.toNode() );
+         case POW:
+            return new BinaryOperatorNode.Power( _first.toNode(),
+                     _second.toNode() );
+         default:
+            return NodeFactory.createTrigNode( TYPES[ _kind ],
+                     _first.toNode(), _second.toNode(), _third.toNode() );
+      }
+   }
+
+   /**
+    * Returns a new subtree equivalent to this expression, carrying out
+    * arithmetic on polynomials as the parser does.  This undoes the
+    * expansion of polynomials in several variables.
+    */
+   AbstractNode toFoldedNode()
+   {
+      switch ( _kind )
+      {
+         case POLY:
+            return toNode();
+         case ADD:
+         case SUB:
+         case MUL:
+         case DIV:
+         case POW:
+            return NodeFactory.createNode( TYPES[ _kind ],
+                     _first.toFoldedNode(), _second.toFoldedNode() );
+         default:
+            return NodeFactory.createTrigNode( TYPES[ _kind ],
+                     _first.toFoldedNode(), _second.toFoldedNode(),
+                     _third.toFoldedNode() );
+      }
+   }
+
+   /**
+    * Returns the kind of expression for a node type.
+    */
+   private static int kindOf( String type )
+   {
+      for ( int kind = ADD; kind < TYPES.length; ++kind )
+      {
+         if ( TYPES[ kind ].equals( type ) )
+         {
+            return kind;
+         }
+      }
+      throw new IllegalArgumentException( "Unknown node type: " + type );
+   }
+
+   /**
+    * Returns a hash code computed from the structure of the expression, so
+    * that it is the same from run to run.
+    */
+   public int hashCode()
+   {
+      return _hash;
+   }
+
+   /**
+    * Returns a human-readable string representation of the expression.
+    */
+   public String toString()
+   {
+      return toNode().getStringValue();
+   }
+}
@@ -0,0 +1,163 @@
+/*
+ * InternTable.java
+ *
+ * This file is part of CalcHelper.
+ *
+ * CalcHelper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CalcHelper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CalcHelper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package calchelper.tree;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+/**
+ * The table that makes structurally identical {@link ImmutableExpression}s
+ * the same object.  Entries are held weakly, so an expression leaves the
+ * table once nothing else refers to it, and the table never holds more than
+ * the expressions still in use.
+ *
+ * The table is safe for use by multiple threads.
+ *
+ * @author Patrick MacArthur
+ */
+final class InternTable
+{
+   /**
+    * A weakly held expression in a hash chain.
+    */
+   private static final class Entry extends WeakReference<ImmutableExpression>
+   {
+      final int _hash;
+      Entry _next;
+
+      Entry( ImmutableExpression expression,
+             ReferenceQueue<ImmutableExpression> queue, Entry next )
+      {
+         super( expression, queue );
+         _hash = expression.hashCode();
+         _next = next;
+      }
+   }
+
+   private final ReferenceQueue<ImmutableExpression> _queue;
+   private Entry[] _buckets;
+   private int _size;
+
+   /**
+    * Creates an empty table.
+    */
+   InternTable()
+   {
+      _queue = new ReferenceQueue<ImmutableExpression>();
+      _buckets = new Entry[ 64 ];
+   }
+
+   /**
+    * Returns the expression in the table with the same structure as the
+    * candidate, adding the candidate if there is none.
+    *
+    * @param candidate A newly built expression.
+    * @return The canonical instance of the expression.
+    */
+   synchronized ImmutableExpression intern( ImmutableExpression candidate )
+   {
+      expungeCollected();
+
+      int hash = candidate.hashCode();
+      int bucket = hash & ( _buckets.length - 1 );
+      for ( Entry e = _buckets[ bucket ]; e != null; e = e._next )
+      {
+         if ( e._hash == hash )
+         {
+            ImmutableExpression existing = e.get();
+            if ( existing != null && existing.sameNode( candidate ) )
+            {
+               return existing;
+            }
+         }
+      }
+
+      _buckets[ bucket ] = new Entry( candidate, _queue, _buckets[ bucket ] );
+      if ( ++_size > _buckets.length * 3 / 4 )
+      {
+         resize();
+      }
+      return candidate;
+   }
+
+   /**
+    * Returns the number of expressions in the table, including any that
+    * have been collected but not yet removed.
+    *
+    * @return The number of expressions.
+    */
+   synchronized int size()
+   {
+      expungeCollected();
+      return _size;
+   }
+
+   /**
+    * Removes the entries whose expressions have been garbage collected.
+    */
+   private void expungeCollected()
+   {
+      Object collected;
+      while ( ( collected = _queue.poll() ) != null )
+      {
+         Entry dead = ( Entry ) collected;
+         int bucket = dead._hash & ( _buckets.length - 1 );
+         Entry previous = null;
+         for ( Entry e = _buckets[ bucket ]; e != null; e = e._next )
+         {
+            if ( e == dead )
+            {
+               if ( previous == null )
+               {
+                  _buckets[ bucket ] = e._next;
+               }
+               else
+               {
+                  previous._next = e._next;
+               }
+               --_size;
+               break;
+            }
+            previous = e;
+         }
+      }
+   }
+
+   /**
+    * Doubles the number of buckets.
+    */
+   private void resize()
+   {
+      Entry[] old = _buckets;
+      _buckets = new Entry[ old.length * 2 ];
+      for ( Entry head : old )
+      {
+         Entry e = head;
+         while ( e != null )
+         {
+            Entry next = e._next;
+            int bucket = e._hash & ( _buckets.length - 1 );
+            e._next = _buckets[ bucket ];
+            _buckets[ bucket ] = e;
+            e = next;
+         }
+      }
+   }
+}
@@ -0,0 +1,339 @@
+/*
+ * Lexer.java
+ *
+ * This file is part of CalcHelper.
+ *
+ * CalcHelper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CalcHelper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CalcHelper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package calchelper.tree;
+
+/**
+ * Splits an infix expression into tokens in a single pass.  The lexer is a
+ * cursor: {@link #next()} moves to the next token and returns its kind, and
+ * the other methods describe the current token, so scanning allocates
+ * nothing but the names of LaTeX commands.
+ *
+ * Numbers are read the same way in every locale: digits with an optional
+ * decimal point, then optionally "E" and a signed power of ten.  A minus
+ * sign belongs to a number only where an operand could not end, so "3-5" is
+ * a subtraction but "3*-5" and "-5" hold the number -5.  Any other character
+ * that is not an operator, a LaTeX command or white space is a one-letter
+ * identifier.
+ *
+ * @author Patrick MacArthur
+ */
+final class Lexer
+{
+   // Token kinds
+   static final int END = 0;
+   static final int NUMBER = 1;
+   static final int IDENTIFIER = 2;
+   static final int OPERATOR = 3;
+   static final int COMMAND = 4;
+
+   private static final String OPERATORS = "{}[]()+-*/%^";
+
+   // Exact powers of ten for reading short numbers without rounding twice
+   private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4,
+      1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17,
+      1e18, 1e19, 1e20, 1e21, 1e22 };
+
+   private final CharSequence _input;
+   private final int _end;
+
+   private int _position;
+   private int _kind;
+   private int _start;
+   private int _stop;
+   private double _number;
+   private boolean _afterOperand;
+
+   /**
+    * Creates a lexer over a whole expression.
+    *
+    * @param input The expression.
+    */
+   Lexer( CharSequence input )
+   {
+      this( input, 0, input.length() );
+   }
+
+   /**
+    * Creates a lexer over part of an expression.  Offsets are still
+    * relative to the start of the whole expression.
+    *
+    * @param input The expression.
+    * @param from The offset of the first character to read.
+    * @param to The offset just past the last character to read.
+    */
+   Lexer( CharSequence input, int from, int to )
+   {
+      _input = input;
+      _position = from;
+      _end = to;
+      _kind = END;
+      _start = from;
+      _stop = from;
+   }
+
+   /**
+    * Moves to the next token.
+    *
+    * @return The kind of the token, which is END past the last one.
+    */
+   int next()
+   {
+      while ( _position < _end
+               && Character.isWhitespace( _input.charAt( _position ) ) )
+      {
+         ++_position;
+      }
+
+      _start = _position;
+      if ( _position >= _end )
+      {
+         _stop = _position;
+         return _kind = END;
+      }
+
+      char ch = _input.charAt( _position );
+      if ( isNumberStart( _position ) )
+      {
+         _position = scanNumber( _position );
+         _kind = NUMBER;
+      }
+      else if ( ch == '\\' )
+      {
+         ++_position;
+         while ( _position < _end
+                  && Character.isLetter( _input.charAt( _position ) ) )
+         {
+            ++_position;
+         }
+         _kind = COMMAND;
+      }
+      else if ( OPERATORS.indexOf( ch ) >= 0 )
+      {
+         ++_position;
+         _kind = OPERATOR;
+      }
+      else
+      {
+         ++_position;
+         _kind = IDENTIFIER;
+      }
+
+      _stop = _position;
+      _afterOperand = _kind == NUMBER || _kind == IDENTIFIER
+               || ch == ')' || ch == '}' || ch == ']';
+      return _kind;
+   }
+
+   /**
+    * Continues scanning from the given offset, as though an operand ended
+    * just before it.  Used to step over input the caller has read itself.
+    *
+    * @param position The offset to continue from.
+    */
+   void resume( int position )
+   {
+      _position = position;
+      _afterOperand = true;
+   }
+
+   /**
+    * Returns the kind of the current token.
+    */
+   int kind()
+   {
+      return _kind;
+   }
+
+   /**
+    * Returns the offset of the first character of the current token.
+    */
+   int start()
+   {
+      return _start;
+   }
+
+   /**
+    * Returns the offset just past the last character of the current token.
+    */
+   int end()
+   {
+      return _stop;
+   }
+
+   /**
+    * Returns the offset just past the last character the lexer may read.
+    */
+   int limit()
+   {
+      return _end;
+   }
+
+   /**
+    * Returns the value of the current NUMBER token.
+    */
+   double number()
+   {
+      return _number;
+   }
+
+   /**
+    * Returns the character of the current OPERATOR or IDENTIFIER token.
+    */
+   char character()
+   {
+      return _input.charAt( _start );
+   }
+
+   /**
+    * Returns the text of the current token, without the backslash for a
+    * COMMAND.
+    */
+   String text()
+   {
+      int from = _kind == COMMAND ? _start + 1 : _start;
+      return _input.subSequence( from, _stop ).toString();
+   }
+
+   /**
+    * Determines whether a number starts at the given offset.
+    */
+   private boolean isNumberStart( int i )
+   {
+      if ( _input.charAt( i ) == '-' )
+      {
+         if ( _afterOperand )
+         {
+            return false;
+         }
+         ++i;
+      }
+      if ( i < _end && _input.charAt( i ) == '.' )
+      {
+         ++i;
+      }
+      return i < _end && isDigit( _input.charAt( i ) );
+   }
+
+   /**
+    * Reads the number starting at the given offset into _number.
+    *
+    * @return The offset just past the number.
+    */
+   private int scanNumber( int i )
+   {
+      int start = i;
+      boolean negative = _input.charAt( i ) == '-';
+      if ( negative )
+      {
+         ++i;
+      }
+
+      // Collect up to 15 significant digits, which a double holds exactly
+      long mantissa = 0;
+      int digits = 0;
+      int scale = 0;
+      boolean exact = true;
+      boolean point = false;
+      for ( ; i < _end; ++i )
+      {
+         char ch = _input.charAt( i );
+         if ( ch == '.' && ! point )
+         {
+            point = true;
+         }
+         else if ( isDigit( ch ) )
+         {
+            if ( mantissa == 0 && ch == '0' )
+            {
+               // Leading zeros are not significant
+            }
+            else if ( digits < 15 )
+            {
+               mantissa = mantissa * 10 + ( ch - '0' );
+               ++digits;
+            }
+            else
+            {
+               exact = false;
+            }
+            if ( point )
+            {
+               --scale;
+            }
+         }
+         else
+         {
+            break;
+         }
+      }
+
+      // An exponent needs at least one digit, or the E is a variable
+      int exponent = 0;
+      if ( i < _end && _input.charAt( i ) == 'E' )
+      {
+         int j = i + 1;
+         boolean negativeExponent = false;
+         if ( j < _end
+                  && ( _input.charAt( j ) == '-' || _input.charAt( j ) == '+' ) )
+         {
+            negativeExponent = _input.charAt( j ) == '-';
+            ++j;
+         }
+         if ( j < _end && isDigit( _input.charAt( j ) ) )
+         {
+            for ( ; j < _end && isDigit( _input.charAt( j ) ); ++j )
+            {
+               if ( exponent < 10000 )
+               {
+                  exponent = exponent * 10 + ( _input.charAt( j ) - '0' );
+               }
+            }
+            if ( negativeExponent )
+            {
+               exponent = -exponent;
+            }
+            i = j;
+         }
+      }
+
+      scale += exponent;
+      if ( exact && scale >= -22 && scale <= 22 )
+      {
+         // Both factors are exact, so the one rounding is correct
+         double value = scale < 0 ? mantissa / POWERS_OF_TEN[ -scale ]
+                  : mantissa * POWERS_OF_TEN[ scale ];
+         _number = negative ? -value : value;
+      }
+      else
+      {
+         _number = Double.parseDouble(
+                  _input.subSequence( start, i ).toString() );
+      }
+      return i;
+   }
+
+   /**
+    * Determines whether a character is an ASCII digit.
+    */
+   private static boolean isDigit( char ch )
+   {
+      return ch >= '0' && ch <= '9';
+   }
+}
@@ -0,0 +1,504 @@
+/*
+ * MonomialTerms.java
+ *
+ * This file is part of CalcHelper.
+ *
+ * CalcHelper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CalcHelper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CalcHelper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package calchelper.tree;
+
+import java.util.Arrays;
+
+/**
+ * The terms of a {@link MultiPolynomial}: a map from monomials to
+ * coefficients.  Nothing is boxed.
+ *
+ * A monomial is packed into a long as its vector of exponents, one field of
+ * FIELD_BITS bits per variable, so that multiplying two monomials is adding
+ * their longs.  The top bit of each field is a guard that is never set in a
+ * valid monomial; a sum that sets one has overflowed.  Exponents are whole
+ * numbers from 0 to MAX_EXPONENT, and there are at most MAX_VARIABLES
+ * variables.
+ *
+ * The map is an open-addressed hash table with linear probing.  Terms are
+ * visited through a cursor, in no particular order:
+ * <pre>
+ * for ( int i = terms.first(); i >= 0; i = terms.next( i ) )
+ * </pre>
+ *
+ * @author Patrick MacArthur
+ */
+final class MonomialTerms
+{
+   static final int MAX_VARIABLES = 6;
+   static final int FIELD_BITS = 10;
+   static final int MAX_EXPONENT = ( 1 << ( FIELD_BITS - 1 ) ) - 1;
+
+   // The most terms a product may need room for
+   static final int MAX_TERMS = 1 << 16;
+
+   // The exponent bits of the first field, and the guard bit of every field
+   private static final long FIELD_MASK = MAX_EXPONENT;
+   private static final long GUARDS;
+
+   // Marks an empty slot; it has every guard bit set, so is no monomial
+   private static final long EMPTY = -1L;
+
+   static
+   {
+      long guards = 0;
+      for ( int v = 0; v < MAX_VARIABLES; ++v )
+      {
+         guards |= 1L << ( v * FIELD_BITS + FIELD_BITS - 1 );
+      }
+      GUARDS = guards;
+   }
+
+   private long[] _keys;
+   private double[] _coefficients;
+   private int _size;
+
+   /**
+    * Creates an empty set of terms.
+    */
+   MonomialTerms()
+   {
+      this( 4 );
+   }
+
+   /**
+    * Creates an empty set of terms with room for the given number.
+    */
+   MonomialTerms( int expected )
+   {
+      int capacity = 8;
+      while ( capacity < 2 * expected )
+      {
+         capacity *= 2;
+      }
+      _keys = new long[ capacity ];
+      Arrays.fill( _keys, EMPTY );
+      _coefficients = new double[ capacity ];
+   }
+
+   /**
+    * Creates a copy of the given terms.
+    *
+    * @param other The terms to copy.
+    */
+   MonomialTerms( MonomialTerms other )
+   {
+      _keys = other._keys.clone();
+      _coefficients = other._coefficients.clone();
+      _size = other._size;
+   }
+
+   /*
+    * Packing monomials
+    */
+
+   /**
+    * Returns the exponent of a variable in a monomial.
+    *
+    * @param monomial The packed monomial.
+    * @param variable The index of the variable.
+    */
+   static int exponent( long monomial, int variable )
+   {
+      return ( int ) ( ( monomial >>> ( variable * FIELD_BITS ) )
+               & FIELD_MASK );
+   }
+
+   /**
+    * Returns the monomial that is one variable raised to a power.
+    *
+    * @param variable The index of the variable.
+    * @param exponent The exponent, from 0 to MAX_EXPONENT.
+    */
+   static long monomial( int variable, int exponent )
+   {
+      return ( long ) exponent << ( variable * FIELD_BITS );
+   }
+
+   /**
+    * Returns the product of two monomials.
+    *
+    * @return The product, or -1 if an exponent would exceed MAX_EXPONENT.
+    */
+   static long multiply( long a, long b )
+   {
+      long product = a + b;
+      return ( product & GUARDS ) == 0 ? product : -1L;
+   }
+
+   /**
+    * Returns the total degree of a monomial.
+    */
+   static int degree( long monomial )
+   {
+      int degree = 0;
+      for ( int v = 0; v < MAX_VARIABLES; ++v )
+      {
+         degree += exponent( monomial, v );
+      }
+      return degree;
+   }
+
+   /*
+    * The map
+    */
+
+   /**
+    * Returns the number of terms.
+    */
+   int size()
+   {
+      return _size;
+   }
+
+   /**
+    * Returns the first slot holding a term, or -1 if there are none.
+    */
+   int first()
+   {
+      return next( -1 );
+   }
+
+   /**
+    * Returns the next slot holding a term, or -1 if there are no more.
+    */
+   int next( int slot )
+   {
+      for ( int i = slot + 1; i < _keys.length; ++i )
+      {
+         if ( _keys[ i ] != EMPTY )
+         {
+            return i;
+         }
+      }
+      return -1;
+   }
+
+   /**
+    * Returns the monomial of the term in a slot.
+    */
+   long monomial( int slot )
+   {
+      return _keys[ slot ];
+   }
+
+   /**
+    * Returns the coefficient of the term in a slot.
+    */
+   double coefficient( int slot )
+   {
+      return _coefficients[ slot ];
+   }
+
+   /**
+    * Returns the coefficient of a monomial.
+    *
+    * @return The coefficient, or 0 if there is no such term.
+    */
+   double get( long monomial )
+   {
+      int slot = find( monomial );
+      return _keys[ slot ] == EMPTY ? 0.0 : _coefficients[ slot ];
+   }
+
+   /**
+    * Determines whether there is a term for a monomial.
+    */
+   boolean contains( long monomial )
+   {
+      return _keys[ find( monomial ) ] != EMPTY;
+   }
+
+   /**
+    * Adds to the coefficient of a monomial, creating the term if needed.
+    */
+   void add( long monomial, double coefficient )
+   {
+      int slot = find( monomial );
+      if ( _keys[ slot ] != EMPTY )
+      {
+         _coefficients[ slot ] += coefficient;
+         return;
+      }
+
+      _keys[ slot ] = monomial;
+      _coefficients[ slot ] = coefficient;
+      if ( 2 * ++_size > _keys.length )
+      {
+         rehash( 2 * _keys.length );
+      }
+   }
+
+   /**
+    * Multiplies every coefficient by a constant.
+    */
+   void scale( double factor )
+   {
+      for ( int i = first(); i >= 0; i = next( i ) )
+      {
+         _coefficients[ i ] *= factor;
+      }
+   }
+
+   /**
+    * Removes the terms whose coefficients are zero.
+    */
+   void removeZeros()
+   {
+      boolean any = false;
+      for ( int i = first(); i >= 0 && ! any; i = next( i ) )
+      {
+         any = _coefficients[ i ] == 0.0;
+      }
+      if ( any )
+      {
+         rehash( _keys.length );
+      }
+   }
+
+   /**
+    * Returns the monomials in a fixed order: highest total degree first, and
+    * then by the exponents of the variables in turn.
+    */
+   long[] sortedMonomials()
+   {
+      // Sort with the first variable in the highest bits...
+      long[] monomials = new long[ _size ];
+      int count = 0;
+      for ( int i = first(); i >= 0; i = next( i ) )
+      {
+         monomials[ count++ ] = reverse( _keys[ i ] );
+      }
+      Arrays.sort( monomials );
+
+      // ...then stably by descending degree
+      int[] starts = new int[ MAX_VARIABLES * MAX_EXPONENT + 2 ];
+      for ( long monomial : monomials )
+      {
+         ++starts[ degree( monomial ) ];
+      }
+      int start = 0;
+      for ( int degree = starts.length - 1; degree >= 0; --degree )
+      {
+         int size = starts[ degree ];
+         starts[ degree ] = start;
+         start += size;
+      }
+      long[] sorted = new long[ count ];
+      for ( int k = count - 1; k >= 0; --k )
+      {
+         sorted[ starts[ degree( monomials[ k ] ) ]++ ] = reverse(
+                  monomials[ k ] );
+      }
+      return sorted;
+   }
+
+   /**
+    * Returns the product of two sets of terms over the same variables.
+    *
+    * @return The product, or null if an exponent would exceed MAX_EXPONENT
+    * or the product could have more than MAX_TERMS terms.
+    */
+   static MonomialTerms multiply( MonomialTerms a, MonomialTerms b )
+   {
+      if ( ( long ) a._size * b._size > MAX_TERMS )
+      {
+         return null;
+      }
+      MonomialTerms product = new MonomialTerms( a._size * b._size );
+      for ( int i = a.first(); i >= 0; i = a.next( i ) )
+      {
+         for ( int j = b.first(); j >= 0; j = b.next( j ) )
+         {
+            long monomial = multiply( a._keys[ i ], b._keys[ j ] );
+            if ( monomial == -1L )
+            {
+               return null;
+            }
+            product.add( monomial,
+                     a._coefficients[ i ] * b._coefficients[ j ] );
+         }
+      }
+      product.removeZeros();
+      return product;
+   }
+
+   /**
+    * Returns the partial derivative with respect to one variable.
+    *
+    * @param variable The index of the variable.
+    */
+   MonomialTerms derive( int variable )
+   {
+      MonomialTerms derivative = new MonomialTerms( _size );
+      long one = monomial( variable, 1 );
+      for ( int i = first(); i >= 0; i = next( i ) )
+      {
+         int exponent = exponent( _keys[ i ], variable );
+         if ( exponent > 0 )
+         {
+            derivative.add( _keys[ i ] - one, _coefficients[ i ] * exponent );
+         }
+      }
+      derivative.removeZeros();
+      return derivative;
+   }
+
+   /**
+    * Returns the integral with respect to one variable, without a constant
+    * of integration.
+    *
+    * @param variable The index of the variable.
+    * @return The integral, or null if an exponent would exceed MAX_EXPONENT.
+    */
+   MonomialTerms integrate( int variable )
+   {
+      MonomialTerms integral = new MonomialTerms( _size );
+      long one = monomial( variable, 1 );
+      for ( int i = first(); i >= 0; i = next( i ) )
+      {
+         long monomial = multiply( _keys[ i ], one );
+         if ( monomial == -1L )
+         {
+            return null;
+         }
+         integral.add( monomial, _coefficients[ i ]
+                  / ( exponent( _keys[ i ], variable ) + 1 ) );
+      }
+      return integral;
+   }
+
+   /**
+    * Returns the terms with each variable moved to a new index.
+    *
+    * @param indices The new index of each variable, or -1 for a variable
+    * that appears in no term.
+    */
+   MonomialTerms renumber( int[] indices )
+   {
+      MonomialTerms renumbered = new MonomialTerms( _size );
+      for ( int i = first(); i >= 0; i = next( i ) )
+      {
+         long monomial = 0;
+         for ( int v = 0; v < indices.length; ++v )
+         {
+            int exponent = exponent( _keys[ i ], v );
+            if ( exponent > 0 )
+            {
+               monomial |= monomial( indices[ v ], exponent );
+            }
+         }
+         renumbered.add( monomial, _coefficients[ i ] );
+      }
+      return renumbered;
+   }
+
+   /**
+    * Determines whether these terms are the same as other terms.
+    */
+   public boolean equals( Object obj )
+   {
+      if ( ! ( obj instanceof MonomialTerms ) )
+      {
+         return false;
+      }
+      MonomialTerms other = ( MonomialTerms ) obj;
+      if ( _size != other._size )
+      {
+         return false;
+      }
+      for ( int i = first(); i >= 0; i = next( i ) )
+      {
+         int slot = other.find( _keys[ i ] );
+         if ( other._keys[ slot ] == EMPTY
+                  || other._coefficients[ slot ] != _coefficients[ i ] )
+         {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Returns a hash code that does not depend on the order of the terms.
+    */
+   public int hashCode()
+   {
+      int hash = 0;
+      for ( int i = first(); i >= 0; i = next( i ) )
+      {
+         long bits = Double.doubleToLongBits( _coefficients[ i ] + 0.0 );
+         hash += Long.hashCode( _keys[ i ] ) ^ Long.hashCode( bits );
+      }
+      return hash;
+   }
+
+   /**
+    * Returns the slot holding a monomial, or the empty slot where it would
+    * go.
+    */
+   private int find( long monomial )
+   {
+      int mask = _keys.length - 1;
+      int slot = ( int ) ( ( monomial * 0x9E3779B97F4A7C15L ) >>> 40 ) & mask;
+      while ( _keys[ slot ] != EMPTY && _keys[ slot ] != monomial )
+      {
+         slot = ( slot + 1 ) & mask;
+      }
+      return slot;
+   }
+
+   /**
+    * Moves the nonzero terms into a table of the given capacity.
+    */
+   private void rehash( int capacity )
+   {
+      long[] keys = _keys;
+      double[] coefficients = _coefficients;
+      _keys = new long[ capacity ];
+      Arrays.fill( _keys, EMPTY );
+      _coefficients = new double[ capacity ];
+      _size = 0;
+      for ( int i = 0; i < keys.length; ++i )
+      {
+         if ( keys[ i ] != EMPTY && coefficients[ i ] != 0.0 )
+         {
+            int slot = find( keys[ i ] );
+            _keys[ slot ] = keys[ i ];
+            _coefficients[ slot ] = coefficients[ i ];
+            ++_size;
+         }
+      }
+   }
+
+   /**
+    * Returns a monomial with the order of the variables reversed.
+    */
+   private static long reverse( long monomial )
+   {
+      long reversed = 0;
+      for ( int v = 0; v < MAX_VARIABLES; ++v )
+      {
+         reversed |= monomial( MAX_VARIABLES - 1 - v,
+                  exponent( monomial, v ) );
+      }
+      return reversed;
+   }
+}
@@ -0,0 +1,706 @@
+/*
+ * MultiPolynomial.java
+ *
+ * This file is part of CalcHelper.
+ *
+ * CalcHelper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CalcHelper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CalcHelper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package calchelper.tree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.TreeSet;
+
+/**
+ * Represents a polynomial in more than one variable, such as 3x^2 * y + x.
+ *
+ * A {@link Polynomial} is over a single variable, so sums and products that
+ * mix variables used to be left as operator nodes.  This class keeps them
+ * as a map from monomials to coefficients instead (see
+ * {@link MonomialTerms}), so that they can still be added, multiplied,
+ * derived and integrated term by term.  Powers must be whole numbers no
+ * greater than MonomialTerms.MAX_EXPONENT, and there may be no more than
+ * MonomialTerms.MAX_VARIABLES variables.
+ *
+ * @author Patrick MacArthur
+ */
+final class MultiPolynomial extends AbstractNode
+{
+   // The variables in alphabetical order; variable i is field i of each
+   // monomial
+   private String[] _variables;
+
+   // Maps monomials to coefficients
+   private MonomialTerms _terms;
+
+   // The slot of each variable in the SymbolTable, or null if not looked up
+   private int[] _slots;
+
+   /**
+    * Builds a polynomial from the given terms, which are not copied.
+    *
+    * @param variables The variables, in alphabetical order.
+    * @param terms The terms over those variables.
+    */
+   MultiPolynomial( String[] variables, MonomialTerms terms )
+   {
+      _variables = variables;
+      _terms = terms;
+   }
+
+   /**
+    * Multiplies out a tree of sums, differences, products, quotients by
+    * constants and whole powers of polynomials.
+    *
+    * @param node The root of the tree.
+    * @return An equivalent MultiPolynomial, or a Polynomial if only one
+    * variable remains, or null if the tree is not such a polynomial.
+    */
+   static AbstractNode create( AbstractNode node )
+   {
+      MultiPolynomial poly = convert( node );
+      if ( poly == null )
+      {
+         return null;
+      }
+      return poly.normalize();
+   }
+
+   /**
+    * Converts a tree to a polynomial over the variables it uses.
+    *
+    * @return The polynomial, or null if the tree is not a polynomial.
+    */
+   private static MultiPolynomial convert( AbstractNode node )
+   {
+      if ( node instanceof MultiPolynomial )
+      {
+         return ( MultiPolynomial ) node;
+      }
+      else if ( node instanceof Polynomial )
+      {
+         return convert( ( Polynomial ) node );
+      }
+      else if ( node.hasValue() )
+      {
+         return constant( node.getValue() );
+      }
+      else if ( ! ( node instanceof BinaryOperatorNode ) )
+      {
+         return null;
+      }
+
+      BinaryOperatorNode binNode = ( BinaryOperatorNode ) node;
+      MultiPolynomial left = convert( binNode.getLeft() );
+      if ( left == null )
+      {
+         return null;
+      }
+      else if ( node instanceof BinaryOperatorNode.Power )
+      {
+         // Only powers by a constant are polynomials
+         AbstractNode exponent = binNode.getRight();
+         return exponent.hasValue() ? left.power( exponent.getValue() ) : null;
+      }
+
+      MultiPolynomial right = convert( binNode.getRight() );
+      if ( right == null )
+      {
+         return null;
+      }
+      else if ( node instanceof BinaryOperatorNode.Addition )
+      {
+         return left.add( right, 1.0 );
+      }
+      else if ( node instanceof BinaryOperatorNode.Subtraction )
+      {
+         return left.add( right, -1.0 );
+      }
+      else if ( node instanceof BinaryOperatorNode.Multiplication )
+      {
+         return left.multiply( right );
+      }
+      else if ( node instanceof BinaryOperatorNode.Division )
+      {
+         return left.divide( right );
+      }
+      return null;
+   }
+
+   /**
+    * Converts a single-variable polynomial.
+    *
+    * @return The polynomial, or null if it has a power that is negative,
+    * fractional or too large.
+    */
+   private static MultiPolynomial convert( Polynomial poly )
+   {
+      PolynomialTerms terms = poly.getTerms();
+      String variable = poly.getVariable();
+      MonomialTerms result = new MonomialTerms( terms.size() );
+      for ( int i = terms.first(); i >= 0; i = terms.next( i ) )
+      {
+         double power = terms.power( i );
+         if ( power < 0 || power > MonomialTerms.MAX_EXPONENT
+                  || power != Math.rint( power )
+                  || ( variable == null && power != 0 ) )
+         {
+            return null;
+         }
+         result.add( MonomialTerms.monomial( 0, ( int ) power ),
+                  terms.coefficient( i ) );
+      }
+
+      String[] variables = variable == null ? new String[ 0 ]
+               : new String[] { variable };
+      return new MultiPolynomial( variables, result );
+   }
+
+   /**
+    * Returns a constant polynomial.
+    */
+   private static MultiPolynomial constant( double constant )
+   {
+      MonomialTerms terms = new MonomialTerms( 1 );
+      terms.add( 0L, constant );
+      return new MultiPolynomial( new String[ 0 ], terms );
+   }
+
+   /*
+    * Arithmetic
+    */
+
+   /**
+    * Returns the sum of this polynomial and a multiple of another.
+    *
+    * @return The sum, or null if there would be too many variables.
+    */
+   private MultiPolynomial add( MultiPolynomial other, double factor )
+   {
+      String[] variables = union( _variables, other._variables );
+      if ( variables == null )
+      {
+         return null;
+      }
+
+      MonomialTerms sum = over( variables );
+      MonomialTerms addend = other.over( variables );
+      for ( int i = addend.first(); i >= 0; i = addend.next( i ) )
+      {
+         sum.add( addend.monomial( i ), addend.coefficient( i ) * factor );
+      }
+      sum.removeZeros();
+      return new MultiPolynomial( variables, sum );
+   }
+
+   /**
+    * Returns the product of this polynomial and another.
+    *
+    * @return The product, or null if it would be too large.
+    */
+   private MultiPolynomial multiply( MultiPolynomial other )
+   {
+      String[] variables = union( _variables, other._variables );
+      if ( variables == null )
+      {
+         return null;
+      }
+
+      MonomialTerms product = MonomialTerms.multiply( over( variables ),
+               other.over( variables ) );
+      return product == null ? null : new MultiPolynomial( variables, product );
+   }
+
+   /**
+    * Returns the quotient of this polynomial and another.
+    *
+    * @return The quotient, or null unless the divisor is a nonzero
+    * constant.
+    */
+   private MultiPolynomial divide( MultiPolynomial other )
+   {
+      if ( ! other.hasValue() || other.getValue() == 0.0 )
+      {
+         return null;
+      }
+
+      MonomialTerms quotient = new MonomialTerms( _terms );
+      quotient.scale( 1.0 / other.getValue() );
+      return new MultiPolynomial( _variables, quotient );
+   }
+
+   /**
+    * Returns this polynomial raised to a power.
+    *
+    * @return The power, or null unless the polynomial is constant or the
+    * power is a whole number and the result is not too large.
+    */
+   private MultiPolynomial power( double power )
+   {
+      if ( hasValue() )
+      {
+         return constant( Math.pow( getValue(), power ) );
+      }
+      else if ( power < 0 || power != Math.rint( power )
+               || power > MonomialTerms.MAX_EXPONENT )
+      {
+         return null;
+      }
+
+      // Leave powers whose coefficients could be too large to hold exactly
+      double sum = 0.0;
+      for ( int i = _terms.first(); i >= 0; i = _terms.next( i ) )
+      {
+         sum += Math.abs( _terms.coefficient( i ) );
+      }
+      if ( PolynomialTerms.coefficientBits( sum, power )
+               > PolynomialTerms.EXACT_BITS )
+      {
+         return null;
+      }
+
+      // Repeated squaring
+      MonomialTerms result = constant( 1.0 )._terms;
+      MonomialTerms base = _terms;
+      for ( int n = ( int ) power; n > 0; n >>= 1 )
+      {
+         if ( ( n & 1 ) != 0 )
+         {
+            result = MonomialTerms.multiply( result, base );
+         }
+         if ( n > 1 && result != null )
+         {
+            base = MonomialTerms.multiply( base, base );
+         }
+         if ( result == null || base == null )
+         {
+            return null;
+         }
+      }
+      return new MultiPolynomial( _variables, result );
+   }
+
+   /**
+    * Returns the sorted union of two sorted lists of variables.
+    *
+    * @return The union, or null if it has more than MAX_VARIABLES.
+    */
+   private static String[] union( String[] a, String[] b )
+   {
+      if ( Arrays.equals( a, b ) )
+      {
+         return a;
+      }
+
+      TreeSet<String> names = new TreeSet<String>( Arrays.asList( a ) );
+      names.addAll( Arrays.asList( b ) );
+      if ( names.size() > MonomialTerms.MAX_VARIABLES )
+      {
+         return null;
+      }
+      return names.toArray( new String[ names.size() ] );
+   }
+
+   /**
+    * Returns a copy of the terms, renumbered to a superset of the variables.
+    */
+   private MonomialTerms over( String[] variables )
+   {
+      if ( variables == _variables )
+      {
+         return new MonomialTerms( _terms );
+      }
+
+      int[] indices = new int[ _variables.length ];
+      for ( int v = 0; v < _variables.length; ++v )
+      {
+         indices[ v ] = Arrays.binarySearch( variables, _variables[ v ] );
+      }
+      return _terms.renumber( indices );
+   }
+
+   /**
+    * Drops the variables that no term uses.
+    *
+    * @return This polynomial, an equivalent one over fewer variables, or an
+    * equivalent Polynomial if at most one variable is used.
+    */
+   private AbstractNode normalize()
+   {
+      simplify();
+
+      int[] indices = new int[ _variables.length ];
+      ArrayList<String> used = new ArrayList<String>();
+      for ( int v = 0; v < _variables.length; ++v )
+      {
+         indices[ v ] = -1;
+         for ( int i = _terms.first(); i >= 0; i = _terms.next( i ) )
+         {
+            if ( MonomialTerms.exponent( _terms.monomial( i ), v ) > 0 )
+            {
+               indices[ v ] = used.size();
+               used.add( _variables[ v ] );
+               break;
+            }
+         }
+      }
+
+      if ( used.size() > 1 )
+      {
+         if ( used.size() == _variables.length )
+         {
+            return this;
+         }
+         return new MultiPolynomial( used.toArray( new String[ used.size() ] ),
+                  _terms.renumber( indices ) );
+      }
+
+      // At most one variable is left, so this is an ordinary polynomial
+      int variable = 0;
+      while ( variable < indices.length && indices[ variable ] < 0 )
+      {
+         ++variable;
+      }
+      PolynomialTerms terms = new PolynomialTerms();
+      for ( int i = _terms.first(); i >= 0; i = _terms.next( i ) )
+      {
+         int power = 0;
+         if ( variable < indices.length )
+         {
+            power = MonomialTerms.exponent( _terms.monomial( i ), variable );
+         }
+         terms.add( power, _terms.coefficient( i ) );
+      }
+      return new Polynomial( terms,
+               used.isEmpty() ? null : SymbolTable.symbol( used.get( 0 ) ) );
+   }
+
+   /*
+    * Calculus
+    */
+
+   /**
+    * Returns the sum of the partial derivatives, which is how trees that mix
+    * variables are derived.
+    */
+   public AbstractNode derive()
+   {
+      MonomialTerms derivative = new MonomialTerms( _terms.size() );
+      for ( int v = 0; v < _variables.length; ++v )
+      {
+         MonomialTerms partial = _terms.derive( v );
+         for ( int i = partial.first(); i >= 0; i = partial.next( i ) )
+         {
+            derivative.add( partial.monomial( i ), partial.coefficient( i ) );
+         }
+      }
+      return new MultiPolynomial( _variables, derivative ).normalize();
+   }
+
+   /**
+    * Returns the partial derivative with respect to one variable.
+    *
+    * @param variable The variable.
+    * @return The derivative, which may be a Polynomial.
+    */
+   public AbstractNode derive( String variable )
+   {
+      int index = Arrays.binarySearch( _variables, variable );
+      if ( index < 0 )
+      {
+         return new Polynomial( 0.0 );
+      }
+      return new MultiPolynomial( _variables, _terms.derive( index ) )
+               .normalize();
+   }
+
+   /**
+    * A polynomial in more than one variable has no single variable to
+    * integrate by; use {@link #integrate(String)}.
+    */
+   public AbstractNode integrate()
+   {
+      throw new UnsupportedOperationException( this.toString()
+               + " cannot be integrated without a variable" );
+   }
+
+   /**
+    * Returns the integral with respect to one variable, without a constant
+    * of integration.
+    *
+    * @param variable The variable.
+    * @return The integral.
+    */
+   public AbstractNode integrate( String variable )
+   {
+      String[] variables = union( _variables, new String[] { variable } );
+      MonomialTerms integral = null;
+      if ( variables != null )
+      {
+         integral = over( variables ).integrate(
+                  Arrays.binarySearch( variables, variable ) );
+      }
+      if ( integral == null )
+      {
+         throw new UnsupportedOperationException( this.toString()
+                  + " cannot be integrated" );
+      }
+      return new MultiPolynomial( variables, integral ).normalize();
+   }
+
+   /*
+    * Conversion
+    */
+
+   /**
+    * Returns an equivalent tree of single-variable polynomials, for code
+    * that only understands those.
+    */
+   AbstractNode expand()
+   {
+      AbstractNode sum = null;
+      for ( long monomial : _terms.sortedMonomials() )
+      {
+         double coefficient = _terms.get( monomial );
+         AbstractNode product = null;
+         for ( int v = 0; v < _variables.length; ++v )
+         {
+            int exponent = MonomialTerms.exponent( monomial, v );
+            if ( exponent > 0 )
+            {
+               PolynomialTerms factor = new PolynomialTerms();
+               factor.put( exponent, product == null ? coefficient : 1.0 );
+               Polynomial poly = new Polynomial( factor,
+                        SymbolTable.symbol( _variables[ v ] ) );
+               product = product == null ? poly
+                        : new BinaryOperatorNode.Multiplication( product,
+                                 poly );
+            }
+         }
+         if ( product == null )
+         {
+            product = new Polynomial( coefficient );
+         }
+         sum = sum == null ? product
+                  : new BinaryOperatorNode.Addition( sum, product );
+      }
+      return sum == null ? new Polynomial( 0.0 ) : sum;
+   }
+
+   /**
+    * Evaluates the polynomial with the given variable values.
+    */
+   public double evaluate( double[] slots )
+   {
+      int[] indices = _slots;
+      if ( indices == null )
+      {
+         indices = new int[ _variables.length ];
+         for ( int v = 0; v < indices.length; ++v )
+         {
+            indices[ v ] = SymbolTable.slot( _variables[ v ] );
+         }
+         _slots = indices;
+      }
+
+      double sum = 0.0;
+      for ( int i = _terms.first(); i >= 0; i = _terms.next( i ) )
+      {
+         long monomial = _terms.monomial( i );
+         double term = _terms.coefficient( i );
+         for ( int v = 0; v < indices.length; ++v )
+         {
+            int exponent = MonomialTerms.exponent( monomial, v );
+            if ( exponent > 0 )
+            {
+               term *= Program.power( slots[ indices[ v ] ], exponent );
+            }
+         }
+         sum += term;
+      }
+      return sum;
+   }
+
+   /**
+    * Gets a string representation of the polynomial, with the terms of
+    * highest degree first.
+    */
+   public String getStringValue()
+   {
+      if ( termCount() == 0 )
+      {
+         return "0";
+      }
+
+      ArrayList<String> strList = new ArrayList<String>();
+      for ( long monomial : _terms.sortedMonomials() )
+      {
+         double coefficient = _terms.get( monomial );
+         StringBuilder builder = new StringBuilder();
+         if ( coefficient != 1.0 || monomial == 0L )
+         {
+            builder.append( coefficient );
+         }
+         String separator = "";
+         for ( int v = 0; v < _variables.length; ++v )
+         {
+            int exponent = MonomialTerms.exponent( monomial, v );
+            if ( exponent > 0 )
+            {
+               builder.append( separator ).append( _variables[ v ] );
+               if ( exponent != 1 )
+               {
+                  builder.append( "^" + ( double ) exponent );
+               }
+               separator = " * ";
+            }
+         }
+         strList.add( builder.toString() );
+      }
+      return Polynomial.join( strList, " + " );
+   }
+
+   /**
+    * Gets a string representation designed to fit into the tree.
+    */
+   public String toString()
+   {
+      return this.getStringValue();
+   }
+
+   /*
+    * Accessors
+    */
+
+   /**
+    * Returns the variables in alphabetical order.
+    */
+   public String[] getVariables()
+   {
+      return _variables.clone();
+   }
+
+   /**
+    * Returns the number of terms in this polynomial.
+    */
+   public int termCount()
+   {
+      return _terms.size();
+   }
+
+   /**
+    * Gets the terms of this polynomial.
+    *
+    * @return the terms, which are not copied
+    */
+   MonomialTerms getTerms()
+   {
+      return _terms;
+   }
+
+   /**
+    * Determines whether or not the polynomial has a value.
+    */
+   public boolean hasValue()
+   {
+      return termCount() == 1 && _terms.contains( 0L );
+   }
+
+   /**
+    * Returns the polynomial's value if any.
+    */
+   public double getValue()
+   {
+      return hasValue() ? _terms.get( 0L ) : 0.0;
+   }
+
+   /**
+    * Returns the additive inverse.
+    */
+   public AbstractNode inverse()
+   {
+      MonomialTerms terms = new MonomialTerms( _terms );
+      terms.scale( -1.0 );
+      return new MultiPolynomial( _variables, terms );
+   }
+
+   /**
+    * Simplifies a polynomial.
+    */
+   public void simplify()
+   {
+      int size = _terms.size();
+      _terms.removeZeros();
+      if ( _terms.size() != size )
+      {
+         changed();
+      }
+   }
+
+   /**
+    * Clones a MultiPolynomial object.
+    *
+    * @return A clone of this object.
+    */
+   public Object clone() throws CloneNotSupportedException
+   {
+      MultiPolynomial clone = ( MultiPolynomial ) super.clone();
+
+      // The variables are never changed, so only the terms are copied
+      clone._terms = new MonomialTerms( _terms );
+      return clone;
+   }
+
+   /**
+    * Indicates whether some other object is "equal to" this polynomial.
+    */
+   public boolean equals( Object obj )
+   {
+      if ( ! ( obj instanceof MultiPolynomial ) )
+      {
+         return false;
+      }
+      MultiPolynomial poly = ( MultiPolynomial ) obj;
+      return Arrays.equals( _variables, poly._variables )
+               && _terms.equals( poly._terms );
+   }
+
+   /**
+    * Returns a hash code value for the polynomial.
+    */
+   protected int structuralHash()
+   {
+      return 31 * Arrays.hashCode( _variables ) + _terms.hashCode();
+   }
+
+   /**
+    * Determines the precedence level of the node.
+    */
+   protected int precedence()
+   {
+      if ( this.hasValue() )
+      {
+         return 100;
+      }
+      else if ( this.termCount() == 1 )
+      {
+         return 15;
+      }
+      else
+      {
+         return 10;
+      }
+   }
+}
@@ -133,7 +133,9 @@ class NodeFactory
    }
    
    /**
-    * Creates any type of operator node.
+    * Creates any type of operator node.  Arithmetic on polynomials is
+    * carried out, giving a {@link Polynomial} or, if the operands mix
+    * variables, a {@link MultiPolynomial}.
     * 
     * @param op The operation being done.
     * @param left The left node.
@@ -150,6 +152,11 @@ class NodeFactory
          {
             return poly;
          }
+         AbstractNode multi = MultiPolynomial.create( binNode );
+         if ( multi != null )
+         {
+            return multi;
+         }
          else
          {
             return binNode;
@@ -182,4 +189,15 @@ class NodeFactory
    {
    	return new Polynomial( variable );
    }
+
+   /**
+    * Creates a variable node for an interned symbol.
+    * 
+    * @param variable The symbol of the variable to create.
+    * @return The variable node.
+    */
+   static AbstractNode createVariableNode( Symbol variable )
+   {
+      return new Polynomial( variable );
+   }
 }
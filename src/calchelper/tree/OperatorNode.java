@@ -113,7 +113,7 @@ abstract class OperatorNode extends AbstractNode implements Cloneable
       {
          if ( _children.get( x ).hasValue() )
          {
-            _children.set( x, NodeFactory.createConstantNode( 
+            setChild( x, NodeFactory.createConstantNode( 
             			_children.get( x ).getValue() ) );
          }
          else
@@ -121,7 +121,7 @@ abstract class OperatorNode extends AbstractNode implements Cloneable
             Polynomial poly = Polynomial.createPolynomial( _children.get( x ) );
             if ( poly != null )
             {
-               _children.set( x, poly );
+               setChild( x, poly );
             }
             else
             {
@@ -181,6 +181,36 @@ abstract class OperatorNode extends AbstractNode implements Cloneable
    	return true;
    }
    
+   /**
+    * Returns a hash code computed from the operands compared by equals().
+    * Like equals(), it ignores the type of operator.  Each operand records
+    * that this node depends on it, so that changing it clears the hash code
+    * cached here.
+    */
+   protected int structuralHash()
+   {
+      int hash = nodeCount();
+      for ( int x = 0; x < this.nodeCount(); ++x )
+      {
+         AbstractNode child = _children.get( x );
+         child.addDependent( this );
+         hash = 31 * hash + child.hashCode();
+      }
+      return hash;
+   }
+
+   /**
+    * Replaces an operand.
+    * 
+    * @param index The index of the operand.
+    * @param node The new operand.
+    */
+   protected void setChild( int index, AbstractNode node )
+   {
+      _children.set( index, node ).removeDependent( this );
+      changed();
+   }
+   
    /**
     * Clones the object.
     * 
@@ -0,0 +1,337 @@
+/*
+ * Parser.java
+ *
+ * This file is part of CalcHelper.
+ *
+ * CalcHelper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CalcHelper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CalcHelper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package calchelper.tree;
+
+/**
+ * Parses infix expressions by precedence climbing.  Each call to
+ * {@link #parse} uses its own parser, so parsing keeps no shared state and
+ * any number of threads may parse at once.
+ *
+ * The grammar is that of the original shunting-yard TreeFactory, and the
+ * trees built are the same:
+ * <ul>
+ * <li>"+" and "-" bind loosest, then "*" and "/", then "^"; all of them,
+ * "^" included, group to the left.  There is no "%" operator.</li>
+ * <li>A letter written right after a number or letter multiplies it, and
+ * binds tighter than any operator but "^", so "2x^2" is 2 * ( x^2 ) and
+ * "x^2y" is x^( 2 * y ).</li>
+ * <li>A LaTeX function such as "\sin^2{ x }" takes as its coefficient the
+ * number or letter written right before it, or the left operand of a "*"
+ * right before it, or else 1.</li>
+ * </ul>
+ *
+ * @author Patrick MacArthur
+ */
+final class Parser
+{
+   // Operator codes, which index the tables below
+   private static final int NONE = -1;
+   private static final int ADD = 0;
+   private static final int SUBTRACT = 1;
+   private static final int MULTIPLY = 2;
+   private static final int DIVIDE = 3;
+   private static final int POWER = 4;
+
+   private static final int[] PRECEDENCE = { 1, 1, 2, 2, 3 };
+   private static final String[] SYMBOLS = { "+", "-", "*", "/", "^" };
+
+   private static final String TOO_MANY_OPERANDS =
+      "Invalid expression; too many operands or too few operators.";
+
+   private final CharSequence _infix;
+   private final Lexer _lexer;
+   private int _token;
+
+   /**
+    * Creates a parser for part of an expression.
+    */
+   private Parser( CharSequence infix, int from, int to )
+   {
+      _infix = infix;
+      _lexer = new Lexer( infix, from, to );
+      _token = _lexer.next();
+   }
+
+   /**
+    * Parses an infix expression.
+    *
+    * @param infix The expression.
+    * @return The root of its tree.
+    * @throws ExpressionException if the expression is invalid, giving the
+    * line and column of the error.
+    */
+   static AbstractNode parse( CharSequence infix ) throws ExpressionException
+   {
+      return parse( infix, 0, infix.length() );
+   }
+
+   /**
+    * Parses part of an infix expression as a whole expression.
+    */
+   private static AbstractNode parse( CharSequence infix, int from, int to )
+      throws ExpressionException
+   {
+      Parser parser = new Parser( infix, from, to );
+      AbstractNode root = parser.parseExpression( 0 );
+      if ( parser._token != Lexer.END )
+      {
+         if ( parser.isCloser() )
+         {
+            throw parser.error( "Missing operator." );
+         }
+         throw parser.error( TOO_MANY_OPERANDS );
+      }
+      return root;
+   }
+
+   /**
+    * Parses operands joined by operators that bind tighter than the given
+    * precedence.
+    *
+    * @param precedence The precedence of the operator to the left, or 0.
+    * @return The root of the parsed subtree.
+    */
+   private AbstractNode parseExpression( int precedence )
+      throws ExpressionException
+   {
+      AbstractNode left = parseOperand();
+      for ( int op = operator(); op != NONE && PRECEDENCE[ op ] > precedence;
+               op = operator() )
+      {
+         _token = _lexer.next();
+         if ( op == MULTIPLY && _token == Lexer.COMMAND )
+         {
+            // The function takes the left operand as its coefficient
+            left = parseCommand( left );
+         }
+         else
+         {
+            AbstractNode right = parseExpression( PRECEDENCE[ op ] );
+            left = NodeFactory.createNode( SYMBOLS[ op ], left, right );
+         }
+      }
+      return left;
+   }
+
+   /**
+    * Parses a number, letter, function or grouped subexpression, along with
+    * anything it implicitly multiplies.
+    */
+   private AbstractNode parseOperand() throws ExpressionException
+   {
+      AbstractNode operand;
+      switch ( _token )
+      {
+         case Lexer.NUMBER:
+            operand = NodeFactory.createConstantNode( _lexer.number() );
+            _token = _lexer.next();
+            return parseJuxtaposed( operand );
+         case Lexer.IDENTIFIER:
+            operand = NodeFactory.createVariableNode(
+                     SymbolTable.symbol( _lexer.character() ) );
+            _token = _lexer.next();
+            return parseJuxtaposed( operand );
+         case Lexer.COMMAND:
+            return parseCommand( NodeFactory.createConstantNode( 1.0 ) );
+         case Lexer.END:
+            throw error( TOO_MANY_OPERANDS );
+         default:
+            if ( isCloser() )
+            {
+               throw error( TOO_MANY_OPERANDS );
+            }
+            break;
+      }
+
+      char open = _lexer.character();
+      char close = open == '(' ? ')' : open == '{' ? '}' : open == '[' ? ']'
+               : 0;
+      if ( close == 0 )
+      {
+         throw error( "Not enough operands." );
+      }
+
+      int openPos = _lexer.start();
+      _token = _lexer.next();
+      operand = parseExpression( 0 );
+      if ( _token == Lexer.END || isCloser() && _lexer.character() != close )
+      {
+         throw error( "Unterminated " + open, openPos );
+      }
+      else if ( _token != Lexer.OPERATOR || _lexer.character() != close )
+      {
+         throw error( TOO_MANY_OPERANDS );
+      }
+      _token = _lexer.next();
+      return operand;
+   }
+
+   /**
+    * Parses what follows a number or letter with no operator between them:
+    * a letter, which multiplies it, or a function, which takes it as its
+    * coefficient.
+    */
+   private AbstractNode parseJuxtaposed( AbstractNode operand )
+      throws ExpressionException
+   {
+      if ( _token == Lexer.IDENTIFIER )
+      {
+         AbstractNode right = parseExpression( PRECEDENCE[ MULTIPLY ] );
+         return NodeFactory.createNode( SYMBOLS[ MULTIPLY ], operand, right );
+      }
+      else if ( _token == Lexer.COMMAND )
+      {
+         return parseCommand( operand );
+      }
+      return operand;
+   }
+
+   /**
+    * Parses a LaTeX function, such as "\sin^2{ x }", whose name is the
+    * current token.  The power runs from the "^" to the "{" and the argument
+    * from the "{" to the first "}".
+    *
+    * @param coefficient The coefficient of the function.
+    * @return The function node.
+    */
+   private AbstractNode parseCommand( AbstractNode coefficient )
+      throws ExpressionException
+   {
+      String function = _lexer.text();
+      int commandPos = _lexer.start();
+      int from = _lexer.end();
+      int to = _lexer.limit();
+      int powPos = indexOf( '^', from, to );
+      int argPos = indexOf( '{', from, to );
+
+      if ( argPos == -1 )
+      {
+         if ( indexOf( '[', from, to ) != -1 )
+         {
+            throw new UnsupportedOperationException(
+                     "Root function is currently not supported." );
+         }
+         throw error( "Missing argument for \\" + function, commandPos );
+      }
+
+      int closePos = indexOf( '}', argPos, to );
+      if ( closePos == -1 )
+      {
+         throw error( "unterminated {", argPos );
+      }
+
+      AbstractNode argument = parse( _infix, argPos, closePos + 1 );
+      AbstractNode power;
+      if ( powPos >= 0 && powPos < argPos )
+      {
+         power = parse( _infix, powPos + 1, argPos );
+      }
+      else
+      {
+         power = NodeFactory.createConstantNode( 1.0 );
+      }
+
+      _lexer.resume( closePos + 1 );
+      _token = _lexer.next();
+      return NodeFactory.createTrigNode( function, coefficient, argument,
+               power );
+   }
+
+   /**
+    * Returns the code of the current token as a binary operator, or NONE.
+    *
+    * @throws ExpressionException if the token is an operator that trees
+    * cannot hold.
+    */
+   private int operator() throws ExpressionException
+   {
+      if ( _token != Lexer.OPERATOR )
+      {
+         return NONE;
+      }
+      switch ( _lexer.character() )
+      {
+         case '+': return ADD;
+         case '-': return SUBTRACT;
+         case '*': return MULTIPLY;
+         case '/': return DIVIDE;
+         case '%': throw error( "The % operator is not supported." );
+         case '^': return POWER;
+         default: return NONE;
+      }
+   }
+
+   /**
+    * Determines whether the current token closes a group.
+    */
+   private boolean isCloser()
+   {
+      if ( _token != Lexer.OPERATOR )
+      {
+         return false;
+      }
+      char ch = _lexer.character();
+      return ch == ')' || ch == '}' || ch == ']';
+   }
+
+   /**
+    * Returns the offset of the first occurrence of a character within part
+    * of the expression, or -1 if it does not occur there.
+    */
+   private int indexOf( char ch, int from, int to )
+   {
+      for ( int pos = from; pos < to; ++pos )
+      {
+         if ( _infix.charAt( pos ) == ch )
+         {
+            return pos;
+         }
+      }
+      return -1;
+   }
+
+   /**
+    * Returns an exception for an error at the current token.
+    */
+   private ExpressionException error( String message )
+   {
+      return error( message, _lexer.start() );
+   }
+
+   /**
+    * Returns an exception for an error at the given offset, giving its line
+    * and column.
+    */
+   private ExpressionException error( String message, int offset )
+   {
+      int line = 1;
+      int lineStart = 0;
+      for ( int i = 0; i < offset; ++i )
+      {
+         if ( _infix.charAt( i ) == '\n' )
+         {
+            ++line;
+            lineStart = i + 1;
+         }
+      }
+      return new ExpressionException( message, _infix.toString(), line,
+               offset - lineStart + 1 );
+   }
+}
@@ -20,10 +20,8 @@
 package calchelper.tree;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
-import java.util.Map.Entry;
 
 /**
  * Represents a polynomial part of an expression.
@@ -33,21 +31,22 @@ import java.util.Map.Entry;
 
 class Polynomial extends AbstractNode implements Cloneable
 {
-   /* This maps coefficients to powers.
+   /* This maps powers to coefficients.
     *
     * For example, the expression 2x^3 would be represented by the map {3:2}.
     */
-   private Map<Double, Double> _map;
+   private PolynomialTerms _terms;
    
-   // The variable that this polynomial is over
-   private String _variable;
+   // The variable that this polynomial is over; symbols are interned, so
+   // they are compared with ==
+   private Symbol _variable;
    
    /**
     * Generates an empty Polynomial.
     */
    protected Polynomial()
    {
-      setMap( new HashMap<Double, Double>() );
+      _terms = new PolynomialTerms();
       _variable = null;
    }
    
@@ -58,17 +57,29 @@ class Polynomial extends AbstractNode implements Cloneable
     */
    protected Polynomial( Polynomial poly )
    {
-      setMap( poly._map );
+      _terms = new PolynomialTerms( poly._terms );
       _variable = poly._variable;
    }
 
+   /**
+    * Builds a polynomial from a copy of the given terms.
+    * 
+    * @param terms The terms of the polynomial.
+    * @param variable The variable, or null if the polynomial is constant.
+    */
+   Polynomial( PolynomialTerms terms, Symbol variable )
+   {
+      _terms = new PolynomialTerms( terms );
+      _variable = variable;
+   }
+
    /**
     * Builds a polynomial from the given constant.
     */
    public Polynomial( double constant )
    {
-      setMap( new HashMap<Double, Double>() );
-      getMap().put( 0.0, constant );
+      _terms = new PolynomialTerms();
+      _terms.put( 0.0, constant );
    }
    
    /**
@@ -76,8 +87,16 @@ class Polynomial extends AbstractNode implements Cloneable
     */
    public Polynomial( String variable )
    {
-      setMap( new HashMap<Double, Double>() );
-      getMap().put( 1.0, 1.0 );
+      this( SymbolTable.symbol( variable ) );
+   }
+
+   /**
+    * Builds a polynomial from the given variable.
+    */
+   Polynomial( Symbol variable )
+   {
+      _terms = new PolynomialTerms();
+      _terms.put( 1.0, 1.0 );
       _variable = variable;
    }
    
@@ -94,29 +113,35 @@ class Polynomial extends AbstractNode implements Cloneable
          if ( node.hasValue() )
          {
             // Base case 1
-            poly.getMap().put( 0.0, node.getValue() );
+            poly._terms.put( 0.0, node.getValue() );
          }
          else if ( node.isSimpleVariable() )
          {
             // Base case 2
-            poly.getMap().put( 1.0, 1.0 );
-            poly._variable = node.toString();
+            poly._terms.put( 1.0, 1.0 );
+            poly._variable = SymbolTable.symbol( node.toString() );
          }
          else if ( node instanceof BinaryOperatorNode )
          {
             BinaryOperatorNode binNode = ( BinaryOperatorNode ) node;
             
-            if ( node instanceof BinaryOperatorNode.Addition )
+            if ( node instanceof BinaryOperatorNode.Addition
+                     || node instanceof BinaryOperatorNode.Subtraction )
             {
-               for ( int x = 0; x < binNode.nodeCount(); ++x )
+               Polynomial left = createPolynomial( binNode.getLeft() );
+               Polynomial right = createPolynomial( binNode.getRight() );
+
+               // Give up if they're not both valid or the variables don't
+               // match
+               if ( left == null || right == null
+                        || ! left.isSameVariable( right ) )
                {
-                  poly.merge( createPolynomial( binNode.getNode( x ) ), 1 );
+                  return null;
                }
-            }
-            else if ( node instanceof BinaryOperatorNode.Subtraction )
-            {
-               poly.merge( createPolynomial( binNode.getLeft() ), 1 );
-               poly.merge( createPolynomial( binNode.getRight() ), -1 );
+
+               poly.merge( left, 1 );
+               poly.merge( right,
+                        node instanceof BinaryOperatorNode.Addition ? 1 : -1 );
             }
             else if ( node instanceof BinaryOperatorNode.Multiplication )
             {
@@ -128,17 +153,10 @@ class Polynomial extends AbstractNode implements Cloneable
                if ( left != null && right != null 
                         && left.isSameVariable( right ) )
                {
-                  poly._variable = left.getVariable();
-                  if ( poly._variable == null ) poly._variable = right.getVariable();
-                  for ( Map.Entry<Double, Double> entry : left.getMap().entrySet() )
-                  {
-                     for ( Map.Entry<Double, Double> other : 
-                              right.getMap().entrySet() )
-                     {
-                        poly.merge( entry.getKey() + other.getKey(), 
-                                 entry.getValue() * other.getValue() );
-                     }
-                  }
+                  poly._variable = left._variable;
+                  if ( poly._variable == null ) poly._variable = right._variable;
+                  poly._terms = PolynomialTerms.multiply( left._terms,
+                           right._terms );
                }
                else
                {
@@ -156,16 +174,16 @@ class Polynomial extends AbstractNode implements Cloneable
                         left.isSameVariable( right ) && 
                         right.termCount() == 1 )
                {
-                  poly._variable = left.getVariable();
-                  if ( poly._variable == null ) poly._variable = right.getVariable();
-                  for ( Map.Entry<Double, Double> entry : left.getMap().entrySet() )
+                  poly._variable = left._variable;
+                  if ( poly._variable == null ) poly._variable = right._variable;
+                  int term = right._terms.first();
+                  double divisorPower = right._terms.power( term );
+                  double divisor = right._terms.coefficient( term );
+                  for ( int i = left._terms.first(); i >= 0;
+                           i = left._terms.next( i ) )
                   {
-                     for ( Map.Entry<Double, Double> other :
-                              right.getMap().entrySet() )
-                     {
-                        poly.merge( entry.getKey() - other.getKey(), 
-                                 entry.getValue() / other.getValue() );
-                     }
+                     poly.merge( left._terms.power( i ) - divisorPower,
+                              left._terms.coefficient( i ) / divisor );
                   }
                }
                else
@@ -176,18 +194,37 @@ class Polynomial extends AbstractNode implements Cloneable
             else if ( node instanceof BinaryOperatorNode.Power )
             {
                Polynomial left = createPolynomial( binNode.getLeft() );
-               poly._variable = left.getVariable();
                               
                // Give up if they're not both valid or the variables don't
                // match.  Also, right side must be a constant.
                if ( left != null && binNode.getRight().hasValue() )
                {
                   double right = binNode.getRight().getValue();
+                  poly._variable = left._variable;
                   
-                  for ( Map.Entry<Double, Double> entry : left.getMap().entrySet() )
+                  if ( left.termCount() > 1 )
                   {
-                      poly.merge( entry.getKey() * right,
-                             Math.pow( entry.getValue(), right ) );
+                     // Only whole powers of a sum can be multiplied out
+                     if ( right < 0 || right != Math.rint( right )
+                              || right > Integer.MAX_VALUE )
+                     {
+                        return null;
+                     }
+                     poly._terms = PolynomialTerms.power( left._terms,
+                              ( int ) right );
+                     if ( poly._terms == null )
+                     {
+                        return null;
+                     }
+                  }
+                  else
+                  {
+                     for ( int i = left._terms.first(); i >= 0;
+                              i = left._terms.next( i ) )
+                     {
+                         poly.merge( left._terms.power( i ) * right,
+                                Math.pow( left._terms.coefficient( i ), right ) );
+                     }
                   }
                }
                else
@@ -205,7 +242,9 @@ class Polynomial extends AbstractNode implements Cloneable
             return null;
          }
          
-         poly.simplify();
+         // Nothing can have hashed the new polynomial, so this need not
+         // be recorded as a change
+         poly._terms.removeZeros();
          return poly;
       }
    }
@@ -219,9 +258,8 @@ class Polynomial extends AbstractNode implements Cloneable
    {
       Polynomial clone = ( Polynomial ) super.clone();
 
-      // Copy map
-      clone.setMap( new HashMap<Double, Double>() );
-      clone.getMap().putAll( getMap() );
+      // Copy terms
+      clone._terms = new PolynomialTerms( _terms );
       
       // Variable name is fine since String is immutable
       // boolean is a primitive type so it's fine
@@ -229,34 +267,27 @@ class Polynomial extends AbstractNode implements Cloneable
    }
    
    /**
-    * Merges specified term into the existing polynomial.
+    * Merges specified term into the existing polynomial, adding its
+    * coefficient to that of any existing term of the same power.
     * 
     * @param power The power of the term to merge into the polynomial.
     * @param newCoefficient The coefficient of the term to merge into the polynomial.
-    * @param variable The variable of the term to merge into the coefficient.
     */
    private void merge( double power, double newCoefficient )
    {
-      //FIXME: Documentation comment is wrong
-      if ( getMap().containsKey( power ) )
-      {
-         getMap().put( power, getCoefficient( power ) + newCoefficient );
-      }
-      else
-      {
-         getMap().put( power, newCoefficient );
-      }
+      _terms.add( power, newCoefficient );
    }
    
    /**
     * Gets the coefficient for the specified power.
     * 
     * @param power The power to find the coefficient for.
-    * @return The power for the specified coefficient.
+    * @return The coefficient for the specified power, or 0 if there is no
+    * term of that power.
     */
    public double getCoefficient( double power )
    {
-      return getMap().get( power );
+      return _terms.get( power );
    }
    
    /**
@@ -270,17 +301,18 @@ class Polynomial extends AbstractNode implements Cloneable
     */
    private void merge( Polynomial poly, double constant )
    {
-      if ( this.getVariable() == null )
-      {
-         this._variable = poly.getVariable();
-      }
       // TODO: Add error-checking
       
       if ( poly != null )
       {
-         for ( Map.Entry<Double, Double> entry : poly.getMap().entrySet() )
+         if ( this._variable == null )
          {
-            merge( entry.getKey(), entry.getValue() * constant );
+            this._variable = poly._variable;
+         }
+
+         for ( int i = poly._terms.first(); i >= 0; i = poly._terms.next( i ) )
+         {
+            merge( poly._terms.power( i ), poly._terms.coefficient( i ) * constant );
          }
       }
    }
@@ -307,6 +339,18 @@ class Polynomial extends AbstractNode implements Cloneable
       return buffer.toString();
    }
    
+   /**
+    * Evaluates the polynomial with the given variable values.
+    */
+   public double evaluate( double[] slots )
+   {
+      if ( _variable == null )
+      {
+         return _terms.evaluate( 0.0 );
+      }
+      return _terms.evaluate( slots[ _variable.getId() ] );
+   }
+
    /**
     * Gets a string representation of the polynomial.
     */
@@ -317,24 +361,27 @@ class Polynomial extends AbstractNode implements Cloneable
             return "0";
          }
          
+         // Highest power first
          ArrayList<String> strList = new ArrayList<String>();
-         for ( Map.Entry<Double, Double> entry : getMap().entrySet() )
+         for ( int i = _terms.last(); i >= 0; i = _terms.previous( i ) )
          {
-            if ( entry.getKey() == 0.0 )
+            double power = _terms.power( i );
+            double coefficient = _terms.coefficient( i );
+            if ( power == 0.0 )
             {
-               strList.add( String.valueOf( entry.getValue() ) );
+               strList.add( String.valueOf( coefficient ) );
             }
             else
             {
                StringBuilder builder = new StringBuilder();
-               if ( entry.getValue() != 1.0 )
+               if ( coefficient != 1.0 )
                {
-                  builder.append( entry.getValue() );
+                  builder.append( coefficient );
                }
                builder.append( getVariable() );
-               if ( entry.getKey() != 1.0 )
+               if ( power != 1.0 )
                {
-                  builder.append( "^" + entry.getKey() );
+                  builder.append( "^" + power );
                }
                strList.add( builder.toString() );
             }
@@ -360,24 +407,17 @@ class Polynomial extends AbstractNode implements Cloneable
       Polynomial integral = new Polynomial();
       integral._variable = _variable;
       
+      // Integrate each term other than x^-1
+      integral._terms = _terms.integrate();
+
       // Test to see if the polynomial has a x^-1
-      if( _map.containsKey( -1.0 ) )
+      if( _terms.contains( -1.0 ) )
       {
          // Make a natural log function
-         AbstractNode natural = NodeFactory.createNode( "ln", new Polynomial( getMap().get( -1.0 )),
+         AbstractNode natural = NodeFactory.createNode( "ln",
+                  new Polynomial( _terms.get( -1.0 ) ),
                   new Polynomial( _variable ) );
          
-         // Remove the entry with the key of -1
-         _map.remove( -1d );
-         
-         // For each entry in the map integrate that piece
-         for ( Map.Entry<Double, Double> entry : getMap().entrySet() )
-         {
-            // Put a new entry in (this represents each monomial being integrated)
-            integral.getMap().put( entry.getKey() + 1d, entry.getValue()
-                     * ( 1d / ( entry.getKey() + 1 ) ) );
-         }
-         
          //Make addition node and add its children
          AbstractNode plus = NodeFactory.createNode( "+", integral, natural );
 
@@ -386,14 +426,6 @@ class Polynomial extends AbstractNode implements Cloneable
       }
       else
       {
-         // For each entry in the map integrate that piece
-         for ( Map.Entry<Double, Double> entry : getMap().entrySet() )
-         {
-            // Put a new entry in (this represents each monomial being integrated)
-            integral.getMap().put( entry.getKey() + 1d, entry.getValue()
-                  * ( 1d / ( entry.getKey() + 1 ) ) );
-         }
-      
          return integral;
       }
    }
@@ -409,18 +441,8 @@ class Polynomial extends AbstractNode implements Cloneable
       Polynomial derivative = new Polynomial();
       derivative._variable = _variable;
       
-      // For each entry in the copy
-      for ( Map.Entry<Double, Double> entry : getMap().entrySet() )
-      {
-         if ( entry.getKey() != 0 )
-         {
-            // Put a new entry in (this represents each monomial being
-            // integrated)
-            double exp = entry.getKey();
-            double co = entry.getValue();
-            derivative.getMap().put( exp - 1d, co * exp );
-         }
-      }
+      // Derive each term
+      derivative._terms = _terms.derive();
       
       return derivative;
    }
@@ -434,11 +456,11 @@ class Polynomial extends AbstractNode implements Cloneable
    {
       if ( obj instanceof Polynomial )
       {
-         Polynomial poly = createPolynomial( ( AbstractNode ) obj );
+         Polynomial poly = ( Polynomial ) obj;
          
          if ( isSameVariable( poly ) )
          {
-            return getMap().equals( poly.getMap() );
+            return _terms.equals( poly._terms );
          }
       }
       
@@ -454,27 +476,11 @@ class Polynomial extends AbstractNode implements Cloneable
    {
       if ( obj instanceof Polynomial )
       {
-         Polynomial poly = createPolynomial( ( AbstractNode ) obj );
+         Polynomial poly = ( Polynomial ) obj;
          
          if ( isSameVariable( poly ) )
          {
-            for ( Entry<Double, Double> entry : getMap().entrySet() )
-            {
-               if ( ! poly.getMap().containsKey( entry.getKey() ) )
-               {
-                  return false;
-               }
-            }
-            
-            for ( Entry<Double, Double> entry : poly.getMap().entrySet() )
-            {
-               if ( ! getMap().containsKey( entry.getKey() ) )
-               {
-                  return false;
-               }
-            }
-            
-            return true;
+            return _terms.samePowers( poly._terms );
          }
       }
       
@@ -487,20 +493,21 @@ class Polynomial extends AbstractNode implements Cloneable
     * The hash code of all invalid polynomials is 0, which ensures that two
     * invalid polynomials will have the same hash code. For all valid
     * polynomials, the hash code is determined by multiplying the hash codes of
-    * the polynomial map and the variable name.
+    * the polynomial map and the variable name.  Constants equal each other
+    * whatever their variable, so theirs leaves the variable out.
     * 
     * @return a hash code value for this object
     */
-   public int hashCode()
+   protected int structuralHash()
    {
          // Very crude way of determining the hashCode
-         if ( _variable != null )
+         if ( _variable != null && ! hasValue() )
          {
-            return getMap().hashCode() * _variable.hashCode();
+            return _terms.hashCode() * _variable.hashCode();
          }
          else
          {
-            return getMap().hashCode();
+            return _terms.hashCode();
          }
    }
 
@@ -510,6 +517,16 @@ class Polynomial extends AbstractNode implements Cloneable
     * @return the variable that this polynomial is over
     */
    public String getVariable()
+   {
+      return _variable == null ? null : _variable.getName();
+   }
+
+   /**
+    * Gets the interned symbol of the variable for this polynomial.
+    * 
+    * @return the symbol, or null if the polynomial is constant
+    */
+   Symbol getSymbol()
    {
       return _variable;
    }
@@ -519,7 +536,7 @@ class Polynomial extends AbstractNode implements Cloneable
     */
    public int termCount()
    {
-      return getMap().size();
+      return _terms.size();
    }
    
    /**
@@ -528,8 +545,8 @@ class Polynomial extends AbstractNode implements Cloneable
     */
    public boolean isSameVariable( Polynomial other )
    {
-      return this.getVariable() == null || other.getVariable() == null ||
-             this.getVariable().equals( other.getVariable() );
+      return this._variable == null || other._variable == null ||
+             this._variable == other._variable;
    }
    
    /**
@@ -543,7 +560,7 @@ class Polynomial extends AbstractNode implements Cloneable
       }
       else
       {
-         return getMap().containsKey( 0.0 );
+         return _terms.contains( 0.0 );
       }
    }
    
@@ -558,7 +575,7 @@ class Polynomial extends AbstractNode implements Cloneable
      }
      else
      {
-        return getMap().get( 0.0 );
+        return _terms.get( 0.0 );
      }
   }
   
@@ -568,9 +585,9 @@ class Polynomial extends AbstractNode implements Cloneable
    */
   public boolean isSimpleVariable()
   {
-     for ( Entry<Double, Double> entry : getMap().entrySet() )
+     for ( int i = _terms.first(); i >= 0; i = _terms.next( i ) )
      {
-        if ( entry.getKey() != 1.0 || entry.getValue() != 1.0 )
+        if ( _terms.power( i ) != 1.0 || _terms.coefficient( i ) != 1.0 )
         {
            return false;
         }
@@ -580,22 +597,24 @@ class Polynomial extends AbstractNode implements Cloneable
   }
 
    /**
-    * Sets the HashMap for this Polynomial.
-    * @param map the map to set
+    * Gets the terms of this Polynomial.
+    *
+    * @return the terms, which are not copied
     */
-   protected void setMap( Map<Double, Double> map )
+   PolynomialTerms getTerms()
    {
-      this._map = map;
+      return _terms;
    }
    
    /**
-    * Gets the Map for this Polynomial.
+    * Gets the terms of this Polynomial as a Map from power to coefficient.
+    * The map is a copy, so changing it does not change the polynomial.
     *  
     * @return the map
     */
    protected Map<Double, Double> getMap()
    {
-      return _map;
+      return _terms.toMap();
    }
    
    /**
@@ -604,10 +623,7 @@ class Polynomial extends AbstractNode implements Cloneable
    public AbstractNode inverse()
    {
       Polynomial copy = createPolynomial( this );
-      for ( Map.Entry<Double, Double> entry : copy.getMap().entrySet() )
-      {
-         entry.setValue( entry.getValue() * -1.0 );
-      }
+      copy._terms.scale( -1.0 );
       return copy;
    }
    
@@ -626,15 +642,12 @@ class Polynomial extends AbstractNode implements Cloneable
     */
    public void simplify()
    {
-      Map<Double, Double> copy = new HashMap<Double, Double>();
-      for ( Map.Entry<Double, Double> entry : this.getMap().entrySet() )
+      int size = _terms.size();
+      _terms.removeZeros();
+      if ( _terms.size() != size )
       {
-         if ( entry.getValue() != 0.0 )
-         {
-            copy.put( entry.getKey(), entry.getValue() );
-         }
+         changed();
       }
-      setMap( copy );
    }
 
    /**
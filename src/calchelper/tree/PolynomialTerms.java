@@ -0,0 +1,1039 @@
+/*
+ * PolynomialTerms.java
+ *
+ * This file is part of CalcHelper.
+ *
+ * CalcHelper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CalcHelper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CalcHelper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package calchelper.tree;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The terms of a {@link Polynomial}.  Nothing is boxed, and the terms are
+ * kept in one of two forms:
+ *
+ * Dense terms have small non-negative integer powers, and the coefficient of
+ * x^k is stored at index k, with a flag marking which powers are present.
+ * Most polynomials look like this, and products, derivatives and integrals
+ * of them are simple array loops.  Large dense products with integer
+ * coefficients are handed to {@link Convolution}.
+ *
+ * Sparse terms are parallel arrays of powers and coefficients sorted by
+ * increasing power, found by binary search.  These hold everything else.
+ *
+ * The form is chosen automatically.  Terms are visited through a cursor:
+ * <pre>
+ * for ( int i = terms.first(); i >= 0; i = terms.next( i ) )
+ * </pre>
+ * visits the terms in increasing order of power.
+ *
+ * Powers are compared with ==, so 0.0 and -0.0 are the same power.
+ *
+ * @author Patrick MacArthur
+ */
+final class PolynomialTerms
+{
+   // Dense terms may not have a power this large
+   static final int MAX_DENSE_LENGTH = 1 << 16;
+
+   // Whole numbers up to 2^53 are held exactly by a double
+   static final int EXACT_BITS = 53;
+
+   // Sparse powers, or null if the terms are dense
+   private double[] _powers;
+
+   // Sparse coefficients by index, or dense coefficients by power
+   private double[] _coefficients;
+
+   // Which dense powers are present, or null if the terms are sparse
+   private boolean[] _present;
+
+   private int _size;
+
+   // One more than the highest dense power present
+   private int _length;
+
+   /**
+    * Creates an empty set of terms.
+    */
+   PolynomialTerms()
+   {
+      _coefficients = new double[ 4 ];
+      _present = new boolean[ 4 ];
+   }
+
+   /**
+    * Creates a copy of the given terms.
+    *
+    * @param other The terms to copy.
+    */
+   PolynomialTerms( PolynomialTerms other )
+   {
+      int length = other.isDense() ? other._length : other._size;
+      _coefficients = Arrays.copyOf( other._coefficients, Math.max( 4, length ) );
+      if ( other.isDense() )
+      {
+         _present = Arrays.copyOf( other._present, Math.max( 4, length ) );
+      }
+      else
+      {
+         _powers = Arrays.copyOf( other._powers, Math.max( 4, length ) );
+      }
+      _size = other._size;
+      _length = other._length;
+   }
+
+   /**
+    * Creates sparse terms from sorted, duplicate-free arrays, which are used
+    * directly.
+    */
+   private PolynomialTerms( double[] powers, double[] coefficients, int size )
+   {
+      _powers = powers;
+      _coefficients = coefficients;
+      _size = size;
+   }
+
+   /**
+    * Creates dense terms from arrays indexed by power, which are used
+    * directly.
+    */
+   private PolynomialTerms( double[] coefficients, boolean[] present,
+                            int size, int length )
+   {
+      _coefficients = coefficients;
+      _present = present;
+      _size = size;
+      _length = length;
+   }
+
+   /**
+    * Returns the number of terms.
+    */
+   int size()
+   {
+      return _size;
+   }
+
+   /**
+    * Determines whether the terms are stored densely, by power.
+    */
+   boolean isDense()
+   {
+      return _present != null;
+   }
+
+   /**
+    * Returns the cursor of the term with the lowest power, or -1 if there
+    * are no terms.
+    */
+   int first()
+   {
+      return next( -1 );
+   }
+
+   /**
+    * Returns the cursor of the term after the given one, or -1 if it was
+    * the last.
+    */
+   int next( int cursor )
+   {
+      if ( ! isDense() )
+      {
+         return cursor + 1 < _size ? cursor + 1 : -1;
+      }
+      for ( int k = cursor + 1; k < _length; ++k )
+      {
+         if ( _present[ k ] )
+         {
+            return k;
+         }
+      }
+      return -1;
+   }
+
+   /**
+    * Returns the cursor of the term with the highest power, or -1 if there
+    * are no terms.
+    */
+   int last()
+   {
+      return previous( isDense() ? _length : _size );
+   }
+
+   /**
+    * Returns the cursor of the term before the given one, or -1 if it was
+    * the first.
+    */
+   int previous( int cursor )
+   {
+      if ( ! isDense() )
+      {
+         return cursor - 1;
+      }
+      for ( int k = cursor - 1; k >= 0; --k )
+      {
+         if ( _present[ k ] )
+         {
+            return k;
+         }
+      }
+      return -1;
+   }
+
+   /**
+    * Returns the power of the term at the given cursor.
+    */
+   double power( int cursor )
+   {
+      return isDense() ? cursor : _powers[ cursor ];
+   }
+
+   /**
+    * Returns the coefficient of the term at the given cursor.
+    */
+   double coefficient( int cursor )
+   {
+      return _coefficients[ cursor ];
+   }
+
+   /**
+    * Returns the coefficients of dense terms indexed by power, with zero
+    * for the powers that are not present.
+    *
+    * @return A new array one longer than the highest power.
+    */
+   double[] denseCoefficients()
+   {
+      return Arrays.copyOf( _coefficients, _length );
+   }
+
+   /**
+    * Returns the value of the terms at the given point.
+    */
+   double evaluate( double x )
+   {
+      if ( isDense() )
+      {
+         // Horner's rule
+         double sum = 0.0;
+         for ( int k = _length - 1; k >= 0; --k )
+         {
+            sum = sum * x + _coefficients[ k ];
+         }
+         return sum;
+      }
+
+      double sum = 0.0;
+      for ( int k = 0; k < _size; ++k )
+      {
+         sum += _coefficients[ k ] * Program.power( x, _powers[ k ] );
+      }
+      return sum;
+   }
+
+   /**
+    * Finds the cursor of the term with the specified power.
+    *
+    * @param power The power to find.
+    * @return The cursor of the term, or -1 if there is no such term.
+    */
+   private int find( double power )
+   {
+      if ( isDense() )
+      {
+         return fitsDense( power ) && power < _length
+                  && _present[ ( int ) power ] ? ( int ) power : -1;
+      }
+      int index = indexOf( power );
+      return index >= 0 ? index : -1;
+   }
+
+   /**
+    * Finds the index of the sparse term with the specified power.
+    *
+    * @param power The power to find.
+    * @return The index of the term, or (-(insertion point) - 1) if there is
+    * no such term.
+    */
+   private int indexOf( double power )
+   {
+      int low = 0;
+      int high = _size - 1;
+      while ( low <= high )
+      {
+         int mid = ( low + high ) >>> 1;
+         double midPower = _powers[ mid ];
+         if ( midPower < power )
+         {
+            low = mid + 1;
+         }
+         else if ( midPower > power )
+         {
+            high = mid - 1;
+         }
+         else
+         {
+            return mid;
+         }
+      }
+      return -( low + 1 );
+   }
+
+   /**
+    * Determines whether there is a term with the specified power.
+    */
+   boolean contains( double power )
+   {
+      return find( power ) >= 0;
+   }
+
+   /**
+    * Returns the coefficient of the specified power, or 0 if there is no
+    * such term.
+    */
+   double get( double power )
+   {
+      int cursor = find( power );
+      return cursor >= 0 ? _coefficients[ cursor ] : 0.0;
+   }
+
+   /**
+    * Sets the coefficient of the specified power, adding a term if needed.
+    */
+   void put( double power, double coefficient )
+   {
+      int cursor = locate( power );
+      _coefficients[ cursor ] = coefficient;
+   }
+
+   /**
+    * Adds to the coefficient of the specified power, adding a term if
+    * needed.
+    */
+   void add( double power, double coefficient )
+   {
+      int cursor = locate( power );
+      _coefficients[ cursor ] += coefficient;
+   }
+
+   /**
+    * Removes the term with the specified power, if any.
+    */
+   void remove( double power )
+   {
+      int cursor = find( power );
+      if ( cursor < 0 )
+      {
+         return;
+      }
+      if ( isDense() )
+      {
+         _present[ cursor ] = false;
+         _coefficients[ cursor ] = 0.0;
+         --_size;
+         if ( cursor == _length - 1 )
+         {
+            _length = last() + 1;
+         }
+      }
+      else
+      {
+         System.arraycopy( _powers, cursor + 1, _powers, cursor,
+                  _size - cursor - 1 );
+         System.arraycopy( _coefficients, cursor + 1, _coefficients, cursor,
+                  _size - cursor - 1 );
+         --_size;
+         pack();
+      }
+   }
+
+   /**
+    * Multiplies every coefficient by a constant.
+    */
+   void scale( double factor )
+   {
+      int length = isDense() ? _length : _size;
+      for ( int i = 0; i < length; ++i )
+      {
+         _coefficients[ i ] *= factor;
+      }
+   }
+
+   /**
+    * Removes the terms whose coefficient is zero.
+    *
+    * @return true if any terms were removed
+    */
+   boolean removeZeros()
+   {
+      int before = _size;
+      if ( isDense() )
+      {
+         for ( int k = 0; k < _length; ++k )
+         {
+            if ( _present[ k ] && _coefficients[ k ] == 0.0 )
+            {
+               _present[ k ] = false;
+               _coefficients[ k ] = 0.0;
+               --_size;
+            }
+         }
+         _length = last() + 1;
+      }
+      else
+      {
+         int kept = 0;
+         for ( int i = 0; i < _size; ++i )
+         {
+            if ( _coefficients[ i ] != 0.0 )
+            {
+               _powers[ kept ] = _powers[ i ];
+               _coefficients[ kept ] = _coefficients[ i ];
+               ++kept;
+            }
+         }
+         _size = kept;
+      }
+      pack();
+      return _size != before;
+   }
+
+   /**
+    * Returns the derivative of the terms.  Constant terms are dropped.
+    *
+    * @return The new terms.
+    */
+   PolynomialTerms derive()
+   {
+      if ( isDense() )
+      {
+         int length = Math.max( 0, _length - 1 );
+         double[] coefficients = new double[ Math.max( 4, length ) ];
+         boolean[] present = new boolean[ coefficients.length ];
+         int size = 0;
+         for ( int k = 1; k < _length; ++k )
+         {
+            if ( _present[ k ] )
+            {
+               coefficients[ k - 1 ] = _coefficients[ k ] * k;
+               present[ k - 1 ] = true;
+               ++size;
+            }
+         }
+         return new PolynomialTerms( coefficients, present, size, length );
+      }
+
+      PolynomialTerms derivative = new PolynomialTerms();
+      for ( int i = 0; i < _size; ++i )
+      {
+         double exp = _powers[ i ];
+         if ( exp != 0 )
+         {
+            derivative.put( exp - 1d, _coefficients[ i ] * exp );
+         }
+      }
+      return derivative;
+   }
+
+   /**
+    * Returns the integral of every term except the one with power -1, which
+    * the caller must handle.
+    *
+    * @return The new terms.
+    */
+   PolynomialTerms integrate()
+   {
+      if ( isDense() )
+      {
+         int length = _length == 0 ? 0 : _length + 1;
+         double[] coefficients = new double[ Math.max( 4, length ) ];
+         boolean[] present = new boolean[ coefficients.length ];
+         for ( int k = 0; k < _length; ++k )
+         {
+            if ( _present[ k ] )
+            {
+               coefficients[ k + 1 ] = _coefficients[ k ] * ( 1d / ( k + 1 ) );
+               present[ k + 1 ] = true;
+            }
+         }
+         PolynomialTerms integral = new PolynomialTerms( coefficients,
+                  present, _size, length );
+         integral.pack();
+         return integral;
+      }
+
+      PolynomialTerms integral = new PolynomialTerms();
+      for ( int i = 0; i < _size; ++i )
+      {
+         double power = _powers[ i ];
+         if ( power != -1.0 )
+         {
+            integral.put( power + 1d, _coefficients[ i ]
+                     * ( 1d / ( power + 1 ) ) );
+         }
+      }
+      return integral;
+   }
+
+   /**
+    * Multiplies two sets of terms.
+    *
+    * @param a The left factor.
+    * @param b The right factor.
+    * @return The product.
+    */
+   static PolynomialTerms multiply( PolynomialTerms a, PolynomialTerms b )
+   {
+      if ( a._size == 0 || b._size == 0 )
+      {
+         return new PolynomialTerms();
+      }
+      if ( a.isDense() && b.isDense()
+               && a._length + b._length - 1 <= MAX_DENSE_LENGTH )
+      {
+         return multiplyDense( a, b );
+      }
+
+      double[] aPowers = a.powerArray();
+      double[] bPowers = b.powerArray();
+      double[] aCoefficients = a.coefficientArray();
+      double[] bCoefficients = b.coefficientArray();
+
+      // Find the distinct powers of the product...
+      int count = a._size * b._size;
+      double[] sums = new double[ count ];
+      int k = 0;
+      for ( int i = 0; i < a._size; ++i )
+      {
+         for ( int j = 0; j < b._size; ++j )
+         {
+            sums[ k++ ] = normalize( aPowers[ i ] + bPowers[ j ] );
+         }
+      }
+      Arrays.sort( sums );
+      int distinct = 0;
+      for ( int i = 0; i < count; ++i )
+      {
+         if ( distinct == 0 || sums[ i ] != sums[ distinct - 1 ] )
+         {
+            sums[ distinct++ ] = sums[ i ];
+         }
+      }
+
+      // ...then accumulate the coefficients into them
+      PolynomialTerms product = new PolynomialTerms( sums,
+               new double[ count ], distinct );
+      for ( int i = 0; i < a._size; ++i )
+      {
+         for ( int j = 0; j < b._size; ++j )
+         {
+            int index = product.indexOf( aPowers[ i ] + bPowers[ j ] );
+            product._coefficients[ index ] +=
+               aCoefficients[ i ] * bCoefficients[ j ];
+         }
+      }
+      product.pack();
+      return product;
+   }
+
+   /**
+    * Raises terms to a whole power by repeated squaring, so that
+    * ( x + 1 )^64 takes six multiplications rather than 63.
+    *
+    * @param base The terms to raise.
+    * @param exponent The power, which must not be negative.
+    * @return The expanded power, or null if it could have more than
+    * MAX_DENSE_LENGTH terms or coefficients too large to hold exactly.
+    */
+   static PolynomialTerms power( PolynomialTerms base, int exponent )
+   {
+      if ( exponent == 0 )
+      {
+         PolynomialTerms one = new PolynomialTerms();
+         one.put( 0.0, 1.0 );
+         return one;
+      }
+      if ( expandedSize( base, exponent ) > MAX_DENSE_LENGTH
+               || coefficientBits( base, exponent ) > EXACT_BITS )
+      {
+         return null;
+      }
+
+      // Multiply in the squares of base for the set bits of the exponent
+      PolynomialTerms result = null;
+      PolynomialTerms square = base;
+      while ( true )
+      {
+         if ( ( exponent & 1 ) != 0 )
+         {
+            result = result == null ? square : multiply( result, square );
+         }
+         exponent >>>= 1;
+         if ( exponent == 0 )
+         {
+            break;
+         }
+         square = multiply( square, square );
+      }
+      return result == base ? new PolynomialTerms( base ) : result;
+   }
+
+   /**
+    * Returns an upper bound on the number of terms of base^exponent.
+    */
+   private static long expandedSize( PolynomialTerms base, int exponent )
+   {
+      if ( base._size <= 1 )
+      {
+         return base._size;
+      }
+
+      // Dense powers can't go past exponent times the highest power...
+      long bound = Long.MAX_VALUE;
+      if ( base.isDense() )
+      {
+         bound = ( long ) ( base._length - 1 ) * exponent + 1;
+      }
+
+      // ...and there are only C( exponent + size - 1, size - 1 ) ways to
+      // pick the factors of each term
+      long ways = 1;
+      for ( int k = 1; k < base._size && ways <= MAX_DENSE_LENGTH; ++k )
+      {
+         ways = ways * ( exponent + k ) / k;
+      }
+      return Math.min( bound, ways );
+   }
+
+   /**
+    * Returns an upper bound on the bits in the largest coefficient of
+    * base^exponent.  No coefficient can be larger than the sum of the sizes
+    * of the coefficients of base, raised to the exponent; past 2^53 the
+    * coefficients are no longer exact, and soon after they overflow.
+    */
+   private static double coefficientBits( PolynomialTerms base, int exponent )
+   {
+      double sum = 0.0;
+      for ( int i = base.first(); i >= 0; i = base.next( i ) )
+      {
+         sum += Math.abs( base.coefficient( i ) );
+      }
+      return coefficientBits( sum, exponent );
+   }
+
+   /**
+    * Returns an upper bound on the bits in the largest coefficient of a
+    * power of any polynomial whose coefficients have the given sum of sizes.
+    *
+    * @param sum The sum of the absolute values of the coefficients.
+    * @param exponent The power.
+    * @return The bound, which is compared with EXACT_BITS.
+    */
+   static double coefficientBits( double sum, double exponent )
+   {
+      return exponent * ( Math.log( sum ) / Math.log( 2.0 ) );
+   }
+
+   /**
+    * Multiplies two sets of dense terms.
+    */
+   private static PolynomialTerms multiplyDense( PolynomialTerms a,
+                                                 PolynomialTerms b )
+   {
+      if ( Math.min( a._length, b._length ) >= Convolution.KARATSUBA_THRESHOLD )
+      {
+         PolynomialTerms product = multiplyExact( a, b );
+         if ( product != null )
+         {
+            return product;
+         }
+      }
+
+      int length = a._length + b._length - 1;
+      double[] coefficients = new double[ Math.max( 4, length ) ];
+      boolean[] present = new boolean[ coefficients.length ];
+      for ( int i = 0; i < a._length; ++i )
+      {
+         if ( ! a._present[ i ] )
+         {
+            continue;
+         }
+         double c = a._coefficients[ i ];
+         for ( int j = 0; j < b._length; ++j )
+         {
+            if ( b._present[ j ] )
+            {
+               coefficients[ i + j ] += c * b._coefficients[ j ];
+               present[ i + j ] = true;
+            }
+         }
+      }
+
+      int size = 0;
+      for ( int k = 0; k < length; ++k )
+      {
+         if ( present[ k ] )
+         {
+            ++size;
+         }
+      }
+      PolynomialTerms product = new PolynomialTerms( coefficients, present,
+               size, length );
+      product.pack();
+      return product;
+   }
+
+   /**
+    * Multiplies two sets of dense terms with integer coefficients by a
+    * subquadratic method, which gives the same result as the schoolbook
+    * method as long as the product is exact.
+    *
+    * @return The product, or null if it would not be exact.
+    */
+   private static PolynomialTerms multiplyExact( PolynomialTerms a,
+                                                 PolynomialTerms b )
+   {
+      long[] aCoefficients = a.integerCoefficients();
+      long[] bCoefficients = b.integerCoefficients();
+      if ( aCoefficients == null || bCoefficients == null
+               || ! Convolution.isExact( aCoefficients, bCoefficients ) )
+      {
+         return null;
+      }
+      long[] product = Convolution.multiply( aCoefficients, bCoefficients );
+
+      // A power is present if any pair of present powers adds up to it
+      int length = product.length;
+      boolean[] present = new boolean[ Math.max( 4, length ) ];
+      if ( a._size == a._length && b._size == b._length )
+      {
+         Arrays.fill( present, 0, length, true );
+      }
+      else
+      {
+         long[] counts = Convolution.multiply( a.presence(), b.presence() );
+         for ( int k = 0; k < length; ++k )
+         {
+            present[ k ] = counts[ k ] != 0;
+         }
+      }
+
+      double[] coefficients = new double[ present.length ];
+      int size = 0;
+      for ( int k = 0; k < length; ++k )
+      {
+         coefficients[ k ] = product[ k ];
+         if ( present[ k ] )
+         {
+            ++size;
+         }
+      }
+      PolynomialTerms terms = new PolynomialTerms( coefficients, present,
+               size, length );
+      terms.pack();
+      return terms;
+   }
+
+   /**
+    * Returns the dense coefficients as integers, or null if any of them is
+    * not an integer.
+    */
+   private long[] integerCoefficients()
+   {
+      long[] integers = new long[ _length ];
+      for ( int k = 0; k < _length; ++k )
+      {
+         double c = _coefficients[ k ];
+         if ( c != Math.rint( c ) || Math.abs( c ) >= Convolution.MAX_EXACT )
+         {
+            return null;
+         }
+         integers[ k ] = ( long ) c;
+      }
+      return integers;
+   }
+
+   /**
+    * Returns 1 for each dense power present and 0 for the others.
+    */
+   private long[] presence()
+   {
+      long[] presence = new long[ _length ];
+      for ( int k = 0; k < _length; ++k )
+      {
+         presence[ k ] = _present[ k ] ? 1 : 0;
+      }
+      return presence;
+   }
+
+   /**
+    * Returns the terms as a map from power to coefficient.
+    *
+    * @return A new map holding the terms.
+    */
+   Map<Double, Double> toMap()
+   {
+      Map<Double, Double> map = new HashMap<Double, Double>();
+      for ( int i = first(); i >= 0; i = next( i ) )
+      {
+         map.put( power( i ), _coefficients[ i ] );
+      }
+      return map;
+   }
+
+   /**
+    * Determines whether both sets hold the same powers, ignoring the
+    * coefficients.
+    */
+   boolean samePowers( PolynomialTerms other )
+   {
+      if ( _size != other._size )
+      {
+         return false;
+      }
+      for ( int i = first(), j = other.first(); i >= 0;
+               i = next( i ), j = other.next( j ) )
+      {
+         if ( power( i ) != other.power( j ) )
+         {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Determines whether both sets hold the same terms.  Coefficients are
+    * compared as by {@link Double#equals(Object)}.
+    */
+   public boolean equals( Object obj )
+   {
+      if ( ! ( obj instanceof PolynomialTerms ) )
+      {
+         return false;
+      }
+      PolynomialTerms other = ( PolynomialTerms ) obj;
+      if ( ! samePowers( other ) )
+      {
+         return false;
+      }
+      for ( int i = first(), j = other.first(); i >= 0;
+               i = next( i ), j = other.next( j ) )
+      {
+         if ( Double.doubleToLongBits( _coefficients[ i ] )
+                  != Double.doubleToLongBits( other._coefficients[ j ] ) )
+         {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Returns a hash code equal to that of the equivalent
+    * Map&lt;Double, Double&gt;.
+    */
+   public int hashCode()
+   {
+      int hash = 0;
+      for ( int i = first(); i >= 0; i = next( i ) )
+      {
+         hash += Double.hashCode( power( i ) )
+                  ^ Double.hashCode( _coefficients[ i ] );
+      }
+      return hash;
+   }
+
+   /**
+    * Returns the cursor of the term with the specified power, adding a term
+    * with a zero coefficient if needed.
+    */
+   private int locate( double power )
+   {
+      if ( isDense() )
+      {
+         int k = ( int ) power;
+         if ( fitsDense( power )
+                  && ( k < _length || fitsDense( k + 1, _size + 1 ) ) )
+         {
+            if ( k >= _coefficients.length )
+            {
+               int capacity = Math.max( k + 1, _coefficients.length * 2 );
+               _coefficients = Arrays.copyOf( _coefficients, capacity );
+               _present = Arrays.copyOf( _present, capacity );
+            }
+            if ( ! _present[ k ] )
+            {
+               _present[ k ] = true;
+               _coefficients[ k ] = 0.0;
+               ++_size;
+               _length = Math.max( _length, k + 1 );
+            }
+            return k;
+         }
+         toSparse();
+      }
+
+      int index = indexOf( power );
+      if ( index >= 0 )
+      {
+         return index;
+      }
+      index = -index - 1;
+      if ( _size == _powers.length )
+      {
+         int capacity = Math.max( 4, _size * 2 );
+         _powers = Arrays.copyOf( _powers, capacity );
+         _coefficients = Arrays.copyOf( _coefficients, capacity );
+      }
+      System.arraycopy( _powers, index, _powers, index + 1, _size - index );
+      System.arraycopy( _coefficients, index, _coefficients, index + 1,
+               _size - index );
+      _powers[ index ] = normalize( power );
+      _coefficients[ index ] = 0.0;
+      ++_size;
+      return index;
+   }
+
+   /**
+    * Switches to the dense form if the terms fit it, or to the sparse form
+    * if dense terms have become too spread out.
+    */
+   private void pack()
+   {
+      if ( isDense() )
+      {
+         if ( ! fitsDense( _length, _size ) )
+         {
+            toSparse();
+         }
+         return;
+      }
+
+      for ( int i = 0; i < _size; ++i )
+      {
+         if ( ! fitsDense( _powers[ i ] ) )
+         {
+            return;
+         }
+      }
+      int length = _size == 0 ? 0 : ( int ) _powers[ _size - 1 ] + 1;
+      if ( ! fitsDense( length, _size ) )
+      {
+         return;
+      }
+
+      double[] coefficients = new double[ Math.max( 4, length ) ];
+      boolean[] present = new boolean[ coefficients.length ];
+      for ( int i = 0; i < _size; ++i )
+      {
+         int k = ( int ) _powers[ i ];
+         coefficients[ k ] = _coefficients[ i ];
+         present[ k ] = true;
+      }
+      _powers = null;
+      _coefficients = coefficients;
+      _present = present;
+      _length = length;
+   }
+
+   /**
+    * Switches to the sparse form.
+    */
+   private void toSparse()
+   {
+      _powers = powerArray();
+      _coefficients = coefficientArray();
+      _present = null;
+      _length = 0;
+      if ( _powers.length < 4 )
+      {
+         _powers = Arrays.copyOf( _powers, 4 );
+         _coefficients = Arrays.copyOf( _coefficients, 4 );
+      }
+   }
+
+   /**
+    * Returns the powers of the terms in increasing order.
+    */
+   private double[] powerArray()
+   {
+      if ( ! isDense() )
+      {
+         return Arrays.copyOf( _powers, _size );
+      }
+      double[] powers = new double[ _size ];
+      int n = 0;
+      for ( int k = 0; k < _length; ++k )
+      {
+         if ( _present[ k ] )
+         {
+            powers[ n++ ] = k;
+         }
+      }
+      return powers;
+   }
+
+   /**
+    * Returns the coefficients of the terms in increasing order of power.
+    */
+   private double[] coefficientArray()
+   {
+      if ( ! isDense() )
+      {
+         return Arrays.copyOf( _coefficients, _size );
+      }
+      double[] coefficients = new double[ _size ];
+      int n = 0;
+      for ( int k = 0; k < _length; ++k )
+      {
+         if ( _present[ k ] )
+         {
+            coefficients[ n++ ] = _coefficients[ k ];
+         }
+      }
+      return coefficients;
+   }
+
+   /**
+    * Determines whether a power can be stored densely.
+    */
+   private static boolean fitsDense( double power )
+   {
+      return power >= 0.0 && power < MAX_DENSE_LENGTH
+               && power == Math.rint( power );
+   }
+
+   /**
+    * Determines whether dense storage of the given length is worthwhile for
+    * the given number of terms.
+    */
+   private static boolean fitsDense( int length, int size )
+   {
+      return length <= MAX_DENSE_LENGTH && length <= 4 * size + 16;
+   }
+
+   /**
+    * Turns -0.0 into 0.0 so that equal powers have equal hash codes.
+    */
+   private static double normalize( double power )
+   {
+      return power + 0.0;
+   }
+}
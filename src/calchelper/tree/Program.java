@@ -0,0 +1,791 @@
+/*
+ * Program.java
+ *
+ * This file is part of CalcHelper.
+ *
+ * CalcHelper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CalcHelper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CalcHelper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package calchelper.tree;
+
+import java.util.Arrays;
+
+/**
+ * A flattened form of an expression tree.  Each instruction writes exactly
+ * one register, and its operands always refer to registers written by
+ * earlier instructions, so the program can be run with a single forward
+ * loop and no recursion.  The result is held in the last register.
+ *
+ * @author Patrick MacArthur
+ */
+final class Program
+{
+   // Opcodes
+   static final int CONST = 0;
+   static final int VAR   = 1;
+   static final int POLY  = 2;
+   static final int ADD   = 3;
+   static final int SUB   = 4;
+   static final int MUL   = 5;
+   static final int DIV   = 6;
+   static final int POW   = 7;
+   static final int SIN   = 8;
+   static final int COS   = 9;
+   static final int TAN   = 10;
+   static final int COT   = 11;
+   static final int SEC   = 12;
+   static final int CSC   = 13;
+   static final int LN    = 14;
+
+   // The number of points run together by runBlock()
+   static final int BLOCK = 256;
+
+   /*
+    * Implementation notes:
+    *
+    * CONST : _constants[ i ] holds the value
+    * VAR   : _left[ i ] is the variable slot
+    * POLY  : _left[ i ] is the register holding the variable's value,
+    *         _right[ i ] is the index into _polyPowers/_polyCoefficients.
+    *         A dense table has null powers and its coefficients indexed by
+    *         power, and is evaluated by Horner's rule.
+    * unary : _left[ i ] is the argument register
+    * binary: _left[ i ] and _right[ i ] are the operand registers
+    */
+   private int[] _ops;
+   private int[] _left;
+   private int[] _right;
+   private double[] _constants;
+   private int _size;
+
+   private double[][] _polyPowers;
+   private double[][] _polyCoefficients;
+   private int _polyCount;
+
+   private int _variableCount;
+
+   /**
+    * Creates an empty program over the specified number of variable slots.
+    *
+    * @param variableCount The number of variable slots.
+    */
+   Program( int variableCount )
+   {
+      _ops = new int[ 16 ];
+      _left = new int[ 16 ];
+      _right = new int[ 16 ];
+      _constants = new double[ 16 ];
+      _polyPowers = new double[ 4 ][];
+      _polyCoefficients = new double[ 4 ][];
+      _variableCount = variableCount;
+   }
+
+   /**
+    * Appends an instruction to the program.
+    *
+    * @param op The opcode.
+    * @param left The left operand.
+    * @param right The right operand.
+    * @param constant The immediate constant.
+    * @return The register written by the new instruction.
+    */
+   int append( int op, int left, int right, double constant )
+   {
+      if ( _size == _ops.length )
+      {
+         int capacity = _size * 2;
+         _ops = Arrays.copyOf( _ops, capacity );
+         _left = Arrays.copyOf( _left, capacity );
+         _right = Arrays.copyOf( _right, capacity );
+         _constants = Arrays.copyOf( _constants, capacity );
+      }
+      _ops[ _size ] = op;
+      _left[ _size ] = left;
+      _right[ _size ] = right;
+      _constants[ _size ] = constant;
+      return _size++;
+   }
+
+   /**
+    * Adds a table of polynomial terms for use by a POLY instruction.
+    *
+    * @param powers The powers of each term, or null if the table is dense.
+    * @param coefficients The coefficients of each term, or of each power
+    * from 0 up if the table is dense.
+    * @return The index of the table.
+    */
+   int addPolynomial( double[] powers, double[] coefficients )
+   {
+      if ( _polyCount == _polyPowers.length )
+      {
+         _polyPowers = Arrays.copyOf( _polyPowers, _polyCount * 2 );
+         _polyCoefficients = Arrays.copyOf( _polyCoefficients, _polyCount * 2 );
+      }
+      _polyPowers[ _polyCount ] = powers;
+      _polyCoefficients[ _polyCount ] = coefficients;
+      return _polyCount++;
+   }
+
+   /**
+    * Removes instructions whose results are never used, such as the operands
+    * of folded constants.
+    *
+    * @param result The register holding the value of the expression.
+    * @return A program holding only the live instructions, ending with the
+    * result.
+    */
+   Program prune( int result )
+   {
+      boolean[] live = new boolean[ _size ];
+      live[ result ] = true;
+      for ( int i = result; i >= 0; --i )
+      {
+         if ( live[ i ] && reads( _ops[ i ] ) )
+         {
+            live[ _left[ i ] ] = true;
+            if ( isBinary( _ops[ i ] ) )
+            {
+               live[ _right[ i ] ] = true;
+            }
+         }
+      }
+
+      Program pruned = new Program( _variableCount );
+      int[] renumber = new int[ _size ];
+      for ( int i = 0; i <= result; ++i )
+      {
+         if ( live[ i ] )
+         {
+            int op = _ops[ i ];
+            int left = _left[ i ];
+            int right = _right[ i ];
+            if ( op == POLY )
+            {
+               left = renumber[ left ];
+               right = pruned.addPolynomial( _polyPowers[ right ],
+                        _polyCoefficients[ right ] );
+            }
+            else if ( reads( op ) )
+            {
+               left = renumber[ left ];
+               right = isBinary( op ) ? renumber[ right ] : 0;
+            }
+            renumber[ i ] = pruned.append( op, left, right, _constants[ i ] );
+         }
+      }
+      return pruned;
+   }
+
+   /**
+    * Returns the number of instructions in the program.
+    */
+   int size()
+   {
+      return _size;
+   }
+
+   /**
+    * Returns the number of instructions the program would take if no
+    * register were read more than once, that is, if each subexpression were
+    * computed again wherever it is used.
+    *
+    * @return The number of instructions, which is at most Long.MAX_VALUE / 3.
+    */
+   long unsharedSize()
+   {
+      long[] counts = new long[ _size ];
+      for ( int i = 0; i < _size; ++i )
+      {
+         long count = 1;
+         if ( reads( _ops[ i ] ) )
+         {
+            count += counts[ _left[ i ] ];
+            if ( isBinary( _ops[ i ] ) )
+            {
+               count += counts[ _right[ i ] ];
+            }
+         }
+         counts[ i ] = Math.min( count, Long.MAX_VALUE / 3 );
+      }
+      return _size == 0 ? 0 : counts[ _size - 1 ];
+   }
+
+   /**
+    * Returns the number of variable slots the program reads.
+    */
+   int variableCount()
+   {
+      return _variableCount;
+   }
+
+   /**
+    * Returns the opcode of the specified instruction.
+    */
+   int op( int i )
+   {
+      return _ops[ i ];
+   }
+
+   /**
+    * Returns the left operand of the specified instruction.
+    */
+   int left( int i )
+   {
+      return _left[ i ];
+   }
+
+   /**
+    * Returns the right operand of the specified instruction.
+    */
+   int right( int i )
+   {
+      return _right[ i ];
+   }
+
+   /**
+    * Returns the immediate constant of the specified instruction.
+    */
+   double constant( int i )
+   {
+      return _constants[ i ];
+   }
+
+   /**
+    * Returns the powers of the specified polynomial table, or null if the
+    * table is dense.
+    */
+   double[] polyPowers( int index )
+   {
+      return _polyPowers[ index ];
+   }
+
+   /**
+    * Returns the coefficients of the specified polynomial table.
+    */
+   double[] polyCoefficients( int index )
+   {
+      return _polyCoefficients[ index ];
+   }
+
+   /**
+    * Creates an evaluator that interprets this program.  The evaluator holds
+    * its own registers, so it must not be shared between threads.
+    *
+    * @return A new interpreter for this program.
+    */
+   Evaluator newInterpreter()
+   {
+      final double[] registers = new double[ _size ];
+      return new Evaluator()
+      {
+         public double evaluate( double[] values )
+         {
+            return run( values, registers );
+         }
+      };
+   }
+
+   /**
+    * Runs the program.
+    *
+    * @param values The value of each variable slot.
+    * @param registers Scratch space of at least {@link #size()} elements.
+    * @return The value of the expression.
+    */
+   double run( double[] values, double[] registers )
+   {
+      int[] ops = _ops;
+      int[] left = _left;
+      int[] right = _right;
+
+      for ( int i = 0; i < _size; ++i )
+      {
+         switch ( ops[ i ] )
+         {
+            case CONST:
+               registers[ i ] = _constants[ i ];
+               break;
+            case VAR:
+               registers[ i ] = values[ left[ i ] ];
+               break;
+            case POLY:
+               registers[ i ] = evaluatePolynomial( right[ i ],
+                        registers[ left[ i ] ] );
+               break;
+            default:
+               registers[ i ] = compute( ops[ i ], registers[ left[ i ] ],
+                        registers[ right[ i ] ] );
+         }
+      }
+
+      return registers[ _size - 1 ];
+   }
+
+   /**
+    * Runs the program on dual numbers, carrying alongside each value its
+    * derivative with respect to one variable (forward-mode automatic
+    * differentiation).
+    *
+    * @param values The value of each variable slot.
+    * @param slot The slot of the variable to differentiate with respect to.
+    * @param registers Scratch space of at least {@link #size()} elements
+    * for the values.
+    * @param tangents Scratch space of at least {@link #size()} elements for
+    * the derivatives.
+    * @return The register holding the value of the expression in
+    * registers and its derivative in tangents.
+    */
+   int runDual( double[] values, int slot, double[] registers,
+                double[] tangents )
+   {
+      int[] ops = _ops;
+      int[] left = _left;
+      int[] right = _right;
+
+      for ( int i = 0; i < _size; ++i )
+      {
+         int op = ops[ i ];
+         if ( op == CONST )
+         {
+            registers[ i ] = _constants[ i ];
+            tangents[ i ] = 0.0;
+            continue;
+         }
+         else if ( op == VAR )
+         {
+            registers[ i ] = values[ left[ i ] ];
+            tangents[ i ] = left[ i ] == slot ? 1.0 : 0.0;
+            continue;
+         }
+
+         double x = registers[ left[ i ] ];
+         double dx = tangents[ left[ i ] ];
+         if ( op == POLY )
+         {
+            registers[ i ] = evaluatePolynomial( right[ i ], x );
+            tangents[ i ] = dx == 0.0 ? 0.0
+                     : derivePolynomial( right[ i ], x ) * dx;
+            continue;
+         }
+
+         double y = isBinary( op ) ? registers[ right[ i ] ] : 0.0;
+         double dy = isBinary( op ) ? tangents[ right[ i ] ] : 0.0;
+         double value = compute( op, x, y );
+         registers[ i ] = value;
+         tangents[ i ] = derive( op, x, dx, y, dy, value );
+      }
+
+      return _size - 1;
+   }
+
+   /**
+    * Runs the program and then runs it backwards to find the gradient of
+    * the expression (reverse-mode automatic differentiation).  The program
+    * is its own tape: the forward pass leaves the value of every
+    * instruction in registers, and the backward pass carries the adjoint of
+    * each instruction to its operands in reverse order.
+    *
+    * @param values The value of each variable slot.
+    * @param registers Scratch space of at least {@link #size()} elements
+    * for the values.
+    * @param adjoints Scratch space of at least {@link #size()} elements for
+    * the adjoints.
+    * @param gradient Receives the partial derivative with respect to each
+    * variable slot.
+    * @return The value of the expression.
+    */
+   double runGradient( double[] values, double[] registers,
+                       double[] adjoints, double[] gradient )
+   {
+      double result = run( values, registers );
+
+      int[] ops = _ops;
+      int[] left = _left;
+      int[] right = _right;
+      Arrays.fill( adjoints, 0, _size, 0.0 );
+      Arrays.fill( gradient, 0, _variableCount, 0.0 );
+      adjoints[ _size - 1 ] = 1.0;
+
+      for ( int i = _size - 1; i >= 0; --i )
+      {
+         int op = ops[ i ];
+         double adjoint = adjoints[ i ];
+         if ( adjoint == 0.0 || op == CONST )
+         {
+            continue;
+         }
+         else if ( op == VAR )
+         {
+            gradient[ left[ i ] ] += adjoint;
+            continue;
+         }
+
+         double x = registers[ left[ i ] ];
+         if ( op == POLY )
+         {
+            adjoints[ left[ i ] ] += derivePolynomial( right[ i ], x )
+                     * adjoint;
+            continue;
+         }
+
+         double y = isBinary( op ) ? registers[ right[ i ] ] : 0.0;
+         adjoints[ left[ i ] ] += derive( op, x, 1.0, y, 0.0, registers[ i ] )
+                  * adjoint;
+         if ( isBinary( op ) && ops[ right[ i ] ] != CONST )
+         {
+            adjoints[ right[ i ] ] += derive( op, x, 0.0, y, 1.0,
+                     registers[ i ] ) * adjoint;
+         }
+      }
+      return result;
+   }
+
+   /**
+    * Computes the derivative of the result of an arithmetic or function
+    * opcode from its operands and their derivatives.
+    *
+    * @param op The opcode.
+    * @param x The left (or only) operand.
+    * @param dx The derivative of x.
+    * @param y The right operand.
+    * @param dy The derivative of y.
+    * @param value The result of the opcode.
+    * @return The derivative of the result.
+    */
+   static double derive( int op, double x, double dx, double y, double dy,
+                         double value )
+   {
+      switch ( op )
+      {
+         case ADD: return dx + dy;
+         case SUB: return dx - dy;
+         case MUL: return dx * y + x * dy;
+         case DIV: return ( dx - value * dy ) / y;
+         case POW:
+         {
+            // d( x^y ) = y x^( y - 1 ) dx + x^y ln( x ) dy
+            double derivative = 0.0;
+            if ( dx != 0.0 )
+            {
+               derivative += y * power( x, y - 1.0 ) * dx;
+            }
+            if ( dy != 0.0 )
+            {
+               derivative += value * Math.log( x ) * dy;
+            }
+            return derivative;
+         }
+         case SIN: return Math.cos( x ) * dx;
+         case COS: return -Math.sin( x ) * dx;
+         case TAN: return ( 1.0 + value * value ) * dx;
+         case COT: return -( 1.0 + value * value ) * dx;
+         case SEC: return value * Math.tan( x ) * dx;
+         case CSC: return -value / Math.tan( x ) * dx;
+         case LN:  return dx / x;
+         default:
+            throw new IllegalStateException( "Not an arithmetic opcode: " + op );
+      }
+   }
+
+   /**
+    * Runs the program over a block of points at once.  Each instruction is
+    * applied to the whole block before moving on to the next one, so the
+    * inner loops are simple enough for the JIT to vectorize and the cost
+    * of dispatching each instruction is shared by the entire block.
+    *
+    * @param columns The values of each variable slot, one array per slot.
+    * @param offset The index of the first point in the columns.
+    * @param length The number of points, at most {@link #BLOCK}.
+    * @param registers Scratch space of {@link #size()} arrays of
+    * {@link #BLOCK} elements.
+    * @return The register holding the results.
+    */
+   double[] runBlock( double[][] columns, int offset, int length,
+                      double[][] registers )
+   {
+      for ( int i = 0; i < _size; ++i )
+      {
+         double[] r = registers[ i ];
+         switch ( _ops[ i ] )
+         {
+            case CONST:
+               Arrays.fill( r, 0, length, _constants[ i ] );
+               break;
+            case VAR:
+               System.arraycopy( columns[ _left[ i ] ], offset, r, 0, length );
+               break;
+            case POLY:
+               polynomialBlock( _right[ i ], registers[ _left[ i ] ], r,
+                        length );
+               break;
+            case ADD:
+            {
+               double[] a = registers[ _left[ i ] ];
+               double[] b = registers[ _right[ i ] ];
+               for ( int j = 0; j < length; ++j )
+               {
+                  r[ j ] = a[ j ] + b[ j ];
+               }
+               break;
+            }
+            case SUB:
+            {
+               double[] a = registers[ _left[ i ] ];
+               double[] b = registers[ _right[ i ] ];
+               for ( int j = 0; j < length; ++j )
+               {
+                  r[ j ] = a[ j ] - b[ j ];
+               }
+               break;
+            }
+            case MUL:
+            {
+               double[] a = registers[ _left[ i ] ];
+               double[] b = registers[ _right[ i ] ];
+               for ( int j = 0; j < length; ++j )
+               {
+                  r[ j ] = a[ j ] * b[ j ];
+               }
+               break;
+            }
+            case DIV:
+            {
+               double[] a = registers[ _left[ i ] ];
+               double[] b = registers[ _right[ i ] ];
+               for ( int j = 0; j < length; ++j )
+               {
+                  r[ j ] = a[ j ] / b[ j ];
+               }
+               break;
+            }
+            default:
+            {
+               int op = _ops[ i ];
+               double[] a = registers[ _left[ i ] ];
+               double[] b = registers[ _right[ i ] ];
+               for ( int j = 0; j < length; ++j )
+               {
+                  r[ j ] = compute( op, a[ j ], b[ j ] );
+               }
+            }
+         }
+      }
+      return registers[ _size - 1 ];
+   }
+
+   /**
+    * Evaluates one of the polynomial tables over a block of points.
+    */
+   private void polynomialBlock( int index, double[] x, double[] r,
+                                 int length )
+   {
+      double[] powers = _polyPowers[ index ];
+      double[] coefficients = _polyCoefficients[ index ];
+
+      if ( powers == null )
+      {
+         // Horner's rule
+         double c = coefficients[ coefficients.length - 1 ];
+         Arrays.fill( r, 0, length, c );
+         for ( int k = coefficients.length - 2; k >= 0; --k )
+         {
+            c = coefficients[ k ];
+            for ( int j = 0; j < length; ++j )
+            {
+               r[ j ] = r[ j ] * x[ j ] + c;
+            }
+         }
+         return;
+      }
+
+      Arrays.fill( r, 0, length, 0.0 );
+      for ( int k = 0; k < powers.length; ++k )
+      {
+         double c = coefficients[ k ];
+         double p = powers[ k ];
+         if ( p == 0.0 )
+         {
+            for ( int j = 0; j < length; ++j )
+            {
+               r[ j ] += c;
+            }
+         }
+         else if ( p == 1.0 )
+         {
+            for ( int j = 0; j < length; ++j )
+            {
+               r[ j ] += c * x[ j ];
+            }
+         }
+         else if ( p == 2.0 )
+         {
+            for ( int j = 0; j < length; ++j )
+            {
+               r[ j ] += c * x[ j ] * x[ j ];
+            }
+         }
+         else
+         {
+            for ( int j = 0; j < length; ++j )
+            {
+               r[ j ] += c * Math.pow( x[ j ], p );
+            }
+         }
+      }
+   }
+
+   /**
+    * Evaluates one of the polynomial tables at the given point.
+    *
+    * @param index The index of the table.
+    * @param x The value of the variable.
+    * @return The value of the polynomial.
+    */
+   double evaluatePolynomial( int index, double x )
+   {
+      double[] powers = _polyPowers[ index ];
+      double[] coefficients = _polyCoefficients[ index ];
+      if ( powers == null )
+      {
+         // Horner's rule
+         double sum = coefficients[ coefficients.length - 1 ];
+         for ( int k = coefficients.length - 2; k >= 0; --k )
+         {
+            sum = sum * x + coefficients[ k ];
+         }
+         return sum;
+      }
+
+      double sum = 0.0;
+      for ( int k = 0; k < powers.length; ++k )
+      {
+         sum += coefficients[ k ] * power( x, powers[ k ] );
+      }
+      return sum;
+   }
+
+   /**
+    * Evaluates the derivative of one of the polynomial tables at the given
+    * point.
+    *
+    * @param index The index of the table.
+    * @param x The value of the variable.
+    * @return The value of the derivative.
+    */
+   double derivePolynomial( int index, double x )
+   {
+      double[] powers = _polyPowers[ index ];
+      double[] coefficients = _polyCoefficients[ index ];
+      if ( powers == null )
+      {
+         // Horner's rule on the coefficients of the derivative
+         int degree = coefficients.length - 1;
+         double sum = 0.0;
+         for ( int k = degree; k >= 1; --k )
+         {
+            sum = sum * x + k * coefficients[ k ];
+         }
+         return sum;
+      }
+
+      double sum = 0.0;
+      for ( int k = 0; k < powers.length; ++k )
+      {
+         if ( powers[ k ] != 0.0 )
+         {
+            sum += coefficients[ k ] * powers[ k ]
+                     * power( x, powers[ k ] - 1.0 );
+         }
+      }
+      return sum;
+   }
+
+   /**
+    * Raises x to the given power, avoiding Math.pow for the common small
+    * integer powers.
+    */
+   static double power( double x, double p )
+   {
+      if ( p == 0.0 )
+      {
+         return 1.0;
+      }
+      else if ( p == 1.0 )
+      {
+         return x;
+      }
+      else if ( p == 2.0 )
+      {
+         return x * x;
+      }
+      else
+      {
+         return Math.pow( x, p );
+      }
+   }
+
+   /**
+    * Computes the result of an arithmetic or function opcode.  Unary
+    * opcodes ignore the right operand.
+    *
+    * @param op The opcode.
+    * @param x The left (or only) operand.
+    * @param y The right operand.
+    * @return The result.
+    */
+   static double compute( int op, double x, double y )
+   {
+      switch ( op )
+      {
+         case ADD: return x + y;
+         case SUB: return x - y;
+         case MUL: return x * y;
+         case DIV: return x / y;
+         case POW: return power( x, y );
+         case SIN: return Math.sin( x );
+         case COS: return Math.cos( x );
+         case TAN: return Math.tan( x );
+         case COT: return 1.0 / Math.tan( x );
+         case SEC: return 1.0 / Math.cos( x );
+         case CSC: return 1.0 / Math.sin( x );
+         case LN:  return Math.log( x );
+         default:
+            throw new IllegalStateException( "Not an arithmetic opcode: " + op );
+      }
+   }
+
+   /**
+    * Determines whether the opcode reads other registers.
+    */
+   static boolean reads( int op )
+   {
+      return op != CONST && op != VAR;
+   }
+
+   /**
+    * Determines whether the opcode takes two operand registers.
+    */
+   static boolean isBinary( int op )
+   {
+      return op >= ADD && op <= POW;
+   }
+
+   /**
+    * Determines whether the opcode takes only a left operand.
+    */
+   static boolean isUnary( int op )
+   {
+      return op >= SIN;
+   }
+}
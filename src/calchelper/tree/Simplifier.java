@@ -0,0 +1,572 @@
+/*
+ * Simplifier.java
+ *
+ * This file is part of CalcHelper.
+ *
+ * CalcHelper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CalcHelper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CalcHelper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package calchelper.tree;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Simplifies expression trees by rewriting them with a set of rules, such
+ * as x * 1 = x and sin(x) * sin(x) = sin^2(x).
+ *
+ * The rules are indexed by node class, so only those that can match a node
+ * are tried on it.  A tree is simplified from the bottom up: first the
+ * children of a node, then the node itself, again and again until no rule
+ * applies.  A rewrite is kept only if it makes the tree cheaper by
+ * {@link #cost}, so the result is never larger than the input and the
+ * rewriting always ends.
+ *
+ * Like most computer algebra systems, the rules assume that nothing is
+ * divided by zero, so x / x is simplified to 1.
+ *
+ * Input trees are not changed; unchanged subtrees are shared between the
+ * input and the result.
+ *
+ * @author Patrick MacArthur
+ */
+final class Simplifier
+{
+   /**
+    * A rewrite rule.
+    */
+   interface Rule
+   {
+      /**
+       * Rewrites a node whose children are already simplified.
+       *
+       * @param node The node, of a class the rule is registered for.
+       * @return The rewritten node, or null if the rule does not match.
+       */
+      AbstractNode rewrite( AbstractNode node );
+   }
+
+   /*
+    * Rules for every binary operator.
+    */
+
+   // Multiplies out polynomials and folds constants: x + 2x = 3x,
+   // x * y + y * x = 2x * y
+   private static final Rule FOLD = new Rule()
+   {
+      public AbstractNode rewrite( AbstractNode node )
+      {
+         Polynomial poly = Polynomial.createPolynomial( node );
+         return poly != null ? poly : MultiPolynomial.create( node );
+      }
+   };
+
+   /*
+    * Rules for addition and subtraction.
+    */
+
+   // 0 + e = e, e + 0 = e, e - 0 = e
+   private static final Rule ADD_ZERO = new Rule()
+   {
+      public AbstractNode rewrite( AbstractNode node )
+      {
+         BinaryOperatorNode bin = ( BinaryOperatorNode ) node;
+         if ( isZero( bin.getRight() ) )
+         {
+            return bin.getLeft();
+         }
+         else if ( isZero( bin.getLeft() )
+                  && bin instanceof BinaryOperatorNode.Addition )
+         {
+            return bin.getRight();
+         }
+         return null;
+      }
+   };
+
+   // e + e = 2 * e
+   private static final Rule ADD_SAME = new Rule()
+   {
+      public AbstractNode rewrite( AbstractNode node )
+      {
+         BinaryOperatorNode bin = ( BinaryOperatorNode ) node;
+         if ( same( bin.getLeft(), bin.getRight() ) )
+         {
+            return new BinaryOperatorNode.Multiplication(
+                     NodeFactory.createConstantNode( 2.0 ), bin.getLeft() );
+         }
+         return null;
+      }
+   };
+
+   // e - e = 0
+   private static final Rule SUBTRACT_SAME = new Rule()
+   {
+      public AbstractNode rewrite( AbstractNode node )
+      {
+         BinaryOperatorNode bin = ( BinaryOperatorNode ) node;
+         if ( same( bin.getLeft(), bin.getRight() ) )
+         {
+            return NodeFactory.createConstantNode( 0.0 );
+         }
+         return null;
+      }
+   };
+
+   // a sin(x) + b sin(x) = ( a + b ) sin(x), and likewise for subtraction
+   private static final Rule COMBINE_FUNCTIONS = new Rule()
+   {
+      public AbstractNode rewrite( AbstractNode node )
+      {
+         BinaryOperatorNode bin = ( BinaryOperatorNode ) node;
+         if ( ! likeFunctions( bin.getLeft(), bin.getRight() ) )
+         {
+            return null;
+         }
+
+         TrigOperatorNode left = ( TrigOperatorNode ) bin.getLeft();
+         TrigOperatorNode right = ( TrigOperatorNode ) bin.getRight();
+         if ( ! same( left.getPower(), right.getPower() ) )
+         {
+            return null;
+         }
+         AbstractNode coefficient = NodeFactory.createBinaryOperatorNode(
+                  bin.getType(), left.getCoefficientTerm(),
+                  right.getCoefficientTerm() );
+         return NodeFactory.createTrigNode( left.getType(),
+                  simplify( coefficient ), left.getArgument(),
+                  left.getPower() );
+      }
+   };
+
+   /*
+    * Rules for multiplication.
+    */
+
+   // 0 * e = 0, e * 0 = 0, 1 * e = e, e * 1 = e
+   private static final Rule MULTIPLY_IDENTITY = new Rule()
+   {
+      public AbstractNode rewrite( AbstractNode node )
+      {
+         BinaryOperatorNode bin = ( BinaryOperatorNode ) node;
+         if ( isZero( bin.getLeft() ) || isZero( bin.getRight() ) )
+         {
+            return NodeFactory.createConstantNode( 0.0 );
+         }
+         else if ( isOne( bin.getLeft() ) )
+         {
+            return bin.getRight();
+         }
+         else if ( isOne( bin.getRight() ) )
+         {
+            return bin.getLeft();
+         }
+         return null;
+      }
+   };
+
+   // a sin^m(x) * b sin^n(x) = ab sin^(m+n)(x)
+   private static final Rule MULTIPLY_FUNCTIONS = new Rule()
+   {
+      public AbstractNode rewrite( AbstractNode node )
+      {
+         BinaryOperatorNode bin = ( BinaryOperatorNode ) node;
+         if ( ! likeFunctions( bin.getLeft(), bin.getRight() ) )
+         {
+            return null;
+         }
+
+         TrigOperatorNode left = ( TrigOperatorNode ) bin.getLeft();
+         TrigOperatorNode right = ( TrigOperatorNode ) bin.getRight();
+         AbstractNode coefficient = new BinaryOperatorNode.Multiplication(
+                  left.getCoefficientTerm(), right.getCoefficientTerm() );
+         AbstractNode power = new BinaryOperatorNode.Addition(
+                  left.getPower(), right.getPower() );
+         return NodeFactory.createTrigNode( left.getType(),
+                  simplify( coefficient ), left.getArgument(),
+                  simplify( power ) );
+      }
+   };
+
+   // c * a sin(x) = ( c * a ) sin(x) for a constant c, either way round.
+   // Functions derive their coefficients as constants, so nothing else may
+   // be moved into one.
+   private static final Rule MULTIPLY_INTO_FUNCTION = new Rule()
+   {
+      public AbstractNode rewrite( AbstractNode node )
+      {
+         BinaryOperatorNode bin = ( BinaryOperatorNode ) node;
+         AbstractNode factor;
+         TrigOperatorNode function;
+         if ( isConstant( bin.getLeft() )
+                  && bin.getRight() instanceof TrigOperatorNode )
+         {
+            factor = bin.getLeft();
+            function = ( TrigOperatorNode ) bin.getRight();
+         }
+         else if ( isConstant( bin.getRight() )
+                  && bin.getLeft() instanceof TrigOperatorNode )
+         {
+            factor = bin.getRight();
+            function = ( TrigOperatorNode ) bin.getLeft();
+         }
+         else
+         {
+            return null;
+         }
+
+         AbstractNode coefficient = new BinaryOperatorNode.Multiplication(
+                  factor, function.getCoefficientTerm() );
+         return NodeFactory.createTrigNode( function.getType(),
+                  simplify( coefficient ), function.getArgument(),
+                  function.getPower() );
+      }
+   };
+
+   // e * e = e^2
+   private static final Rule MULTIPLY_SAME = new Rule()
+   {
+      public AbstractNode rewrite( AbstractNode node )
+      {
+         BinaryOperatorNode bin = ( BinaryOperatorNode ) node;
+         if ( same( bin.getLeft(), bin.getRight() ) )
+         {
+            return new BinaryOperatorNode.Power( bin.getLeft(),
+                     NodeFactory.createConstantNode( 2.0 ) );
+         }
+         return null;
+      }
+   };
+
+   /*
+    * Rules for division.
+    */
+
+   // e / 1 = e, 0 / e = 0, e / e = 1
+   private static final Rule DIVIDE_IDENTITY = new Rule()
+   {
+      public AbstractNode rewrite( AbstractNode node )
+      {
+         BinaryOperatorNode bin = ( BinaryOperatorNode ) node;
+         if ( isOne( bin.getRight() ) )
+         {
+            return bin.getLeft();
+         }
+         else if ( isZero( bin.getRight() ) )
+         {
+            return null;
+         }
+         else if ( isZero( bin.getLeft() ) )
+         {
+            return NodeFactory.createConstantNode( 0.0 );
+         }
+         else if ( same( bin.getLeft(), bin.getRight() ) )
+         {
+            return NodeFactory.createConstantNode( 1.0 );
+         }
+         return null;
+      }
+   };
+
+   /*
+    * Rules for powers.
+    */
+
+   // e^1 = e, e^0 = 1, 1^e = 1
+   private static final Rule POWER_IDENTITY = new Rule()
+   {
+      public AbstractNode rewrite( AbstractNode node )
+      {
+         BinaryOperatorNode bin = ( BinaryOperatorNode ) node;
+         if ( isOne( bin.getRight() ) )
+         {
+            return bin.getLeft();
+         }
+         else if ( isZero( bin.getRight() ) || isOne( bin.getLeft() ) )
+         {
+            return NodeFactory.createConstantNode( 1.0 );
+         }
+         return null;
+      }
+   };
+
+   /*
+    * Rules for functions.
+    */
+
+   // 0 sin(x) = 0, a sin^0(x) = a
+   private static final Rule FUNCTION_IDENTITY = new Rule()
+   {
+      public AbstractNode rewrite( AbstractNode node )
+      {
+         TrigOperatorNode function = ( TrigOperatorNode ) node;
+         if ( isZero( function.getCoefficientTerm() ) )
+         {
+            return NodeFactory.createConstantNode( 0.0 );
+         }
+         else if ( isZero( function.getPower() ) )
+         {
+            return function.getCoefficientTerm();
+         }
+         return null;
+      }
+   };
+
+   // ( a sin^m(x) ) sin^n(x) = a sin^(m+n)(x), as the parser builds
+   // sin(x) * sin(x)
+   private static final Rule FUNCTION_OF_FUNCTION = new Rule()
+   {
+      public AbstractNode rewrite( AbstractNode node )
+      {
+         TrigOperatorNode function = ( TrigOperatorNode ) node;
+         if ( ! likeFunctions( function.getCoefficientTerm(), function ) )
+         {
+            return null;
+         }
+
+         TrigOperatorNode inner =
+            ( TrigOperatorNode ) function.getCoefficientTerm();
+         AbstractNode power = new BinaryOperatorNode.Addition(
+                  inner.getPower(), function.getPower() );
+         return NodeFactory.createTrigNode( function.getType(),
+                  inner.getCoefficientTerm(), function.getArgument(),
+                  simplify( power ) );
+      }
+   };
+
+   // The rules for each class of node, in the order they are tried
+   private static final Map<Class<?>, Rule[]> RULES =
+      new HashMap<Class<?>, Rule[]>();
+
+   static
+   {
+      RULES.put( BinaryOperatorNode.Addition.class, new Rule[] { FOLD,
+         ADD_ZERO, COMBINE_FUNCTIONS, ADD_SAME } );
+      RULES.put( BinaryOperatorNode.Subtraction.class, new Rule[] { FOLD,
+         ADD_ZERO, SUBTRACT_SAME, COMBINE_FUNCTIONS } );
+      RULES.put( BinaryOperatorNode.Multiplication.class, new Rule[] { FOLD,
+         MULTIPLY_IDENTITY, MULTIPLY_FUNCTIONS, MULTIPLY_INTO_FUNCTION,
+         MULTIPLY_SAME } );
+      RULES.put( BinaryOperatorNode.Division.class, new Rule[] { FOLD,
+         DIVIDE_IDENTITY } );
+      RULES.put( BinaryOperatorNode.Power.class, new Rule[] { FOLD,
+         POWER_IDENTITY } );
+
+      Class<?>[] functions = { TrigOperatorNode.Sine.class,
+         TrigOperatorNode.Cosine.class, TrigOperatorNode.Tangent.class,
+         TrigOperatorNode.Cotangent.class, TrigOperatorNode.Secant.class,
+         TrigOperatorNode.Cosecant.class, TrigOperatorNode.NatLog.class };
+      for ( Class<?> function : functions )
+      {
+         RULES.put( function, new Rule[] { FUNCTION_IDENTITY,
+            FUNCTION_OF_FUNCTION } );
+      }
+   }
+
+   private Simplifier()
+   {
+   }
+
+   /**
+    * Simplifies a tree.
+    *
+    * @param node The root of the tree, which is not changed.
+    * @return The root of the simplified tree, which costs no more than the
+    * original.
+    */
+   static AbstractNode simplify( AbstractNode node )
+   {
+      AbstractNode current = simplifyChildren( node );
+      for ( AbstractNode rewritten = rewrite( current ); rewritten != null;
+               rewritten = rewrite( current ) )
+      {
+         // The rewrite may have built new nodes, so start from the bottom
+         current = simplify( rewritten );
+      }
+      return current;
+   }
+
+   /**
+    * Returns a node with simplified children, or the node itself if none of
+    * them change.
+    */
+   private static AbstractNode simplifyChildren( AbstractNode node )
+   {
+      if ( ! ( node instanceof OperatorNode ) )
+      {
+         return node;
+      }
+
+      OperatorNode op = ( OperatorNode ) node;
+      List<AbstractNode> children =
+         new ArrayList<AbstractNode>( op._children.size() );
+      boolean changed = false;
+      for ( AbstractNode child : op._children )
+      {
+         AbstractNode simplified = simplify( child );
+         changed |= simplified != child;
+         children.add( simplified );
+      }
+
+      if ( ! changed )
+      {
+         return node;
+      }
+      else if ( node instanceof BinaryOperatorNode )
+      {
+         return NodeFactory.createBinaryOperatorNode( op.getType(),
+                  children.get( 0 ), children.get( 1 ) );
+      }
+      else if ( node instanceof TrigOperatorNode )
+      {
+         return NodeFactory.createTrigNode( op.getType(), children.get( 0 ),
+                  children.get( 1 ), children.get( 2 ) );
+      }
+      return node;
+   }
+
+   /**
+    * Applies the first rule for a node that makes it cheaper.
+    *
+    * @return The rewritten node, or null if no rule makes it cheaper.
+    */
+   private static AbstractNode rewrite( AbstractNode node )
+   {
+      Rule[] rules = RULES.get( node.getClass() );
+      if ( rules == null )
+      {
+         return null;
+      }
+
+      int cost = cost( node );
+      for ( Rule rule : rules )
+      {
+         AbstractNode rewritten = rule.rewrite( node );
+         if ( rewritten != null && cost( rewritten ) < cost )
+         {
+            return rewritten;
+         }
+      }
+      return null;
+   }
+
+   /**
+    * Returns the cost of a tree: one for each operator and each polynomial
+    * term, counting an empty polynomial as one term.
+    *
+    * @param node The root of the tree.
+    * @return The cost, which is at least 1.
+    */
+   static int cost( AbstractNode node )
+   {
+      if ( node instanceof Polynomial )
+      {
+         return Math.max( 1, ( ( Polynomial ) node ).termCount() );
+      }
+      else if ( node instanceof MultiPolynomial )
+      {
+         return Math.max( 1, ( ( MultiPolynomial ) node ).termCount() );
+      }
+      else if ( node instanceof OperatorNode )
+      {
+         int cost = 1;
+         for ( AbstractNode child : ( ( OperatorNode ) node )._children )
+         {
+            cost += cost( child );
+         }
+         return cost;
+      }
+      return 1;
+   }
+
+   /**
+    * Determines whether two trees are structurally equal.
+    */
+   static boolean same( AbstractNode a, AbstractNode b )
+   {
+      if ( a == b )
+      {
+         return true;
+      }
+      else if ( a == null || b == null || a.getClass() != b.getClass() )
+      {
+         return false;
+      }
+      else if ( a instanceof Polynomial || a instanceof MultiPolynomial )
+      {
+         return a.equals( b );
+      }
+      else if ( a instanceof OperatorNode )
+      {
+         List<AbstractNode> left = ( ( OperatorNode ) a )._children;
+         List<AbstractNode> right = ( ( OperatorNode ) b )._children;
+         if ( left.size() != right.size() )
+         {
+            return false;
+         }
+         for ( int i = 0; i < left.size(); ++i )
+         {
+            if ( ! same( left.get( i ), right.get( i ) ) )
+            {
+               return false;
+            }
+         }
+         return true;
+      }
+      return false;
+   }
+
+   /**
+    * Determines whether two nodes are the same function of the same
+    * argument.
+    */
+   private static boolean likeFunctions( AbstractNode a, AbstractNode b )
+   {
+      return a instanceof TrigOperatorNode && a.getClass() == b.getClass()
+               && same( ( ( TrigOperatorNode ) a ).getArgument(),
+                        ( ( TrigOperatorNode ) b ).getArgument() );
+   }
+
+   /**
+    * Determines whether a node is a constant polynomial.
+    */
+   private static boolean isConstant( AbstractNode node )
+   {
+      return node instanceof Polynomial && node.hasValue();
+   }
+
+   /**
+    * Determines whether a node is the constant zero.
+    */
+   private static boolean isZero( AbstractNode node )
+   {
+      if ( ! ( node instanceof Polynomial ) )
+      {
+         return false;
+      }
+      Polynomial poly = ( Polynomial ) node;
+      return poly.termCount() == 0 || poly.hasValue() && poly.getValue() == 0;
+   }
+
+   /**
+    * Determines whether a node is the constant one.
+    */
+   private static boolean isOne( AbstractNode node )
+   {
+      return node instanceof Polynomial && node.hasValue()
+               && node.getValue() == 1.0;
+   }
+}
@@ -0,0 +1,80 @@
+/*
+ * Symbol.java
+ *
+ * This file is part of CalcHelper.
+ *
+ * CalcHelper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CalcHelper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CalcHelper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package calchelper.tree;
+
+/**
+ * The name of a variable.  Symbols are interned by the {@link SymbolTable},
+ * so there is only ever one Symbol for each name, and two symbols are equal
+ * only if they are the same object.  Comparing variables is therefore a
+ * single reference comparison rather than a String comparison.
+ *
+ * @author Patrick MacArthur
+ */
+final class Symbol
+{
+   private final String _name;
+   private final int _id;
+   private final int _hash;
+
+   /**
+    * Creates a symbol.  Only the SymbolTable creates symbols.
+    *
+    * @param name The name of the variable.
+    * @param id The slot of the variable.
+    */
+   Symbol( String name, int id )
+   {
+      _name = name;
+      _id = id;
+      _hash = name.hashCode();
+   }
+
+   /**
+    * Returns the name of the variable.
+    */
+   public String getName()
+   {
+      return _name;
+   }
+
+   /**
+    * Returns the slot of the variable in the SymbolTable.
+    */
+   public int getId()
+   {
+      return _id;
+   }
+
+   /**
+    * Returns the hash code of the name, which is computed once.
+    */
+   public int hashCode()
+   {
+      return _hash;
+   }
+
+   /**
+    * Returns the name of the variable.
+    */
+   public String toString()
+   {
+      return _name;
+   }
+}
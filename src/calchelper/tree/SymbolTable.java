@@ -0,0 +1,146 @@
+/*
+ * SymbolTable.java
+ *
+ * This file is part of CalcHelper.
+ *
+ * CalcHelper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CalcHelper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CalcHelper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package calchelper.tree;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Gives every variable name a slot: a small integer that stays the same for
+ * as long as the program runs.  Variables are given their slots as they are
+ * parsed, and {@link ExpressionTree#evaluate(double[])} takes the value of
+ * each variable from its slot of an array, so no names are looked up while
+ * evaluating.  Each name is interned as a {@link Symbol} whose id is its
+ * slot.
+ *
+ * For example, to evaluate f(x, y) at x = 3.2 and y = 1:
+ * <pre>
+ * double[] slots = new double[ SymbolTable.size() ];
+ * slots[ SymbolTable.slot( "x" ) ] = 3.2;
+ * slots[ SymbolTable.slot( "y" ) ] = 1.0;
+ * double value = tree.evaluate( slots );
+ * </pre>
+ *
+ * The table is safe for use by multiple threads.
+ *
+ * @author Patrick MacArthur
+ */
+public final class SymbolTable
+{
+   private static final ConcurrentHashMap<String, Symbol> SYMBOLS =
+            new ConcurrentHashMap<String, Symbol>();
+
+   // The symbol in each slot; also the lock for adding symbols
+   private static final ArrayList<Symbol> SLOTS = new ArrayList<Symbol>();
+
+   // The symbols of the one-character ASCII names, which the parser makes
+   private static final Symbol[] CHARACTERS = new Symbol[ 128 ];
+
+   /**
+    * There are no instances; the table is shared by every tree.
+    */
+   private SymbolTable()
+   {
+   }
+
+   /**
+    * Returns the slot of a variable, giving it the next free slot if it
+    * does not have one yet.
+    *
+    * @param name The name of the variable.
+    * @return The slot, from 0 up to the number of names seen so far.
+    */
+   public static int slot( String name )
+   {
+      return symbol( name ).getId();
+   }
+
+   /**
+    * Returns the name of the variable in a slot.
+    *
+    * @param slot The slot.
+    * @return The name.
+    * @throws IndexOutOfBoundsException if no variable has the slot.
+    */
+   public static String name( int slot )
+   {
+      synchronized ( SLOTS )
+      {
+         return SLOTS.get( slot ).getName();
+      }
+   }
+
+   /**
+    * Returns the number of slots given out so far.  An array of this many
+    * values has a slot for every variable of every tree built so far.
+    */
+   public static int size()
+   {
+      synchronized ( SLOTS )
+      {
+         return SLOTS.size();
+      }
+   }
+
+   /**
+    * Returns the symbol for a name, creating it if needed.
+    */
+   static Symbol symbol( String name )
+   {
+      Symbol symbol = SYMBOLS.get( name );
+      if ( symbol != null )
+      {
+         return symbol;
+      }
+
+      synchronized ( SLOTS )
+      {
+         symbol = SYMBOLS.get( name );
+         if ( symbol == null )
+         {
+            symbol = new Symbol( name, SLOTS.size() );
+            SLOTS.add( symbol );
+            SYMBOLS.put( name, symbol );
+         }
+         return symbol;
+      }
+   }
+
+   /**
+    * Returns the symbol for a one-character name without building a String
+    * for it, once the name has been seen.
+    */
+   static Symbol symbol( char name )
+   {
+      if ( name >= CHARACTERS.length )
+      {
+         return symbol( String.valueOf( name ) );
+      }
+
+      // Racing threads find the same interned symbol, so this needs no lock
+      Symbol symbol = CHARACTERS[ name ];
+      if ( symbol == null )
+      {
+         symbol = symbol( String.valueOf( name ) );
+         CHARACTERS[ name ] = symbol;
+      }
+      return symbol;
+   }
+}
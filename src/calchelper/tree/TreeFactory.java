@@ -22,364 +22,157 @@
 
 package calchelper.tree;
 
-
-import java.text.NumberFormat;
-import java.text.ParsePosition;
-import java.util.Stack;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 /**
  *  The TreeFactory is in charge of building a tree given an infix
- * expression.
+ * expression.  The parsing itself is done by {@link Parser}.
+ *
+ * A TreeFactory is thread-safe.  Each call to {@link #buildTree} keeps its
+ * parse state to itself, and the optional cache is safe for concurrent use,
+ * so one factory may be shared by a pool of threads rather than created for
+ * each request.  Every call returns a tree of its own, even on a cache hit.
  *
  * @author Patrick MacArthur
  */
 public class TreeFactory
 {
-   private static final String OPERATORS = "{}[]()+-*/%^\\";
-
-   private Stack<String> _opStack;
-   private Stack<AbstractNode> _randStack;
+   // Parsed expressions by infix string, or null if not caching
+   private final BoundedCache<String, ImmutableExpression> _cache;
 
    /**
     * Creates a tree builder for the specified infix expression.
     */
    public TreeFactory()
    {
+      _cache = null;
    }
 
    /**
-    * Pushes the specified double onto the operand stack.
-    * 
-    * @param num The double to push onto the operand stack.
+    * Creates a tree builder that remembers the trees it has built, so that
+    * building one again from the same string costs a lookup instead of a
+    * parse.  The least recently used trees are dropped when the cache is
+    * full.
+    *
+    * @param cacheCapacity The most trees to remember, which must be
+    * positive.
+    * @throws IllegalArgumentException if the capacity is not positive.
     */
-   private void pushDouble( double num )
+   public TreeFactory( int cacheCapacity )
    {
-      _randStack.push( NodeFactory.createConstantNode( num ) );
+      _cache = new BoundedCache<String, ImmutableExpression>( cacheCapacity );
    }
 
    /**
-    * Pushes the specified variable onto the operand stack.
-    * 
-    * @param var The variable to push onto the operand stack.
+    * Returns the hit, miss and eviction counts of the parse cache.
+    *
+    * @return A snapshot of the counters, or null if this factory was
+    * created without a cache.
     */
-   private void pushVariable( String var )
+   public CacheStatistics getCacheStatistics()
    {
-      _randStack.push( NodeFactory.createVariableNode( var ) );
+      return _cache == null ? null : _cache.statistics();
    }
 
    /**
-    * Returns the opposite symbol for a grouping symbol.
-    * 
-    * @param ch The grouping symbol encountered.
-    * @return The opposite grouping symbol
+    * Builds the tree for the expression contained in the TreeFactory object.
+    * If this factory has a cache, the tree returned on a hit is a new copy,
+    * so callers may change it freely.
+    *
+    * @throws ExpressionException if the expression is invalid.
     */
-   private char opposite( char ch )
+   public ExpressionTree buildTree( String infix ) throws ExpressionException
    {
-      switch ( ch )
+      if ( _cache == null )
       {
-         case ')': return '(';
-         case '}': return '{';
-         case ']': return '[';
-         case '(': return ')';
-         case '{': return '}';
-         case '[': return ']';
-         default: return ch;
-      }
-   }
-   
-   /**
-    * Parses a LaTeX operator from a token.
-    * 
-    * @param token The token to parse.
-    * @throws ExpressionException
-    */
-   private void parseLatexFunction( String token ) throws ExpressionException
-   {
-      String function;
-      
-      if ( token.indexOf( "{" ) != -1 )
-      {
-         ParsePosition powPos = new ParsePosition( token.indexOf( "^" ) );
-         ParsePosition argPos = new ParsePosition( token.indexOf( "{" ) );
-         if ( powPos.getIndex() >= 0 )
-         {
-            function = token.substring( 0, 
-                  Math.min( powPos.getIndex(), argPos.getIndex() ) );
-         }
-         else
-         {
-            function = token.substring( 0, argPos.getIndex() );
-         }
-         if ( token.indexOf( "}", argPos.getIndex() ) <= -1 )
-         {
-            throw new ExpressionException( "unterminated {", token );
-         }
-         
-         // Parse the argument of the function
-         parseToken( token.substring( argPos.getIndex(), 
-                  token.indexOf( "}", argPos.getIndex() ) + 1 ) );
-         
-         if ( powPos.getIndex() >= 0 && powPos.getIndex() < argPos.getIndex() )
-         {
-            parseToken( token.substring( 
-                     powPos.getIndex() + 1, argPos.getIndex() ) );
-         }
-         else
-         {
-            parseToken( "1.0" );
-         }
-      }
-      else if ( token.indexOf( "[" ) != -1 )
-      {
-         throw new UnsupportedOperationException(
-                  "Root function is currently not supported." );
-      }
-      else
-      {
-         function = token;
+         return new ExpressionTree( Parser.parse( infix ) );
       }
 
-      pushTrigOpNode( function );
-   }
-
-   /**
-    * Parses an operator at the specified position within the string.
-    * 
-    * @param token The entire string being examined.
-    * @param pos The position within the string at which the operator occurred.
-    * @throws ExpressionException
-    */
-   private void parseOperator( String token, ParsePosition pos )
-      throws ExpressionException
-   {
-      char ch = token.charAt( pos.getIndex() );
-      
-      if ( ch == '(' || ch == '{' || ch == '[' )
+      ImmutableExpression cached = _cache.get( infix );
+      if ( cached != null )
       {
-         _opStack.push( String.valueOf( ch ) );
+         return new ExpressionTree( cached.toFoldedNode() );
       }
-      else if ( ch == ')' || ch == '}' || ch == ']' )
-      {
-         while( ! ( _opStack.isEmpty() ||
-               _opStack.peek().equals( String.valueOf( opposite( ch ) ) ) ) )
-         {
-            pushBinOpNode( _opStack.pop() );
-         }
-
-         if ( _opStack.isEmpty() )
-         {
-            throw new ExpressionException( "Missing operator." );
-         }
 
-         _opStack.pop(); // throw away the left parenthesis
+      AbstractNode root = Parser.parse( infix );
+      try
+      {
+         _cache.put( infix, ImmutableExpression.of( root ) );
       }
-      else
+      catch ( IllegalArgumentException e )
       {
-         String op = String.valueOf( ch );
-         while ( ! _opStack.isEmpty() &&
-               precedence( _opStack.peek() ) >= precedence( op ) )
-         {
-            pushBinOpNode( _opStack.pop() );
-         }
-         _opStack.push( op );
+         // Not a tree we can store, so parse it every time
       }
+      return new ExpressionTree( root );
    }
 
    /**
-    * parseToken()
-    * 
-    * Parses a token in the input string.
-    * 
-    * @param token The string to parse. 
-    * 
+    * Builds the tree for an expression held in a reusable buffer.  Unless
+    * this factory caches trees, the expression is parsed in place without
+    * being copied into a String.
+    *
     * @throws ExpressionException if the expression is invalid.
     */
-   private void parseToken( String token ) throws ExpressionException
+   ExpressionTree buildTree( CharSequence infix ) throws ExpressionException
    {
-      ParsePosition pos = new ParsePosition( 0 );
-
-      boolean needsMultiply = false;
-      while ( pos.getIndex() < token.length() )
+      if ( _cache == null )
       {
-         // First try to find a number
-         Number num = NumberFormat.getNumberInstance().parse( token, pos );
-         if ( num != null )
-         {
-            //System.err.println( "Next index: " + pos.getIndex() );
-            //System.err.println( "Token len: " + token.length() );
-            pushDouble( num.doubleValue() );
-            needsMultiply = true;
-            continue;
-         }
-
-         // Subtoken
-         char ch = token.charAt( pos.getIndex() );
-         String st = String.valueOf( ch );
-
-         if ( ch == ' ' )
-         {
-            // do nothing
-         }
-         else if ( ! OPERATORS.contains( st ) )
-         {
-            pushVariable( st );
-            if ( needsMultiply )
-            {
-               _opStack.push( "*" );
-            }
-            else
-            {
-               needsMultiply = true;
-            }
-         }
-         else
-         {
-         // We have an operator
-            if ( ch == '\\' )
-            {
-               if ( needsMultiply )
-               {
-                  needsMultiply = false;
-               }
-               else
-               {
-                  if ( !_opStack.isEmpty() && _opStack.peek().equals( "*" ) )
-                  {
-                     // we don't need this multiplication anymore since we
-                     // are capable of handling the multiplication.
-                     _opStack.pop();
-                  }
-                  else
-                  {
-                     pushDouble( 1.0 );
-                  }
-               }
-               parseLatexFunction( token.substring( pos.getIndex() + 1 ) );
-               pos.setIndex( token.indexOf( "}", pos.getIndex() + 1 ) );
-            }
-            else
-            {
-               needsMultiply = false;
-               parseOperator( token, pos );
-            }
-         }
-         pos.setIndex( pos.getIndex() + 1 );
+         return new ExpressionTree( Parser.parse( infix ) );
       }
+      return buildTree( infix.toString() );
    }
-   
+
    /**
-    * Builds the tree for the expression contained in the TreeFactory object.
+    * Returns a reader that builds a tree for each line of a character
+    * stream.
     *
-    * @throws ExpressionException if the expression is invalid.
+    * @param in The stream, which the reader closes when it is closed.
+    * @return The reader.
     */
-   public ExpressionTree buildTree( String infix ) throws ExpressionException
+   public ExpressionReader read( Reader in )
    {
-      _opStack = new Stack<String>();
-      _randStack = new Stack<AbstractNode>();
-
-      parseToken( infix );
-
-      while ( ! _opStack.isEmpty() )
-      {
-         pushBinOpNode( _opStack.pop() );
-      }
-
-      if ( _randStack.size() != 1 )
-      {
-         throw new ExpressionException(
-            "Invalid expression; too many operands or too few operators.",
-            infix );
-      }
-
-      ExpressionTree tree = new ExpressionTree( _randStack.pop() );
-      return tree;
+      return new ExpressionReader( this, in );
    }
 
    /**
-    * Builds the operator node from an operator and the top two items off of
-    * the operand stack, and pushes it onto the operand stack.
-    *
-    * @param op The operator.
-    * @param stack The operand stack.
+    * Returns a reader that builds a tree for each line of a buffer.
     *
-    * Throws ExpressionException if the expression is invalid.
+    * @param in The buffer, whose remaining bytes are read as UTF-8.
+    * @return The reader.
     */
-   private void pushBinOpNode( String op ) throws ExpressionException
+   public ExpressionReader read( ByteBuffer in )
    {
-      AbstractNode leftNode, rightNode;
-
-      if ( op.equals( "(" ) || op.equals( "{" ) || op.equals( "[" ) )
-      {
-         throw new ExpressionException( "Unterminated " + op );
-      }
-
-      if ( _randStack.size() < 2 )
-      {
-         throw new ExpressionException( "Not enough operands." );
-      }
-      
-      rightNode = _randStack.pop();
-      leftNode = _randStack.pop();
-
-      _randStack.push( NodeFactory.createNode( op, leftNode, rightNode ) );
+      return new ExpressionReader( this, in );
    }
-   
+
    /**
-    * Builds the trig operator node from an operator and the top two items off 
-    * of the operand stack, and pushes it onto the operand stack.
-    *
-    * @param op The operator.
-    * @param stack The operand stack.
+    * Returns a reader that builds a tree for each line of a UTF-8 file.
+    * Files small enough to fit a single buffer are memory-mapped; larger
+    * ones are read as a stream.
     *
-    * Throws ExpressionException if the expression is invalid.
+    * @param file The file.
+    * @return The reader.
+    * @throws IOException if the file cannot be opened.
     */
-   private void pushTrigOpNode( String op ) throws ExpressionException
+   public ExpressionReader read( Path file ) throws IOException
+   {
+      try ( FileChannel channel = FileChannel.open( file,
+               StandardOpenOption.READ ) )
       {
-         AbstractNode leftNode, rightNode, power;
-
-         if ( op.equals( "(" ) || op.equals( "{" ) || op.equals( "[" ) )
+         long size = channel.size();
+         if ( size <= Integer.MAX_VALUE )
          {
-            throw new ExpressionException( "Unterminated " + op );
+            return read( channel.map( FileChannel.MapMode.READ_ONLY, 0,
+                     size ) );
          }
-
-         if ( _randStack.size() < 3 )
-         {
-            throw new ExpressionException( "Not enough operands." );
-         }
-
-         power = _randStack.pop();
-         rightNode = _randStack.pop();
-         leftNode = _randStack.pop();
-         
-         _randStack.push( NodeFactory.createTrigNode( 
-                  op, leftNode, rightNode, power ) );
-      }
-
-   /*
-    * precedence()
-    *
-    * Returns an integer indicating the precedence of the operator.
-    *
-    * Necessary since some operators share a precedence level.
-    */
-   private static int precedence( String op )
-   {
-      switch ( op.charAt( 0 ) )
-      {
-         case '(': // fall-through
-         case ')':
-            return 0;
-         case '+': // fall-through
-         case '-':
-            return 1;
-         case '*': // fall-through
-         case '/': // fall-through
-         case '%':
-            return 2;
-         case '^':
-            return 3;
-         default:
-            return -1;
       }
+      return read( Files.newBufferedReader( file, StandardCharsets.UTF_8 ) );
    }
 }
@@ -22,8 +22,6 @@
 package calchelper.tree;
 
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Set;
 
 /**
  * A node type to handle trigonometric functions with a coefficient term in 
@@ -86,6 +84,22 @@ abstract class TrigOperatorNode extends OperatorNode
       return getNode( 2 );
    }
    
+   /**
+    * Evaluates coefficient * f( argument ) ^ power with the given variable
+    * values.
+    */
+   public double evaluate( double[] slots )
+   {
+      double value = apply( getArgument().evaluate( slots ) );
+      return getCoefficientTerm().evaluate( slots )
+               * Program.power( value, getPower().evaluate( slots ) );
+   }
+
+   /**
+    * Applies the function to a value.
+    */
+   protected abstract double apply( double x );
+
    /**
     * Returns the additive inverse of the node.
     */
@@ -113,6 +127,11 @@ abstract class TrigOperatorNode extends OperatorNode
       {
          init( "sin", coefficient, argument, power );
       }
+
+      protected double apply( double x )
+      {
+         return Math.sin( x );
+      }
       
       public AbstractNode derive()
       {
@@ -139,15 +158,12 @@ abstract class TrigOperatorNode extends OperatorNode
             Polynomial poly = (Polynomial)getArgument();
             if( poly.termCount() == 1)
             {
-               //Get the key
-               Set<Double> keys = poly.getMap().keySet();
-               Object keyArray[] = keys.toArray();
+               //Get the power and coefficient of the only term
+               int term = poly.getTerms().first();
+               double key = poly.getTerms().power( term );
+               double value = poly.getTerms().coefficient( term );
 
-               //Get the value
-               Collection<Double> values = poly.getMap().values();
-               Object valuesArray[] = values.toArray();
-
-               AbstractNode coef = NodeFactory.createConstantNode( (Double)valuesArray[0] / (Double)keyArray[0] );
+               AbstractNode coef = NodeFactory.createConstantNode( value / key );
                AbstractNode cos = NodeFactory.createNode( "cos", coef, getArgument() );
                AbstractNode invCos = cos.inverse();
                return invCos;
@@ -172,6 +188,11 @@ abstract class TrigOperatorNode extends OperatorNode
       {
          init( "cos", coefficient, argument, power );
       }
+
+      protected double apply( double x )
+      {
+         return Math.cos( x );
+      }
       
       public AbstractNode derive()
       {
@@ -198,15 +219,12 @@ abstract class TrigOperatorNode extends OperatorNode
             Polynomial poly = (Polynomial)getArgument();
             if( poly.termCount() == 1)
             {               
-               //Get the key
-               Set<Double> keys = poly.getMap().keySet();
-               Object keyArray[] = keys.toArray();
+               //Get the power and coefficient of the only term
+               int term = poly.getTerms().first();
+               double key = poly.getTerms().power( term );
+               double value = poly.getTerms().coefficient( term );
 
-               //Get the value
-               Collection<Double> values = poly.getMap().values();
-               Object valuesArray[] = values.toArray();
-
-               AbstractNode coef = NodeFactory.createConstantNode( (Double)valuesArray[0] / (Double)keyArray[0] );
+               AbstractNode coef = NodeFactory.createConstantNode( value / key );
                AbstractNode sin = NodeFactory.createNode( "sin", coef, getArgument() );
                return sin;
             }
@@ -229,6 +247,11 @@ abstract class TrigOperatorNode extends OperatorNode
       {
          init( "tan", coefficient, argument, power );
       }
+
+      protected double apply( double x )
+      {
+         return Math.tan( x );
+      }
       
       public AbstractNode derive()
       {
@@ -274,6 +297,11 @@ abstract class TrigOperatorNode extends OperatorNode
       {
          init( "cot", coefficient, argument, power );
       }
+
+      protected double apply( double x )
+      {
+         return 1.0 / Math.tan( x );
+      }
       
       public AbstractNode derive()
       {
@@ -318,6 +346,11 @@ abstract class TrigOperatorNode extends OperatorNode
       {
          init( "sec", coefficient, argument, power );
       }
+
+      protected double apply( double x )
+      {
+         return 1.0 / Math.cos( x );
+      }
       
       public AbstractNode derive()
       {
@@ -343,16 +376,12 @@ abstract class TrigOperatorNode extends OperatorNode
             // Make a node to represent the new coefficient
             if( poly.termCount() == 1)
             {               
-               //Get the key
-               Set<Double> keys = poly.getMap().keySet();
-               Object keyArray[] = keys.toArray();
-
-               //Get the value
-               Collection<Double> values = poly.getMap().values();
-               Object valuesArray[] = values.toArray();
+               //Get the power and coefficient of the only term
+               int term = poly.getTerms().first();
+               double key = poly.getTerms().power( term );
+               double value = poly.getTerms().coefficient( term );
                
-               AbstractNode coef = NodeFactory.createConstantNode( (Double)valuesArray[0] /
-                        (Double)keyArray[0] );
+               AbstractNode coef = NodeFactory.createConstantNode( value / key );
                AbstractNode tan = NodeFactory.createNode( "tan", coef, getArgument() );
                return tan;
             }
@@ -373,6 +402,11 @@ abstract class TrigOperatorNode extends OperatorNode
       {
          init( "csc", coefficient, argument, power );
       }
+
+      protected double apply( double x )
+      {
+         return 1.0 / Math.sin( x );
+      }
             
       public AbstractNode derive()
       {
@@ -400,16 +434,12 @@ abstract class TrigOperatorNode extends OperatorNode
             // Make a node to represent the new coefficient
             if( poly.termCount() == 1)
             {               
-               //Get the key
-               Set<Double> keys = poly.getMap().keySet();
-               Object keyArray[] = keys.toArray();
-
-               //Get the value
-               Collection<Double> values = poly.getMap().values();
-               Object valuesArray[] = values.toArray();
+               //Get the power and coefficient of the only term
+               int term = poly.getTerms().first();
+               double key = poly.getTerms().power( term );
+               double value = poly.getTerms().coefficient( term );
                
-               AbstractNode coef = NodeFactory.createConstantNode( (Double)valuesArray[0] /
-                        (Double)keyArray[0] );
+               AbstractNode coef = NodeFactory.createConstantNode( value / key );
                AbstractNode cot = NodeFactory.createNode( "cot", coef, getArgument() );
                return cot.inverse();
             }
@@ -432,6 +462,11 @@ abstract class TrigOperatorNode extends OperatorNode
       {
          init( "ln", coefficient, argument, power );
       }
+
+      protected double apply( double x )
+      {
+         return Math.log( x );
+      }
       
       public AbstractNode derive()
       {
@@ -463,7 +498,7 @@ abstract class TrigOperatorNode extends OperatorNode
     */
    public void setCoefficientTerm( AbstractNode node )
    {
-      _children.set( 0, node );
+      setChild( 0, node );
    }
    
    /**
@@ -471,7 +506,7 @@ abstract class TrigOperatorNode extends OperatorNode
     */
    public void setArgument( AbstractNode node )
    {
-      _children.set( 1, node );
+      setChild( 1, node );
    }
    
    /**
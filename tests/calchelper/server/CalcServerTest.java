@@ -0,0 +1,105 @@
+package calchelper.server;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * JUnit-based test harness for the HTTP server, run against a server on
+ * the loopback interface.
+ *
+ * @author Patrick MacArthur
+ */
+
+public class CalcServerTest
+{
+   private CalcServer _server;
+
+   @Before public void setUp() throws IOException
+   {
+      _server = new CalcServer( new InetSocketAddress(
+               InetAddress.getLoopbackAddress(), 0 ), 64 );
+      _server.start();
+   }
+
+   @After public void tearDown()
+   {
+      _server.stop();
+   }
+
+   /**
+    * Sends a request and returns the status and body, separated by a
+    * space.
+    */
+   private String request( String path, String body ) throws IOException
+   {
+      URL url = new URL( "http", InetAddress.getLoopbackAddress()
+               .getHostAddress(), _server.getPort(), path );
+      HttpURLConnection connection = ( HttpURLConnection ) url.openConnection();
+      if ( body != null )
+      {
+         connection.setRequestMethod( "POST" );
+         connection.setDoOutput( true );
+         OutputStream out = connection.getOutputStream();
+         out.write( body.getBytes( StandardCharsets.UTF_8 ) );
+         out.close();
+      }
+
+      int status = connection.getResponseCode();
+      InputStream in = status < 400 ? connection.getInputStream()
+               : connection.getErrorStream();
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      byte[] buffer = new byte[ 1024 ];
+      for ( int n = in.read( buffer ); n >= 0; n = in.read( buffer ) )
+      {
+         bytes.write( buffer, 0, n );
+      }
+      in.close();
+      return status + " " + bytes.toString( "UTF-8" );
+   }
+
+   @Test public void deriveTest() throws IOException
+   {
+      String response = request( "/derive", "x^2\n\n( x + 1\n3x\n" );
+      String[] lines = response.substring( 4 ).split( "\n" );
+
+      assertTrue( response.startsWith( "200 " ) );
+      assertEquals( 3, lines.length );
+      assertTrue( lines[ 1 ].startsWith( "error: " ) );
+   }
+
+   @Test public void evaluateTest() throws IOException
+   {
+      assertEquals( "200 18.0\n",
+               request( "/evaluate?expr=x%5E2+*+y&x=3&y=2", null ) );
+      assertEquals( "200 error: no value for y\n",
+               request( "/evaluate?expr=x*y&x=3", null ) );
+   }
+
+   @Test public void emptyRequestTest() throws IOException
+   {
+      assertTrue( request( "/simplify", null ).startsWith( "400 " ) );
+   }
+
+   @Test public void metricsTest() throws IOException
+   {
+      request( "/integrate?expr=2x", null );
+      request( "/integrate?expr=2x", null );
+      String metrics = request( "/metrics", null );
+
+      assertTrue( metrics, metrics.contains( "/integrate count=2 " ) );
+      assertTrue( metrics, metrics.contains( "parse cache hits=1 misses=1" ) );
+   }
+}
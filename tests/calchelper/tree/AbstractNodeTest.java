@@ -0,0 +1,136 @@
+package calchelper.tree;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+
+import org.junit.Test;
+
+/**
+ * JUnit-based test harness for the hash codes of nodes.
+ *
+ * @author Patrick MacArthur
+ */
+
+public class AbstractNodeTest
+{
+   private static AbstractNode parse( String infix ) throws ExpressionException
+   {
+      return new TreeFactory().buildTree( infix ).getRoot();
+   }
+
+   @Test public void equalTreesTest() throws ExpressionException
+   {
+      String[] expressions = { "3x^2 + 2x + 1", "( 5 * x ) / ( 4 + x )",
+               "2 * \\sin{ 2x }", "\\sec^2{ x } - \\ln{ x }", "x * y + 1" };
+      HashSet<AbstractNode> nodes = new HashSet<AbstractNode>();
+      for ( String infix : expressions )
+      {
+         AbstractNode first = parse( infix );
+         AbstractNode second = parse( infix );
+         assertEquals( infix, first, second );
+         assertEquals( infix, first.hashCode(), second.hashCode() );
+         assertEquals( infix, first.hashCode(), first.hashCode() );
+         nodes.add( first );
+         nodes.add( second );
+      }
+      assertEquals( expressions.length, nodes.size() );
+   }
+
+   @Test public void constantTest()
+   {
+      // Constants are equal whatever their variable
+      PolynomialTerms terms = new PolynomialTerms();
+      terms.put( 0.0, 3.0 );
+      AbstractNode constant = new Polynomial( terms,
+               SymbolTable.symbol( "x" ) );
+      assertEquals( new Polynomial( 3.0 ), constant );
+      assertEquals( new Polynomial( 3.0 ).hashCode(), constant.hashCode() );
+   }
+
+   @Test public void mutationTest() throws ExpressionException
+   {
+      // Changing a node deep in a tree changes the hash codes above it
+      BinaryOperatorNode product = new BinaryOperatorNode.Multiplication(
+               parse( "\\sin{ x }" ), parse( "\\cos{ x }" ) );
+      BinaryOperatorNode sum = new BinaryOperatorNode.Addition( product,
+               parse( "\\ln{ x }" ) );
+      int before = sum.hashCode();
+
+      product.setLeft( parse( "\\sin{ 2x }" ) );
+      BinaryOperatorNode expected = new BinaryOperatorNode.Addition(
+               new BinaryOperatorNode.Multiplication( parse( "\\sin{ 2x }" ),
+                        parse( "\\cos{ x }" ) ), parse( "\\ln{ x }" ) );
+      assertEquals( expected, sum );
+      assertEquals( expected.hashCode(), sum.hashCode() );
+      assertTrue( before != sum.hashCode() );
+
+      TrigOperatorNode log = ( TrigOperatorNode ) sum.getRight();
+      log.setArgument( parse( "x^2" ) );
+      expected.setRight( parse( "\\ln{ x^2 }" ) );
+      assertEquals( expected.hashCode(), sum.hashCode() );
+   }
+
+   /**
+    * Builds a balanced sum of x's with the given number of levels, whose
+    * operators count the hash codes they compute.
+    */
+   private static AbstractNode countingSum( int levels, final int[] count )
+   {
+      if ( levels == 0 )
+      {
+         return NodeFactory.createVariableNode( "x" );
+      }
+      return new BinaryOperatorNode.Addition( countingSum( levels - 1, count ),
+               countingSum( levels - 1, count ) )
+      {
+         protected int structuralHash()
+         {
+            ++count[ 0 ];
+            return super.structuralHash();
+         }
+      };
+   }
+
+   @Test public void cachedOperatorTest() throws ExpressionException
+   {
+      // Asking again does not walk the tree, and a change deep in it only
+      // computes the hash codes of the operators above it again
+      int[] count = { 0 };
+      BinaryOperatorNode root = ( BinaryOperatorNode ) countingSum( 10,
+               count );
+      int hash = root.hashCode();
+      assertEquals( 1023, count[ 0 ] );
+      assertEquals( hash, root.hashCode() );
+      assertEquals( 1023, count[ 0 ] );
+
+      BinaryOperatorNode node = root;
+      for ( int level = 1; level < 10; ++level )
+      {
+         node = ( BinaryOperatorNode ) node.getLeft();
+      }
+      node.setLeft( parse( "2y" ) );
+      int changed = root.hashCode();
+      assertEquals( 1033, count[ 0 ] );
+      assertTrue( changed != hash );
+
+      int[] unused = { 0 };
+      BinaryOperatorNode expected = ( BinaryOperatorNode ) countingSum( 10,
+               unused );
+      node = expected;
+      for ( int level = 1; level < 10; ++level )
+      {
+         node = ( BinaryOperatorNode ) node.getLeft();
+      }
+      node.setLeft( parse( "2y" ) );
+      assertEquals( expected.hashCode(), changed );
+   }
+
+   @Test public void treeTest() throws ExpressionException
+   {
+      TreeFactory factory = new TreeFactory();
+      HashSet<ExpressionTree> trees = new HashSet<ExpressionTree>();
+      trees.add( factory.buildTree( "x^2 * \\sin{ x }" ) );
+      assertTrue( trees.contains( factory.buildTree( "x^2 * \\sin{ x }" ) ) );
+   }
+}
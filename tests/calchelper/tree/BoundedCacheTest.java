@@ -0,0 +1,59 @@
+package calchelper.tree;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * JUnit-based test harness for the bounded cache.
+ *
+ * @author Patrick MacArthur
+ */
+
+public class BoundedCacheTest
+{
+   @Test public void hitMissTest()
+   {
+      BoundedCache<String, String> cache = new BoundedCache<String, String>( 8 );
+      cache.put( "a", "1" );
+
+      assertEquals( "1", cache.get( "a" ) );
+      assertNull( cache.get( "b" ) );
+
+      CacheStatistics stats = cache.statistics();
+      assertEquals( 1, stats.getHitCount() );
+      assertEquals( 1, stats.getMissCount() );
+      assertEquals( 0.5, stats.getHitRate(), 0.0 );
+      assertEquals( 1, stats.getSize() );
+   }
+
+   @Test public void evictionTest()
+   {
+      BoundedCache<Integer, Integer> cache =
+         new BoundedCache<Integer, Integer>( 100 );
+      for ( int i = 0; i < 1000; ++i )
+      {
+         cache.put( i, i );
+      }
+
+      CacheStatistics stats = cache.statistics();
+      assertTrue( stats.getSize() <= 100 );
+      assertEquals( 1000 - stats.getSize(), stats.getEvictionCount() );
+   }
+
+   @Test public void leastRecentlyUsedTest()
+   {
+      // One stripe, so eviction order is exact
+      BoundedCache<String, String> cache = new BoundedCache<String, String>( 3 );
+      cache.put( "a", "1" );
+      cache.put( "b", "2" );
+      cache.put( "c", "3" );
+      cache.get( "a" );
+      cache.put( "d", "4" );
+
+      assertNull( cache.get( "b" ) );
+      assertEquals( "1", cache.get( "a" ) );
+      assertEquals( "3", cache.get( "c" ) );
+      assertEquals( "4", cache.get( "d" ) );
+   }
+}
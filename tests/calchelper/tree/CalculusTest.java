@@ -0,0 +1,71 @@
+package calchelper.tree;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * JUnit-based test harness for batch differentiation and integration.
+ *
+ * @author Patrick MacArthur
+ */
+
+public class CalculusTest
+{
+   @Test public void deriveAllTest() throws ExpressionException
+   {
+      List<String> expressions = new ArrayList<String>();
+      for ( int i = 1; i <= 500; ++i )
+      {
+         expressions.add( i + "x^" + ( i % 7 + 2 ) + " + \\sin{ " + i + "x }" );
+      }
+
+      List<Calculus.Result> results = new Calculus().deriveAll( expressions );
+
+      assertEquals( expressions.size(), results.size() );
+      for ( int i = 0; i < expressions.size(); ++i )
+      {
+         Calculus.Result result = results.get( i );
+         ExpressionTree expected = TreeFactoryTest.buildTreeFromString(
+                  expressions.get( i ) );
+         expected.simplify();
+
+         assertTrue( result.isSuccess() );
+         assertEquals( expressions.get( i ), result.getExpression() );
+         assertEquals( expected.derive(), result.getTree() );
+      }
+   }
+
+   @Test public void failureTest()
+   {
+      List<String> expressions = Arrays.asList( "x^2", "( x + 1",
+               "\\sin{ x } * \\cos{ x }", "\\foo{ x }", "2x + 1" );
+
+      List<Calculus.Result> results = new Calculus( new TreeFactory( 16 ) )
+               .integrateAll( expressions );
+
+      assertTrue( results.get( 0 ).isSuccess() );
+      assertTrue( results.get( 1 ).getError() instanceof ExpressionException );
+      assertNull( results.get( 1 ).getTree() );
+      assertTrue( results.get( 2 ).getError()
+               instanceof UnsupportedOperationException );
+      assertTrue( results.get( 3 ).getError()
+               instanceof UnsupportedOperationException );
+      assertTrue( results.get( 4 ).isSuccess() );
+   }
+
+   @Test public void simplifyAllTest() throws ExpressionException
+   {
+      List<Calculus.Result> results = new Calculus().simplifyAll(
+               Arrays.asList( "( 2 + 3 ) * x", "x * x" ) );
+
+      assertEquals( TreeFactoryTest.buildTreeFromString( "5x" ),
+               results.get( 0 ).getTree() );
+      assertEquals( TreeFactoryTest.buildTreeFromString( "x^2" ),
+               results.get( 1 ).getTree() );
+   }
+}
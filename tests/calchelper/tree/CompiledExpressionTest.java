@@ -0,0 +1,256 @@
+package calchelper.tree;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * JUnit-based test harness for compiled expressions.
+ *
+ * @author Patrick MacArthur
+ */
+
+public class CompiledExpressionTest
+{
+   private static final double DELTA = 1e-12;
+
+   public static CompiledExpression compile( String infix, String... variables )
+         throws ExpressionException
+   {
+      TreeFactory factory = new TreeFactory();
+      ExpressionTree tree = factory.buildTree( infix );
+      return tree.compile( variables );
+   }
+
+   @Test public void polynomialTest() throws ExpressionException
+   {
+      CompiledExpression expr = compile( "3x^2 + 2x + 1" );
+
+      assertEquals( 1.0, expr.evaluate( 0.0 ), DELTA );
+      assertEquals( 6.0, expr.evaluate( 1.0 ), DELTA );
+      assertEquals( 17.0, expr.evaluate( 2.0 ), DELTA );
+   }
+
+   @Test public void sparsePolynomialTest() throws ExpressionException
+   {
+      CompiledExpression expr = compile( "x^0.5 + 3x^2" );
+
+      assertEquals( 50.0, expr.evaluate( 4.0 ), DELTA );
+      assertEquals( 50.0, new TreeFactory().buildTree( "x^0.5 + 3x^2" )
+               .compileToBytecode().evaluate( 4.0 ), DELTA );
+   }
+
+   @Test public void constantTest() throws ExpressionException
+   {
+      CompiledExpression expr = compile( "( 4 / ( 5 + 5 ) )" );
+
+      assertEquals( 0, expr.getVariables().length );
+      assertEquals( 1, expr.getOperationCount() );
+      assertEquals( 0.4, expr.evaluate(), DELTA );
+   }
+
+   @Test public void sineTest() throws ExpressionException
+   {
+      CompiledExpression expr = compile( "3 * \\sin{ 2x }" );
+
+      for ( double x = -2.0; x <= 2.0; x += 0.25 )
+      {
+         assertEquals( 3 * Math.sin( 2 * x ), expr.evaluate( x ), DELTA );
+      }
+   }
+
+   @Test public void trigPowerTest() throws ExpressionException
+   {
+      CompiledExpression expr = compile( "\\sec^2{ x }" );
+
+      double sec = 1 / Math.cos( 0.3 );
+      assertEquals( sec * sec, expr.evaluate( 0.3 ), DELTA );
+   }
+
+   @Test public void quotientTest() throws ExpressionException
+   {
+      CompiledExpression expr = compile( "( 5 * x ) / ( 4 + x )" );
+
+      assertEquals( 5.0 / 5.0, expr.evaluate( 1.0 ), DELTA );
+      assertEquals( 10.0 / 6.0, expr.evaluate( 2.0 ), DELTA );
+   }
+
+   @Test public void twoVariableTest() throws ExpressionException
+   {
+      CompiledExpression expr = compile( "x * \\cos{ y }", "y", "x" );
+
+      assertArrayEquals( new String[] { "y", "x" }, expr.getVariables() );
+      assertEquals( 2 * Math.cos( 0.5 ), expr.evaluate( 0.5, 2.0 ), DELTA );
+   }
+
+   @Test public void functionTest() throws ExpressionException
+   {
+      CompiledExpression expr = compile( "x ^ 2 + 1" );
+
+      assertEquals( 10.0, expr.asFunction().applyAsDouble( 3.0 ), DELTA );
+   }
+
+   @Test public void bytecodeTest() throws ExpressionException
+   {
+      String[] expressions = { "3x^2 + 2x + 1", "( 5 * x ) / ( 4 + x )",
+               "2 * \\sin{ 2x }", "\\cos{ x } * \\tan{ x }", "\\sec^2{ x }",
+               "\\csc{ x } * \\cot{ x }", "x * \\ln{ x }",
+               "( x + 1 ) ^ 0.5" };
+
+      for ( String infix : expressions )
+      {
+         ExpressionTree tree = new TreeFactory().buildTree( infix );
+         CompiledExpression interpreted = tree.compile();
+         CompiledExpression generated = tree.compileToBytecode();
+         assertTrue( generated.isGenerated() );
+
+         for ( double x = 0.25; x < 3.0; x += 0.25 )
+         {
+            assertEquals( infix, interpreted.evaluate( x ),
+                     generated.evaluate( x ), DELTA );
+         }
+      }
+   }
+
+   @Test public void bytecodeTwoVariableTest() throws ExpressionException
+   {
+      CompiledExpression expr = new TreeFactory().buildTree(
+               "x * \\cos{ y }" ).compileToBytecode();
+
+      assertEquals( 2 * Math.cos( 0.5 ), expr.evaluate( 2.0, 0.5 ), DELTA );
+   }
+
+   @Test public void evaluateAllTest() throws ExpressionException
+   {
+      ExpressionTree tree = new TreeFactory().buildTree(
+               "( 3x^2 + 1 ) * \\cos{ x }" );
+      double[] xs = new double[ 1000 ];
+      for ( int i = 0; i < xs.length; ++i )
+      {
+         xs[ i ] = i / 250.0 - 2.0;
+      }
+
+      CompiledExpression[] backends = { tree.compile(),
+               tree.compileToBytecode() };
+      for ( CompiledExpression expr : backends )
+      {
+         double[] out = new double[ xs.length ];
+         expr.evaluateAll( xs, out );
+         for ( int i = 0; i < xs.length; ++i )
+         {
+            assertEquals( expr.evaluate( xs[ i ] ), out[ i ], DELTA );
+         }
+      }
+   }
+
+   @Test public void evaluateColumnsTest() throws ExpressionException
+   {
+      CompiledExpression expr = compile( "x * \\sin{ y }" );
+      double[] xs = { 1.0, 2.0, 3.0 };
+      double[] ys = { 0.5, 1.0, 1.5 };
+      double[] out = new double[ 3 ];
+
+      expr.evaluateAll( new double[][] { xs, ys }, out );
+
+      for ( int i = 0; i < out.length; ++i )
+      {
+         assertEquals( xs[ i ] * Math.sin( ys[ i ] ), out[ i ], DELTA );
+      }
+   }
+
+   @Test public void shortColumnTest() throws ExpressionException
+   {
+      // A short column is rejected before any value is written
+      CompiledExpression expr = compile( "x * \\sin{ y }" );
+      double[] out = { 7.0, 7.0, 7.0 };
+      try
+      {
+         expr.evaluateAll( new double[][] { { 1.0, 2.0, 3.0 }, { 0.5 } },
+                           out );
+         fail( "Expected IllegalArgumentException" );
+      }
+      catch ( IllegalArgumentException e )
+      {
+         assertArrayEquals( new double[] { 7.0, 7.0, 7.0 }, out, DELTA );
+      }
+   }
+
+   @Test( expected = IllegalArgumentException.class )
+   public void shortOutputTest() throws ExpressionException
+   {
+      compile( "x ^ 2" ).evaluateAll( new double[] { 1.0, 2.0, 3.0 },
+                                       new double[ 2 ] );
+   }
+
+   @Test public void treeEvaluateTest() throws ExpressionException
+   {
+      ExpressionTree tree = new TreeFactory().buildTree( "x ^ 2 + 1" );
+      double[] xs = { 0.0, 1.0, 2.0 };
+      double[] out = new double[ 3 ];
+
+      tree.evaluate( "x", xs, out );
+
+      assertArrayEquals( new double[] { 1.0, 2.0, 5.0 }, out, DELTA );
+   }
+
+   @Test public void sharedSubexpressionTest() throws ExpressionException
+   {
+      // sin( x ) * sin( x ) loads x and takes the sine once
+      TreeFactory factory = new TreeFactory();
+      ExpressionTree square = new ExpressionTree(
+               new BinaryOperatorNode.Multiplication(
+                        factory.buildTree( "\\sin{ x }" ).getRoot(),
+                        factory.buildTree( "\\sin{ x }" ).getRoot() ) );
+      CompiledExpression expr = square.compile();
+
+      assertEquals( 3, expr.getOperationCount() );
+      assertEquals( 5, expr.getUnsharedOperationCount() );
+      assertEquals( Math.sin( 0.7 ) * Math.sin( 0.7 ), expr.evaluate( 0.7 ),
+                    DELTA );
+
+      // The product and quotient rules repeat their operands
+      ExpressionTree tree = factory.buildTree(
+               "\\sin{ x } * \\cos{ x } / ( x^2 + 1 )" ).derive().derive();
+      expr = tree.compile();
+      assertTrue( expr.getOperationCount()
+                  < expr.getUnsharedOperationCount() );
+      for ( double x = 0.5; x < 3.0; x += 0.5 )
+      {
+         assertEquals( tree.compileToBytecode().evaluate( x ),
+                       expr.evaluate( x ), DELTA );
+      }
+   }
+
+   @Test public void gradientTest() throws ExpressionException
+   {
+      CompiledExpression expr = compile(
+               "x^2 * \\sin{ y } + \\cos{ z } / x - \\ln{ y }", "x", "y", "z" );
+      double[] gradient = new double[ 3 ];
+
+      for ( double t = 0.2; t < 2.0; t += 0.3 )
+      {
+         double x = t;
+         double y = 1.5 * t;
+         double z = 2.0 - t;
+         double value = expr.evaluateWithGradient(
+                  new double[] { x, y, z }, gradient );
+
+         assertEquals( expr.evaluate( x, y, z ), value, DELTA );
+         assertEquals( 2 * x * Math.sin( y ) - Math.cos( z ) / ( x * x ),
+                       gradient[ 0 ], 1e-9 );
+         assertEquals( x * x * Math.cos( y ) - 1 / y, gradient[ 1 ], 1e-9 );
+         assertEquals( -Math.sin( z ) / x, gradient[ 2 ], 1e-9 );
+         for ( int i = 0; i < 3; ++i )
+         {
+            assertEquals( expr.derivative( i, x, y, z ), gradient[ i ],
+                          1e-9 );
+         }
+      }
+   }
+
+   @Test( expected = ExpressionException.class )
+   public void unboundVariableTest() throws ExpressionException
+   {
+      compile( "x * \\cos{ y }", "x" );
+   }
+}
@@ -0,0 +1,63 @@
+package calchelper.tree;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * JUnit-based test harness for polynomial multiplication.
+ *
+ * @author Patrick MacArthur
+ */
+
+public class ConvolutionTest
+{
+   private static long[] random( Random random, int length, int bound )
+   {
+      long[] a = new long[ length ];
+      for ( int i = 0; i < length; ++i )
+      {
+         a[ i ] = random.nextInt( 2 * bound + 1 ) - bound;
+      }
+      return a;
+   }
+
+   @Test public void karatsubaTest()
+   {
+      Random random = new Random( 42 );
+      int[][] lengths = { { 32, 32 }, { 100, 37 }, { 33, 250 }, { 511, 64 } };
+      for ( int[] length : lengths )
+      {
+         long[] a = random( random, length[ 0 ], 1000 );
+         long[] b = random( random, length[ 1 ], 1000 );
+
+         assertArrayEquals( Convolution.schoolbook( a, b ),
+                  Convolution.karatsuba( a, b ) );
+      }
+   }
+
+   @Test public void transformTest()
+   {
+      Random random = new Random( 17 );
+      int[][] lengths = { { 1, 1 }, { 3, 5 }, { 512, 512 }, { 600, 1500 } };
+      for ( int[] length : lengths )
+      {
+         long[] a = random( random, length[ 0 ], 100000 );
+         long[] b = random( random, length[ 1 ], 100000 );
+
+         assertArrayEquals( Convolution.schoolbook( a, b ),
+                  Convolution.transform( a, b ) );
+      }
+   }
+
+   @Test public void exactTest()
+   {
+      long[] small = { 1, -2, 3 };
+      long[] large = { 1L << 50, 1L << 50 };
+
+      assertTrue( Convolution.isExact( small, small ) );
+      assertFalse( Convolution.isExact( large, small ) );
+   }
+}
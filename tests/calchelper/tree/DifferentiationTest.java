@@ -1,6 +1,7 @@
 package calchelper.tree;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import java.util.HashMap;
 import org.junit.Before;
 import org.junit.Test;
@@ -119,4 +120,113 @@ public class DifferentiationTest
       assertEquals( expected, actual );
    }
    
-}
\ No newline at end of file
+   
+   @Test public void cacheTest() throws ExpressionException
+   {
+      ExpressionTree tree = new TreeFactory().buildTree(
+               "3 * \\sin{ 2x^3 + 7x }" );
+      String original = tree.toString();
+      
+      ExpressionTree first = tree.derive();
+      CacheStatistics before = ExpressionTree.getCacheStatistics();
+      ExpressionTree second = tree.derive();
+      CacheStatistics after = ExpressionTree.getCacheStatistics();
+      
+      assertEquals( before.getHitCount() + 1, after.getHitCount() );
+      assertEquals( first.toString(), second.toString() );
+      assertTrue( first.getRoot() != second.getRoot() );
+      assertEquals( original, tree.toString() );
+   }
+   
+   @Test public void sharedSubexpressionTest()
+   {
+      ImmutableExpression x = ImmutableExpression.of(
+               NodeFactory.createVariableNode( "x" ) );
+      ImmutableExpression shared = ImmutableExpression.function(
+               ImmutableExpression.SIN, x, x, ImmutableExpression.constant( 1.0 ) );
+      shared.derive( "x" );
+      
+      // Only the new product misses; its operands' derivatives are cached
+      CacheStatistics before = ExpressionTree.getCacheStatistics();
+      ImmutableExpression.binary( ImmutableExpression.MUL, shared, shared )
+               .derive( "x" );
+      CacheStatistics after = ExpressionTree.getCacheStatistics();
+      
+      assertEquals( before.getMissCount() + 1, after.getMissCount() );
+      assertEquals( before.getHitCount() + 2, after.getHitCount() );
+   }
+   
+   //==================== AUTOMATIC DIFFERENTIATION TESTS =====================
+   @Test public void cachedMultivariableTest() throws ExpressionException
+   {
+      // A cache hit gives the same tree as the miss before it
+      ExpressionTree tree = new TreeFactory().buildTree( "x^2 * y" );
+      ExpressionTree first = tree.derive();
+      ExpressionTree second = tree.derive();
+      assertTrue( first.getRoot() instanceof MultiPolynomial );
+      assertEquals( first, second );
+      assertEquals( first.toString(), second.toString() );
+   }
+
+   @Test public void dualNumberTest() throws ExpressionException
+   {
+      // Forward-mode derivatives agree with the symbolic ones
+      String[] expressions = { "\\sin{ 2x }", "\\cos{ 2 * x }",
+         "\\tan{ 2 * x }", "\\cot{ 2 * x }", "\\sec{ 2 * x }",
+         "\\csc{ 2 * x }", "5x^3 - x^0.5 + 2", "( 5 * x ) / ( 4 + x )",
+         "x^3 / ( x^2 + 1 )", "3 * \\sin{ 2x^3 + 7x }" };
+      for ( String infix : expressions )
+      {
+         ExpressionTree tree = new TreeFactory().buildTree( infix );
+         CompiledExpression dual = tree.compile( "x" );
+         CompiledExpression symbolic = tree.derive().compile( "x" );
+         double[] result = new double[ 2 ];
+         for ( double x = 0.1; x < 1.5; x += 0.2 )
+         {
+            dual.evaluateWithDerivative( 0, new double[] { x }, result );
+            assertEquals( infix, dual.evaluate( x ), result[ 0 ], 1e-12 );
+            assertEquals( infix, symbolic.evaluate( x ), result[ 1 ],
+                          1e-9 * Math.max( 1.0, Math.abs( result[ 1 ] ) ) );
+         }
+      }
+   }
+   
+   @Test public void dualNumberRulesTest() throws ExpressionException
+   {
+      // Rules that derive() has no symbolic counterpart for
+      CompiledExpression ln = new TreeFactory().buildTree( "\\ln{ 3x }" )
+               .compile( "x" );
+      CompiledExpression power = new ExpressionTree(
+               new BinaryOperatorNode.Power(
+                        NodeFactory.createVariableNode( "x" ),
+                        NodeFactory.createVariableNode( "x" ) ) ).compile();
+      CompiledExpression twoVariables = new TreeFactory().buildTree(
+               "x^2 * \\sin{ y }" ).compile( "x", "y" );
+      for ( double x = 0.1; x < 1.5; x += 0.2 )
+      {
+         assertEquals( 1.0 / x, ln.derivative( x ), 1e-12 );
+         assertEquals( Math.pow( x, x ) * ( Math.log( x ) + 1.0 ),
+                       power.derivative( x ), 1e-12 );
+         assertEquals( 2 * x * Math.sin( 0.5 ),
+                       twoVariables.derivative( 0, x, 0.5 ), 1e-12 );
+         assertEquals( x * x * Math.cos( 0.5 ),
+                       twoVariables.derivative( 1, x, 0.5 ), 1e-12 );
+      }
+   }
+
+   @Test( expected = IllegalArgumentException.class )
+   public void dualNumberVariableTest() throws ExpressionException
+   {
+      CompiledExpression expr = new TreeFactory().buildTree( "x^2 * y" )
+               .compile( "x", "y" );
+      expr.evaluateWithDerivative( 2, new double[] { 1.0, 2.0, 3.0 },
+                                   new double[ 2 ] );
+   }
+
+   @Test public void constantDerivativeTest() throws ExpressionException
+   {
+      CompiledExpression expr = new TreeFactory().buildTree( "3 + 4" )
+               .compile();
+      assertEquals( 0.0, expr.derivative( 2.0 ), 0.0 );
+   }
+}
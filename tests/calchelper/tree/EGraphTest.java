@@ -0,0 +1,136 @@
+package calchelper.tree;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * JUnit-based test harness for EGraph.
+ *
+ * @author Patrick MacArthur
+ */
+
+public class EGraphTest
+{
+   private static final String[] EXPRESSIONS = { "3x^2 + 2x + 1",
+      "\\sin{ x } * \\cos{ x }", "2\\sin{ 3x } + x^3",
+      "x^2 * \\tan{ x }", "\\sin^2{ x } + \\cos{ x^2 }",
+      "( x + 1 ) / ( x - 1 )", "\\sec{ 2x } - 5" };
+
+   private static ExpressionTree exhaustive( String infix )
+      throws ExpressionException
+   {
+      ExpressionTree tree = TreeFactoryTest.buildTreeFromString( infix );
+      tree.simplifyExhaustive( 5000, 10000 );
+      return tree;
+   }
+
+   private static AbstractNode sin( double power )
+   {
+      return NodeFactory.createTrigNode( "sin",
+               NodeFactory.createConstantNode( 1.0 ),
+               NodeFactory.createVariableNode( "x" ),
+               NodeFactory.createConstantNode( power ) );
+   }
+
+   @Test public void pythagoreanTest() throws ExpressionException
+   {
+      assertEquals( "1.0", exhaustive( "\\sin^2{ x } + \\cos^2{ x }" )
+               .toString().trim() );
+      assertEquals( "3.0", exhaustive( "3\\cos^2{ x } + 3\\sin^2{ x }" )
+               .toString().trim() );
+   }
+
+   @Test public void powerTest()
+   {
+      // ( sin(x) )^2 * sin(x) = sin^3(x)
+      AbstractNode node = new BinaryOperatorNode.Multiplication(
+               new BinaryOperatorNode.Power( sin( 1.0 ),
+                        NodeFactory.createConstantNode( 2.0 ) ), sin( 1.0 ) );
+      ExpressionTree tree = new ExpressionTree( node );
+      tree.simplifyExhaustive( 5000, 10000 );
+      assertSame( ImmutableExpression.of( sin( 3.0 ) ),
+                  ImmutableExpression.of( tree ) );
+   }
+
+   @Test public void budgetTest() throws ExpressionException
+   {
+      ExpressionTree expected = TreeFactoryTest.buildTreeFromString(
+               "\\sin^2{ x } + \\cos^2{ x }" );
+      expected.simplify();
+
+      // Too small a budget to find anything still gives a valid result
+      ExpressionTree actual = TreeFactoryTest.buildTreeFromString(
+               "\\sin^2{ x } + \\cos^2{ x }" );
+      actual.simplifyExhaustive( 1, 10000 );
+      assertSame( ImmutableExpression.of( expected ),
+                  ImmutableExpression.of( actual ) );
+
+      EGraph graph = new EGraph( 100, 10000 );
+      graph.simplify( ImmutableExpression.of( TreeFactoryTest
+               .buildTreeFromString( "x^2 * \\tan{ x } + \\sin{ 3x } * x" ) ) );
+      assertTrue( graph.size() <= 100 );
+   }
+
+   @Test public void lateTest() throws ExpressionException
+   {
+      // With no time at all, the result is still no costlier than the input
+      for ( String infix : EXPRESSIONS )
+      {
+         ImmutableExpression expression = ImmutableExpression.of(
+                  TreeFactoryTest.buildTreeFromString( infix ) );
+         ImmutableExpression result = new EGraph( 5000, 0 ).simplify(
+                  expression );
+         assertTrue( infix, Simplifier.cost( result.toNode() )
+                  <= Simplifier.cost( expression.toNode() ) );
+      }
+   }
+
+   @Test public void deriveTest() throws ExpressionException
+   {
+      // Simplifying must not change what derive() gives
+      String[] expressions = { "3 * \\sin{ x } * x^2",
+         "\\cos{ 2x } * x^3", "\\sin{ x } * ( x + 1 ) * 2" };
+      for ( String infix : expressions )
+      {
+         ExpressionTree tree = exhaustive( infix );
+         CompiledExpression original = TreeFactoryTest.buildTreeFromString(
+                  infix ).compile( "x" );
+         CompiledExpression derived = tree.derive().compile( "x" );
+         for ( double x = 0.1; x < 1.5; x += 0.2 )
+         {
+            double expected = original.derivative( x );
+            assertEquals( infix, expected, derived.evaluate( x ),
+                          1e-9 * Math.max( 1.0, Math.abs( expected ) ) );
+         }
+      }
+   }
+
+   @Test public void costTest() throws ExpressionException
+   {
+      for ( String infix : EXPRESSIONS )
+      {
+         AbstractNode node = TreeFactoryTest.buildTreeFromString( infix )
+                  .getRoot();
+         for ( int order = 0; order < 3; ++order )
+         {
+            ExpressionTree tree = new ExpressionTree( node );
+            tree.simplifyExhaustive( 5000, 10000 );
+            AbstractNode simplified = tree.getRoot();
+            assertTrue( infix, Simplifier.cost( simplified )
+                     <= Simplifier.cost( Simplifier.simplify( node ) ) );
+
+            CompiledExpression original = new ExpressionTree( node )
+                     .compile( "x" );
+            CompiledExpression result = tree.compile( "x" );
+            for ( double x = 0.25; x < 3.0; x += 0.5 )
+            {
+               assertEquals( infix, original.evaluate( x ),
+                        result.evaluate( x ), 1e-9 * Math.max( 1.0,
+                                 Math.abs( original.evaluate( x ) ) ) );
+            }
+            node = node.derive();
+         }
+      }
+   }
+}
@@ -0,0 +1,110 @@
+package calchelper.tree;
+
+/**
+ * A simple benchmark comparing compiled expressions, interpreted, as
+ * generated bytecode and a block at a time, against walking the equivalent
+ * tree with getValue().
+ * Run it with "java calchelper.tree.EvaluationBenchmark"; it is not part of
+ * the unit tests.
+ *
+ * Since getValue() cannot bind variables, the tree walk is given one
+ * prebuilt tree per sample point with the variable replaced by a constant.
+ *
+ * @author Patrick MacArthur
+ */
+public class EvaluationBenchmark
+{
+   private static final int POINTS = 1024;
+   private static final int ROUNDS = 2000;
+
+   /**
+    * Builds ( ( x * x + 3 * x ) - 2 ) / ( ( x + 1 ) * ( x + 1 ) ) ^ 0.5
+    * without letting the node factory collapse it into a polynomial.
+    */
+   static AbstractNode buildTree( AbstractNode x )
+   {
+      AbstractNode square = new BinaryOperatorNode.Multiplication( x, x );
+      AbstractNode triple = new BinaryOperatorNode.Multiplication(
+               new Polynomial( 3.0 ), x );
+      AbstractNode numerator = new BinaryOperatorNode.Subtraction(
+               new BinaryOperatorNode.Addition( square, triple ),
+               new Polynomial( 2.0 ) );
+      AbstractNode xPlusOne = new BinaryOperatorNode.Addition( x,
+               new Polynomial( 1.0 ) );
+      AbstractNode denominator = new BinaryOperatorNode.Power(
+               new BinaryOperatorNode.Multiplication( xPlusOne, xPlusOne ),
+               new Polynomial( 0.5 ) );
+      return new BinaryOperatorNode.Division( numerator, denominator );
+   }
+
+   public static void main( String[] args ) throws ExpressionException
+   {
+      double[] xs = new double[ POINTS ];
+      AbstractNode[] trees = new AbstractNode[ POINTS ];
+      for ( int i = 0; i < POINTS; ++i )
+      {
+         xs[ i ] = i / 100.0;
+         trees[ i ] = buildTree( new Polynomial( xs[ i ] ) );
+      }
+      ExpressionTree tree = new ExpressionTree(
+               buildTree( new Polynomial( "x" ) ) );
+      CompiledExpression compiled = tree.compile( "x" );
+      CompiledExpression generated = tree.compileToBytecode( "x" );
+      System.out.printf( "%d operations per evaluation, %d without "
+               + "sharing repeated subexpressions%n",
+               compiled.getOperationCount(),
+               compiled.getUnsharedOperationCount() );
+
+      for ( int pass = 0; pass < 5; ++pass )
+      {
+         double sink = 0.0;
+
+         long start = System.nanoTime();
+         for ( int round = 0; round < ROUNDS; ++round )
+         {
+            for ( int i = 0; i < POINTS; ++i )
+            {
+               sink += trees[ i ].getValue();
+            }
+         }
+         long treeTime = System.nanoTime() - start;
+
+         start = System.nanoTime();
+         for ( int round = 0; round < ROUNDS; ++round )
+         {
+            for ( int i = 0; i < POINTS; ++i )
+            {
+               sink += compiled.evaluate( xs[ i ] );
+            }
+         }
+         long compiledTime = System.nanoTime() - start;
+
+         start = System.nanoTime();
+         for ( int round = 0; round < ROUNDS; ++round )
+         {
+            for ( int i = 0; i < POINTS; ++i )
+            {
+               sink += generated.evaluate( xs[ i ] );
+            }
+         }
+         long generatedTime = System.nanoTime() - start;
+
+         double[] out = new double[ POINTS ];
+         start = System.nanoTime();
+         for ( int round = 0; round < ROUNDS; ++round )
+         {
+            compiled.evaluateAll( xs, out );
+            sink += out[ round % POINTS ];
+         }
+         long batchTime = System.nanoTime() - start;
+
+         double evaluations = ( double ) POINTS * ROUNDS;
+         System.out.printf( "pass %d: tree walk %.1f ns/eval, "
+                  + "compiled %.1f ns/eval, bytecode %.1f ns/eval, "
+                  + "batch %.1f ns/eval (checksum %g)%n", pass,
+                  treeTime / evaluations, compiledTime / evaluations,
+                  generatedTime / evaluations, batchTime / evaluations,
+                  sink );
+      }
+   }
+}
@@ -0,0 +1,181 @@
+package calchelper.tree;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+/**
+ * JUnit-based test harness for reading files of expressions.
+ *
+ * @author Patrick MacArthur
+ */
+
+public class ExpressionReaderTest
+{
+   private static final String INPUT = "3x^2 + 2x + 1\n"
+            + "\n"
+            + "( 5 * x ) / ( 4 + x )\r\n"
+            + "2 * ( x + 1\n"
+            + "\\sin{ x }";
+
+   @Test public void readTreeTest() throws Exception
+   {
+      ExpressionReader reader = new TreeFactory().read(
+               new StringReader( INPUT ) );
+
+      assertEquals( TreeFactoryTest.buildTreeFromString( "3x^2 + 2x + 1" ),
+               reader.readTree() );
+      assertEquals( 1, reader.getLineNumber() );
+      assertEquals(
+               TreeFactoryTest.buildTreeFromString( "( 5 * x ) / ( 4 + x )" ),
+               reader.readTree() );
+      assertEquals( 3, reader.getLineNumber() );
+
+      try
+      {
+         reader.readTree();
+         fail( "Expected an ExpressionException" );
+      }
+      catch ( ExpressionException e )
+      {
+         assertEquals( 4, e.getLine() );
+         assertEquals( 5, e.getColumn() );
+         assertEquals( "2 * ( x + 1", e.getInfix() );
+      }
+
+      assertEquals( TreeFactoryTest.buildTreeFromString( "\\sin{ x }" ),
+               reader.readTree() );
+      assertNull( reader.readTree() );
+      reader.close();
+   }
+
+   @Test public void streamTest() throws Exception
+   {
+      List<ExpressionException> errors = new ArrayList<ExpressionException>();
+      ByteBuffer bytes = ByteBuffer.wrap(
+               INPUT.getBytes( StandardCharsets.UTF_8 ) );
+
+      List<ExpressionTree> trees = new TreeFactory( 4 ).read( bytes )
+               .trees( errors::add )
+               .collect( Collectors.<ExpressionTree>toList() );
+
+      assertEquals( 3, trees.size() );
+      assertEquals( 1, errors.size() );
+      assertEquals( 4, errors.get( 0 ).getLine() );
+   }
+
+   @Test public void failureTest() throws Exception
+   {
+      // A line that fails with any exception is reported and skipped
+      TreeFactory factory = new TreeFactory()
+      {
+         ExpressionTree buildTree( CharSequence infix )
+            throws ExpressionException
+         {
+            if ( infix.toString().contains( "y" ) )
+            {
+               throw new NullPointerException();
+            }
+            return super.buildTree( infix );
+         }
+      };
+      List<ExpressionException> errors = new ArrayList<ExpressionException>();
+      List<ExpressionTree> trees = factory.read(
+               new StringReader( "x^2\ny * x\nx % 2\n2x + 1\n" ) )
+               .trees( errors::add )
+               .collect( Collectors.<ExpressionTree>toList() );
+
+      assertEquals( 2, trees.size() );
+      assertEquals( 2, errors.size() );
+      assertEquals( 2, errors.get( 0 ).getLine() );
+      assertEquals( "y * x", errors.get( 0 ).getInfix() );
+      assertEquals( 3, errors.get( 1 ).getLine() );
+      assertEquals( 3, errors.get( 1 ).getColumn() );
+   }
+
+   @Test public void compiledTest() throws Exception
+   {
+      List<ExpressionException> errors = new ArrayList<ExpressionException>();
+      List<CompiledExpression> compiled = new TreeFactory().read(
+               new StringReader( "x^2\ny * x\n2x + 1\n" ) )
+               .compiled( errors::add, "x" )
+               .collect( Collectors.<CompiledExpression>toList() );
+
+      assertEquals( 2, compiled.size() );
+      assertEquals( 9.0, compiled.get( 0 ).evaluate( 3.0 ), 0.0 );
+      assertEquals( 7.0, compiled.get( 1 ).evaluate( 3.0 ), 0.0 );
+      assertEquals( 1, errors.size() );
+      assertEquals( 2, errors.get( 0 ).getLine() );
+   }
+
+   @Test public void longLineTest() throws Exception
+   {
+      StringBuilder expected = new StringBuilder( "1" );
+      for ( int i = 0; i < 5000; ++i )
+      {
+         expected.append( " + x" );
+      }
+
+      ExpressionReader reader = new TreeFactory().read(
+               new StringReader( "\n" + expected + "\n" ) );
+
+      assertEquals( TreeFactoryTest.buildTreeFromString( expected.toString() ),
+               reader.readTree() );
+      assertEquals( 2, reader.getLineNumber() );
+      assertNull( reader.readTree() );
+   }
+
+   @Test public void fileTest() throws Exception
+   {
+      File file = File.createTempFile( "expressions", ".txt" );
+      try
+      {
+         StringBuilder text = new StringBuilder();
+         for ( int i = 0; i < 10000; ++i )
+         {
+            text.append( i ).append( "x^2 + 1\n" );
+         }
+         Files.write( file.toPath(),
+                  text.toString().getBytes( StandardCharsets.UTF_8 ) );
+
+         ExpressionReader reader = new TreeFactory().read( file.toPath() );
+         int count = 0;
+         for ( ExpressionTree tree = reader.readTree(); tree != null;
+                  tree = reader.readTree() )
+         {
+            assertEquals( TreeFactoryTest.buildTreeFromString(
+                     count + "x^2 + 1" ), tree );
+            ++count;
+         }
+         reader.close();
+         assertEquals( 10000, count );
+      }
+      finally
+      {
+         file.delete();
+      }
+   }
+
+   @Test public void positionTest()
+   {
+      try
+      {
+         new TreeFactory().buildTree( "x + (\n  2 * ]" );
+         fail( "Expected an ExpressionException" );
+      }
+      catch ( ExpressionException e )
+      {
+         assertEquals( 2, e.getLine() );
+         assertEquals( 7, e.getColumn() );
+      }
+   }
+}
@@ -0,0 +1,97 @@
+package calchelper.tree;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * JUnit-based test harness for immutable expressions.
+ *
+ * @author Patrick MacArthur
+ */
+
+public class ImmutableExpressionTest
+{
+   private static final double DELTA = 1e-12;
+
+   public static ImmutableExpression unitTest( String infix )
+         throws ExpressionException
+   {
+      return ImmutableExpression.of( new TreeFactory().buildTree( infix ) );
+   }
+
+   private static double evaluate( ImmutableExpression expr, double x )
+         throws ExpressionException
+   {
+      return expr.toTree().compile( "x" ).evaluate( x );
+   }
+
+   @Test public void internTest() throws ExpressionException
+   {
+      ImmutableExpression a = unitTest( "3x^2 * \\sin{ x }" );
+      ImmutableExpression b = unitTest( "3x^2 * \\sin{ x }" );
+      ImmutableExpression c = unitTest( "3x^2 * \\cos{ x }" );
+
+      assertSame( a, b );
+      assertEquals( a.hashCode(), b.hashCode() );
+      assertNotSame( a, c );
+      assertSame( a.first(), c.first() );
+   }
+
+   @Test public void roundTripTest() throws ExpressionException
+   {
+      ExpressionTree tree = new TreeFactory().buildTree(
+               "( 5 * x ) / ( 4 + \\tan{ x } )" );
+      ImmutableExpression expr = ImmutableExpression.of( tree );
+
+      assertEquals( tree.toString(), expr.toTree().toString() );
+      assertSame( expr, ImmutableExpression.of( expr.toTree() ) );
+   }
+
+   @Test public void polynomialDeriveTest() throws ExpressionException
+   {
+      assertSame( unitTest( "6x^2 - 2" ), unitTest( "2x^3 - 2x + 7" ).derive( "x" ) );
+      assertSame( unitTest( "0" ), unitTest( "2x^3" ).derive( "y" ) );
+   }
+
+   @Test public void chainRuleTest() throws ExpressionException
+   {
+      ImmutableExpression derivative = unitTest( "\\sin{ x^2 }" ).derive( "x" );
+
+      assertEquals( 2 * 0.7 * Math.cos( 0.49 ), evaluate( derivative, 0.7 ),
+               DELTA );
+   }
+
+   @Test public void productRuleTest() throws ExpressionException
+   {
+      ImmutableExpression derivative = unitTest( "x * \\cos^2{ x }" ).derive( "x" );
+
+      for ( double x = -1.0; x <= 1.0; x += 0.25 )
+      {
+         double cos = Math.cos( x );
+         assertEquals( cos * cos - 2 * x * cos * Math.sin( x ),
+                  evaluate( derivative, x ), DELTA );
+      }
+   }
+
+   @Test public void quotientRuleTest() throws ExpressionException
+   {
+      ImmutableExpression derivative = unitTest( "\\sec{ x } / ( x + 2 )" )
+               .derive( "x" );
+
+      double x = 0.4;
+      double sec = 1 / Math.cos( x );
+      double expected = ( sec * Math.tan( x ) * ( x + 2 ) - sec )
+               / ( ( x + 2 ) * ( x + 2 ) );
+      assertEquals( expected, evaluate( derivative, x ), DELTA );
+   }
+
+   @Test public void sharingTest() throws ExpressionException
+   {
+      ImmutableExpression expr = unitTest( "\\sin{ 3x^2 + 1 } * \\ln{ x }" );
+      ImmutableExpression first = expr.derive( "x" );
+
+      assertSame( first, expr.derive( "x" ) );
+      assertSame( first.derive( "x" ), expr.derive( "x" ).derive( "x" ) );
+   }
+}
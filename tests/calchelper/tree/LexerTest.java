@@ -0,0 +1,112 @@
+package calchelper.tree;
+
+import static org.junit.Assert.*;
+
+import java.util.Locale;
+
+import org.junit.Test;
+
+/**
+ * JUnit-based test harness for the lexer.
+ *
+ * @author Patrick MacArthur
+ */
+
+public class LexerTest
+{
+   @Test public void tokenTest()
+   {
+      Lexer lexer = new Lexer( "3x^2 + \\sin{ y }" );
+
+      assertEquals( Lexer.NUMBER, lexer.next() );
+      assertEquals( 3.0, lexer.number(), 0.0 );
+      assertEquals( Lexer.IDENTIFIER, lexer.next() );
+      assertEquals( 'x', lexer.character() );
+      assertEquals( Lexer.OPERATOR, lexer.next() );
+      assertEquals( '^', lexer.character() );
+      assertEquals( Lexer.NUMBER, lexer.next() );
+      assertEquals( Lexer.OPERATOR, lexer.next() );
+      assertEquals( '+', lexer.character() );
+      assertEquals( Lexer.COMMAND, lexer.next() );
+      assertEquals( "sin", lexer.text() );
+      assertEquals( 7, lexer.start() );
+      assertEquals( 11, lexer.end() );
+      assertEquals( Lexer.OPERATOR, lexer.next() );
+      assertEquals( Lexer.IDENTIFIER, lexer.next() );
+      assertEquals( 13, lexer.start() );
+      assertEquals( Lexer.OPERATOR, lexer.next() );
+      assertEquals( Lexer.END, lexer.next() );
+      assertEquals( Lexer.END, lexer.next() );
+   }
+
+   @Test public void numberTest()
+   {
+      String[] numbers = { "0", "42", "3.25", ".5", "5.", "0.1", "007.5",
+               "1E3", "2.5E-3", "6.02E+23", "1E-30", "123456789012345678",
+               "0.30000000000000004", "1.7976931348623157E308" };
+
+      for ( String number : numbers )
+      {
+         Lexer lexer = new Lexer( number );
+         assertEquals( number, Lexer.NUMBER, lexer.next() );
+         assertEquals( number, Double.parseDouble( number ), lexer.number(),
+                  0.0 );
+         assertEquals( number, number.length(), lexer.end() );
+         assertEquals( number, Lexer.END, lexer.next() );
+      }
+   }
+
+   @Test public void exponentNeedsDigitsTest()
+   {
+      Lexer lexer = new Lexer( "2Ex" );
+
+      assertEquals( Lexer.NUMBER, lexer.next() );
+      assertEquals( 2.0, lexer.number(), 0.0 );
+      assertEquals( Lexer.IDENTIFIER, lexer.next() );
+      assertEquals( 'E', lexer.character() );
+   }
+
+   @Test public void minusTest()
+   {
+      Lexer lexer = new Lexer( "-5*-2-1" );
+
+      assertEquals( Lexer.NUMBER, lexer.next() );
+      assertEquals( -5.0, lexer.number(), 0.0 );
+      assertEquals( Lexer.OPERATOR, lexer.next() );
+      assertEquals( Lexer.NUMBER, lexer.next() );
+      assertEquals( -2.0, lexer.number(), 0.0 );
+      assertEquals( Lexer.OPERATOR, lexer.next() );
+      assertEquals( '-', lexer.character() );
+      assertEquals( Lexer.NUMBER, lexer.next() );
+      assertEquals( 1.0, lexer.number(), 0.0 );
+   }
+
+   @Test public void rangeTest()
+   {
+      Lexer lexer = new Lexer( "( 12 + x )", 2, 4 );
+
+      assertEquals( Lexer.NUMBER, lexer.next() );
+      assertEquals( 12.0, lexer.number(), 0.0 );
+      assertEquals( 2, lexer.start() );
+      assertEquals( Lexer.END, lexer.next() );
+   }
+
+   @Test public void localeTest() throws ExpressionException
+   {
+      Locale saved = Locale.getDefault();
+      try
+      {
+         Locale.setDefault( Locale.GERMANY );
+         Lexer lexer = new Lexer( "1.5" );
+         lexer.next();
+         assertEquals( 1.5, lexer.number(), 0.0 );
+
+         assertEquals( 3.0, new TreeFactory().buildTree( "2 * 1.5" )
+                  .getRoot().getValue(), 0.0 );
+      }
+      finally
+      {
+         Locale.setDefault( saved );
+      }
+   }
+}
@@ -0,0 +1,121 @@
+package calchelper.tree;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * JUnit-based test harness for MultiPolynomial.
+ *
+ * @author Patrick MacArthur
+ */
+
+public class MultiPolynomialTest
+{
+   private static final double DELTA = 1e-9;
+
+   private static AbstractNode parse( String infix ) throws ExpressionException
+   {
+      return new TreeFactory().buildTree( infix ).getRoot();
+   }
+
+   private static MultiPolynomial multi( String infix )
+      throws ExpressionException
+   {
+      AbstractNode node = parse( infix );
+      assertTrue( infix, node instanceof MultiPolynomial );
+      return ( MultiPolynomial ) node;
+   }
+
+   @Test public void sumTest() throws ExpressionException
+   {
+      // Different variables are no longer merged into one
+      MultiPolynomial sum = multi( "x + y" );
+      assertArrayEquals( new String[] { "x", "y" }, sum.getVariables() );
+      assertEquals( 2, sum.termCount() );
+      assertEquals( "x + y", sum.getStringValue() );
+
+      assertEquals( multi( "2x * y + x" ), multi( "x * y + x + y * x" ) );
+   }
+
+   @Test public void productTest() throws ExpressionException
+   {
+      MultiPolynomial product = multi( "( x + y ) ^ 2 - 2 * x * y" );
+      assertEquals( multi( "x^2 + y^2" ), product );
+
+      MultiPolynomial cube = multi( "( x + y + z ) ^ 3" );
+      assertEquals( 10, cube.termCount() );
+      assertEquals( 6.0, cube.getTerms().get( MonomialTerms.monomial( 0, 1 )
+               | MonomialTerms.monomial( 1, 1 )
+               | MonomialTerms.monomial( 2, 1 ) ), DELTA );
+   }
+
+   @Test public void cancelTest() throws ExpressionException
+   {
+      // Dropping to one variable gives an ordinary polynomial
+      AbstractNode node = parse( "x * y + x - y * x" );
+      assertTrue( node instanceof Polynomial );
+      assertEquals( parse( "x" ), node );
+      assertEquals( parse( "3" ), parse( "( x * y + 6 ) / 2 - 0.5 * y * x" ) );
+   }
+
+   @Test public void stringTest() throws ExpressionException
+   {
+      MultiPolynomial poly = multi( "x + 3 * y * x^2 + 2" );
+      assertEquals( "3.0x^2.0 * y + x + 2.0", poly.getStringValue() );
+      assertEquals( poly, multi( poly.getStringValue() ) );
+   }
+
+   @Test public void deriveTest() throws ExpressionException
+   {
+      MultiPolynomial poly = multi( "x^3 * y^2 + 4 * x * z" );
+      assertEquals( multi( "3x^2 * y^2 + 4z" ), poly.derive( "x" ) );
+      assertEquals( multi( "2x^3 * y" ), poly.derive( "y" ) );
+      assertEquals( parse( "4x" ), poly.derive( "z" ) );
+      assertEquals( parse( "0" ), poly.derive( "w" ) );
+
+      // Like any tree that mixes variables, the sum of the partials
+      assertEquals( multi( "3x^2 * y^2 + 4z + 2x^3 * y + 4x" ),
+                    poly.derive() );
+   }
+
+   @Test public void integrateTest() throws ExpressionException
+   {
+      MultiPolynomial poly = multi( "6x^2 * y + 2y" );
+      assertEquals( multi( "2x^3 * y + 2x * y" ), poly.integrate( "x" ) );
+      assertEquals( multi( "3x^2 * y^2 + y^2" ), poly.integrate( "y" ) );
+      assertEquals( multi( "6x^2 * y * z + 2y * z" ), poly.integrate( "z" ) );
+   }
+
+   @Test public void compileTest() throws ExpressionException
+   {
+      ExpressionTree tree = new TreeFactory().buildTree(
+               "( x + 2y ) ^ 3 - x * y * z" );
+      assertTrue( tree.getRoot() instanceof MultiPolynomial );
+
+      CompiledExpression expr = tree.compile();
+      assertArrayEquals( new String[] { "x", "y", "z" }, expr.getVariables() );
+      for ( double x = -1.0; x < 2.0; x += 0.5 )
+      {
+         double y = 1.0 - x;
+         double z = 2.0 * x;
+         double expected = Math.pow( x + 2 * y, 3 ) - x * y * z;
+         assertEquals( expected, expr.evaluate( x, y, z ), DELTA );
+         assertEquals( expected,
+                  tree.compileToBytecode().evaluate( x, y, z ), DELTA );
+      }
+   }
+
+   @Test public void limitTest() throws ExpressionException
+   {
+      // Too many variables or too high a power stays a tree
+      assertTrue( parse( "a * b * c * d * e * f * g" )
+               instanceof BinaryOperatorNode );
+      assertTrue( parse( "( x * y ) ^ 600" ) instanceof BinaryOperatorNode );
+      assertTrue( parse( "x^-1 * y" ) instanceof BinaryOperatorNode );
+
+      MonomialTerms terms = new MonomialTerms();
+      terms.add( MonomialTerms.monomial( 0, MonomialTerms.MAX_EXPONENT ), 1.0 );
+      assertNull( MonomialTerms.multiply( terms, terms ) );
+   }
+}
@@ -0,0 +1,110 @@
+package calchelper.tree;
+
+import java.text.NumberFormat;
+import java.text.ParsePosition;
+
+/**
+ * A simple benchmark of parsing throughput.  It times scanning a set of
+ * expressions with the lexer against scanning them the way TreeFactory once
+ * did, trying NumberFormat at every position, and then times building whole
+ * trees.
+ * Run it with "java calchelper.tree.ParseBenchmark"; it is not part of the
+ * unit tests.
+ *
+ * @author Patrick MacArthur
+ */
+public class ParseBenchmark
+{
+   private static final int ROUNDS = 20000;
+
+   private static final String[] EXPRESSIONS = { "3x^2 + 2x + 1",
+      "( 5 * x ) / ( 4 + x )", "2.75 * \\sin{ 2x } - 1.5E-3",
+      "\\sec^2{ x } + \\cos{ x } * \\tan{ x }", "( x + 1 ) ^ 0.5",
+      "12.5x^4 - 7.25x^3 + 3.125x^2 - 0.0625x + 1024" };
+
+   /**
+    * Scans an expression with the lexer.
+    */
+   static double lex( String infix )
+   {
+      double sum = 0.0;
+      Lexer lexer = new Lexer( infix );
+      for ( int kind = lexer.next(); kind != Lexer.END; kind = lexer.next() )
+      {
+         sum += kind == Lexer.NUMBER ? lexer.number() : kind;
+      }
+      return sum;
+   }
+
+   /**
+    * Scans an expression by trying NumberFormat at each position.
+    */
+   static double scanWithNumberFormat( String infix )
+   {
+      double sum = 0.0;
+      ParsePosition pos = new ParsePosition( 0 );
+      while ( pos.getIndex() < infix.length() )
+      {
+         Number num = NumberFormat.getNumberInstance().parse( infix, pos );
+         if ( num != null )
+         {
+            sum += num.doubleValue();
+            continue;
+         }
+         sum += infix.charAt( pos.getIndex() );
+         pos.setIndex( pos.getIndex() + 1 );
+      }
+      return sum;
+   }
+
+   public static void main( String[] args ) throws ExpressionException
+   {
+      int characters = 0;
+      for ( String infix : EXPRESSIONS )
+      {
+         characters += infix.length();
+      }
+      double total = ( double ) characters * ROUNDS;
+
+      for ( int pass = 0; pass < 5; ++pass )
+      {
+         double sink = 0.0;
+
+         long start = System.nanoTime();
+         for ( int round = 0; round < ROUNDS; ++round )
+         {
+            for ( String infix : EXPRESSIONS )
+            {
+               sink += scanWithNumberFormat( infix );
+            }
+         }
+         long formatTime = System.nanoTime() - start;
+
+         start = System.nanoTime();
+         for ( int round = 0; round < ROUNDS; ++round )
+         {
+            for ( String infix : EXPRESSIONS )
+            {
+               sink += lex( infix );
+            }
+         }
+         long lexTime = System.nanoTime() - start;
+
+         TreeFactory factory = new TreeFactory();
+         start = System.nanoTime();
+         for ( int round = 0; round < ROUNDS; ++round )
+         {
+            for ( String infix : EXPRESSIONS )
+            {
+               sink += factory.buildTree( infix ).hashCode();
+            }
+         }
+         long parseTime = System.nanoTime() - start;
+
+         System.out.printf( "pass %d: NumberFormat scan %.1f MB/s, "
+                  + "lexer %.1f MB/s, buildTree %.1f MB/s (checksum %g)%n",
+                  pass, total * 1e3 / formatTime, total * 1e3 / lexTime,
+                  total * 1e3 / parseTime, sink );
+      }
+   }
+}
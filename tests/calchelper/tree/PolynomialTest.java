@@ -7,6 +7,7 @@ package calchelper.tree;
 import static org.junit.Assert.*;
 
 import java.util.HashMap;
+import java.util.Map;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -318,4 +319,170 @@ public class PolynomialTest
       assertFalse( poly1.equalsIgnoreCoefficients( poly2 ) );
       assertFalse( poly2.equalsIgnoreCoefficients( poly1 ) );
    }
+   
+   @Test public void copyConstructorTest() throws ExpressionException
+   {
+      expected.put( 1.0, 5.0 );
+      
+      Polynomial original = unitTest( "5x" );
+      Polynomial copy = new Polynomial( original );
+      copy.getTerms().put( 2.0, 1.0 );
+      
+      assertEquals( expected, original.getMap() );
+   }
+   
+   @Test public void nonPolynomialSumTest() throws ExpressionException
+   {
+      ExpressionTree tree = new TreeFactory().buildTree( "x + \\sin{ x }" );
+      
+      assertNull( Polynomial.createPolynomial( tree.getRoot() ) );
+   }
+   
+   @Test public void hashCodeTest() throws ExpressionException
+   {
+      Polynomial poly = unitTest( "3x^2 - 2x + 1" );
+      
+      assertEquals( poly.getMap().hashCode() * "x".hashCode(),
+               poly.hashCode() );
+   }
+   
+   @Test public void denseTest() throws ExpressionException
+   {
+      expected.put( 3.0, 2.0 );
+      expected.put( 1.0, -1.0 );
+      
+      Polynomial poly = unitTest( "2x^3 - x" );
+      
+      assertTrue( poly.getTerms().isDense() );
+      assertEquals( expected, poly.getMap() );
+   }
+   
+   @Test public void sparseTest() throws ExpressionException
+   {
+      expected.put( 0.5, 2.0 );
+      expected.put( 2.0, 1.0 );
+      
+      Polynomial poly = unitTest( "x^2 + 2x^0.5" );
+      
+      assertFalse( poly.getTerms().isDense() );
+      assertEquals( expected, poly.getMap() );
+   }
+   
+   @Test public void denseDeriveTest() throws ExpressionException
+   {
+      expected.put( 2.0, 6.0 );
+      expected.put( 0.0, -1.0 );
+      
+      Polynomial derivative = ( Polynomial ) unitTest( "2x^3 - x + 5" ).derive();
+      
+      assertEquals( expected, derivative.getMap() );
+   }
+   
+   @Test public void denseIntegrateTest() throws ExpressionException
+   {
+      expected.put( 3.0, 1.0 );
+      expected.put( 1.0, 5.0 );
+      
+      Polynomial integral = ( Polynomial ) unitTest( "3x^2 + 5" ).integrate();
+      
+      assertEquals( expected, integral.getMap() );
+   }
+   
+   @Test public void mixedEqualsTest() throws ExpressionException
+   {
+      Polynomial dense = unitTest( "x^2 + 1" );
+      Polynomial sparse = unitTest( "x^2 + 1 + x^0.5 - x^0.5" );
+      sparse.getTerms().remove( 0.5 );
+      
+      assertEquals( dense.getMap(), sparse.getMap() );
+      assertEquals( dense, sparse );
+      assertEquals( dense.hashCode(), sparse.hashCode() );
+   }
+   
+   @Test public void largeProductTest()
+   {
+      // Big enough to be multiplied by transform, with gaps in the powers
+      Polynomial a = new Polynomial( "x" );
+      Polynomial b = new Polynomial( "x" );
+      for ( int k = 0; k < 600; ++k )
+      {
+         a.getTerms().put( k, k % 7 - 3 );
+         if ( k % 5 != 0 )
+         {
+            b.getTerms().put( k, k % 11 - 5 );
+         }
+      }
+      for ( Map.Entry<Double, Double> x : a.getMap().entrySet() )
+      {
+         for ( Map.Entry<Double, Double> y : b.getMap().entrySet() )
+         {
+            double power = x.getKey() + y.getKey();
+            Double sum = expected.get( power );
+            expected.put( power, ( sum == null ? 0.0 : sum )
+                     + x.getValue() * y.getValue() );
+         }
+      }
+      
+      PolynomialTerms product = PolynomialTerms.multiply( a.getTerms(),
+               b.getTerms() );
+      
+      assertEquals( expected, product.toMap() );
+   }
+   
+   @Test public void binomialPowerTest() throws ExpressionException
+   {
+      expected.put( 2.0, 1.0 );
+      expected.put( 1.0, 2.0 );
+      expected.put( 0.0, 1.0 );
+      
+      Polynomial result = unitTest( "( x + 1 ) ^ 2" );
+      
+      assertEquals( expected, result.getMap() );
+   }
+   
+   @Test public void expandedPowerTest() throws ExpressionException
+   {
+      Polynomial power = unitTest( "( 2x^2 - x + 3 ) ^ 5" );
+      Polynomial product = unitTest( "( 2x^2 - x + 3 ) * ( 2x^2 - x + 3 )"
+               + " * ( 2x^2 - x + 3 ) * ( 2x^2 - x + 3 ) * ( 2x^2 - x + 3 )" );
+      
+      assertEquals( product.getMap(), power.getMap() );
+   }
+   
+   @Test public void largePowerTest() throws ExpressionException
+   {
+      // The coefficients of ( x + 1 )^40 are binomial coefficients
+      long binomial = 1;
+      for ( int k = 0; k <= 40; ++k )
+      {
+         expected.put( ( double ) k, ( double ) binomial );
+         binomial = binomial * ( 40 - k ) / ( k + 1 );
+      }
+      
+      Polynomial result = unitTest( "( x + 1 ) ^ 40" );
+      
+      assertEquals( expected, result.getMap() );
+   }
+   
+   @Test public void inexactPowerTest() throws ExpressionException
+   {
+      // Coefficients past 2^53 would be wrong, and soon infinite, so the
+      // power is left as it is
+      ExpressionTree tree = new TreeFactory().buildTree(
+               "( x + 1 ) ^ 60000" );
+      assertTrue( tree.getRoot() instanceof BinaryOperatorNode.Power );
+      tree.simplify();
+      assertTrue( tree.getRoot() instanceof BinaryOperatorNode.Power );
+      assertTrue( new TreeFactory().buildTree( "( 3x - 5 ) ^ 18" )
+               .getRoot() instanceof BinaryOperatorNode.Power );
+      assertTrue( new TreeFactory().buildTree( "( 3x - 5 ) ^ 17" )
+               .getRoot() instanceof Polynomial );
+   }
+   
+   @Test public void fractionalPowerTest() throws ExpressionException
+   {
+      ExpressionTree tree = new TreeFactory().buildTree( "( x + 1 ) ^ 0.5" );
+      
+      assertNull( Polynomial.createPolynomial( tree.getRoot() ) );
+   }
 }
@@ -0,0 +1,172 @@
+package calchelper.tree;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * JUnit-based test harness for Simplifier.
+ *
+ * @author Patrick MacArthur
+ */
+
+public class SimplifierTest
+{
+   private static final String[] EXPRESSIONS = { "3x^2 + 2x + 1",
+      "\\sin{ x } * \\cos{ x }", "2\\sin{ 3x } + x^3", "\\ln{ x } / x",
+      "x^2 * \\tan{ x }", "\\sin^2{ x } + \\cos{ x^2 }",
+      "( x + 1 ) / ( x - 1 )", "\\sec{ 2x } - 5" };
+
+   private static AbstractNode x()
+   {
+      return NodeFactory.createVariableNode( "x" );
+   }
+
+   private static AbstractNode constant( double value )
+   {
+      return NodeFactory.createConstantNode( value );
+   }
+
+   private static AbstractNode sin( AbstractNode power )
+   {
+      return NodeFactory.createTrigNode( "sin", constant( 1.0 ), x(), power );
+   }
+
+   private static void assertSimplifiesTo( AbstractNode expected,
+                                           AbstractNode node )
+   {
+      AbstractNode actual = Simplifier.simplify( node );
+      assertTrue( expected + " != " + actual,
+                  Simplifier.same( expected, actual ) );
+   }
+
+   @Test public void identityTest()
+   {
+      assertSimplifiesTo( x(), new BinaryOperatorNode.Multiplication( x(),
+               constant( 1.0 ) ) );
+      assertSimplifiesTo( x(), new BinaryOperatorNode.Addition(
+               constant( 0.0 ), x() ) );
+      assertSimplifiesTo( x(), new BinaryOperatorNode.Power( x(),
+               constant( 1.0 ) ) );
+      assertSimplifiesTo( sin( constant( 1.0 ) ),
+               new BinaryOperatorNode.Addition( constant( 0.0 ),
+                        sin( constant( 1.0 ) ) ) );
+      assertSimplifiesTo( sin( constant( 1.0 ) ),
+               new BinaryOperatorNode.Division( sin( constant( 1.0 ) ),
+                        constant( 1.0 ) ) );
+   }
+
+   @Test public void cancelTest()
+   {
+      assertSimplifiesTo( constant( 0.0 ), new BinaryOperatorNode.Subtraction(
+               sin( constant( 1.0 ) ), sin( constant( 1.0 ) ) ) );
+      assertSimplifiesTo( constant( 1.0 ), new BinaryOperatorNode.Division(
+               sin( constant( 1.0 ) ), sin( constant( 1.0 ) ) ) );
+      assertSimplifiesTo( constant( 0.0 ),
+               new BinaryOperatorNode.Multiplication( constant( 0.0 ),
+                        sin( constant( 1.0 ) ) ) );
+   }
+
+   @Test public void functionProductTest()
+   {
+      assertSimplifiesTo( sin( constant( 2.0 ) ),
+               new BinaryOperatorNode.Multiplication( sin( constant( 1.0 ) ),
+                        sin( constant( 1.0 ) ) ) );
+
+      // 3 sin(x) + 2 sin(x) = 5 sin(x)
+      AbstractNode sum = new BinaryOperatorNode.Addition(
+               NodeFactory.createTrigNode( "sin", constant( 3.0 ), x(),
+                        constant( 1.0 ) ),
+               NodeFactory.createTrigNode( "sin", constant( 2.0 ), x(),
+                        constant( 1.0 ) ) );
+      assertSimplifiesTo( NodeFactory.createTrigNode( "sin", constant( 5.0 ),
+               x(), constant( 1.0 ) ), sum );
+   }
+
+   @Test public void nestedTest()
+   {
+      // ( x * 1 + 0 ) * ( sin(x) ^ 1 ) = x * sin(x)
+      AbstractNode node = new BinaryOperatorNode.Multiplication(
+               new BinaryOperatorNode.Addition(
+                        new BinaryOperatorNode.Multiplication( x(),
+                                 constant( 1.0 ) ), constant( 0.0 ) ),
+               new BinaryOperatorNode.Power( sin( constant( 1.0 ) ),
+                        constant( 1.0 ) ) );
+      assertSimplifiesTo( new BinaryOperatorNode.Multiplication( x(),
+               sin( constant( 1.0 ) ) ), node );
+
+      // Constants are still moved into the coefficient
+      assertSimplifiesTo( NodeFactory.createTrigNode( "sin", constant( 3.0 ),
+               x(), constant( 1.0 ) ), new BinaryOperatorNode.Multiplication(
+                        sin( constant( 1.0 ) ), constant( 3.0 ) ) );
+   }
+
+   @Test public void parsedProductTest() throws ExpressionException
+   {
+      // The parser makes the first sine the coefficient of the second
+      AbstractNode node = new TreeFactory().buildTree(
+               "\\sin{ x } * \\sin{ x }" ).getRoot();
+      assertSimplifiesTo( sin( constant( 2.0 ) ), node );
+   }
+
+   @Test public void deriveTest() throws ExpressionException
+   {
+      // Simplifying must not change what derive() gives
+      String[] expressions = { "3 * \\sin{ x } * x^2",
+         "\\cos{ 2x } * x^3", "\\sin{ x } * ( x + 1 ) * 2",
+         "\\tan{ x } * x + x * 1" };
+      for ( String infix : expressions )
+      {
+         ExpressionTree tree = new TreeFactory().buildTree( infix );
+         CompiledExpression original = tree.compile( "x" );
+         tree.simplify();
+         CompiledExpression derived = tree.derive().compile( "x" );
+         for ( double x = 0.1; x < 1.5; x += 0.2 )
+         {
+            double expected = original.derivative( x );
+            assertEquals( infix, expected, derived.evaluate( x ),
+                          1e-9 * Math.max( 1.0, Math.abs( expected ) ) );
+         }
+      }
+   }
+
+   @Test public void costTest() throws ExpressionException
+   {
+      for ( String infix : EXPRESSIONS )
+      {
+         AbstractNode node = TreeFactoryTest.buildTreeFromString( infix )
+                  .getRoot();
+         for ( int order = 0; order < 3; ++order )
+         {
+            String before = node.toString();
+            AbstractNode simplified = Simplifier.simplify( node );
+
+            assertEquals( before, node.toString() );
+            assertTrue( infix, Simplifier.cost( simplified )
+                     <= Simplifier.cost( node ) );
+            assertTrue( infix, Simplifier.same( simplified,
+                     Simplifier.simplify( simplified ) ) );
+
+            CompiledExpression original = new ExpressionTree( node )
+                     .compile( "x" );
+            CompiledExpression result = new ExpressionTree( simplified )
+                     .compile( "x" );
+            for ( double x = 0.25; x < 3.0; x += 0.5 )
+            {
+               assertEquals( infix, original.evaluate( x ),
+                        result.evaluate( x ), 1e-9 * Math.max( 1.0,
+                                 Math.abs( original.evaluate( x ) ) ) );
+            }
+
+            try
+            {
+               node = node.derive();
+            }
+            catch ( UnsupportedOperationException e )
+            {
+               break;
+            }
+         }
+      }
+   }
+}
@@ -0,0 +1,87 @@
+package calchelper.tree;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * JUnit-based test harness for SymbolTable and evaluating trees.
+ *
+ * @author Patrick MacArthur
+ */
+
+public class SymbolTableTest
+{
+   private static final double DELTA = 1e-12;
+
+   private static final String[] EXPRESSIONS = { "3x^2 + 2x + 1",
+      "( 5 * x ) / ( 4 + x )", "2 * \\sin{ 2x }", "\\cos{ x } * \\tan{ x }",
+      "\\sec^2{ x }", "\\csc{ x } * \\cot{ x }", "x * \\ln{ x }",
+      "( x + 1 ) ^ 0.5", "x^0.5 + 3x^2", "( 4 / ( 5 + 5 ) )" };
+
+   @Test public void slotTest()
+   {
+      int slot = SymbolTable.slot( "symbolTableTest" );
+      assertEquals( slot, SymbolTable.slot( "symbolTableTest" ) );
+      assertEquals( "symbolTableTest", SymbolTable.name( slot ) );
+      assertTrue( slot < SymbolTable.size() );
+      assertTrue( SymbolTable.slot( "symbolTableTest2" ) != slot );
+   }
+
+   @Test public void symbolTest() throws ExpressionException
+   {
+      // Every occurrence of a variable shares one interned symbol
+      Symbol x = SymbolTable.symbol( "x" );
+      assertSame( x, SymbolTable.symbol( 'x' ) );
+      assertEquals( SymbolTable.slot( "x" ), x.getId() );
+
+      TreeFactory factory = new TreeFactory();
+      Polynomial first = ( Polynomial ) factory.buildTree( "3x^2" ).getRoot();
+      Polynomial second = ( Polynomial ) factory.buildTree( "x + 1" ).getRoot();
+      assertSame( x, first.getSymbol() );
+      assertSame( x, second.getSymbol() );
+      assertTrue( first.isSameVariable( second ) );
+      assertFalse( first.isSameVariable( ( Polynomial ) factory.buildTree(
+               "y" ).getRoot() ) );
+   }
+
+   @Test public void evaluateTest() throws ExpressionException
+   {
+      for ( String infix : EXPRESSIONS )
+      {
+         ExpressionTree tree = new TreeFactory().buildTree( infix );
+         CompiledExpression expr = tree.compile( "x" );
+         double[] slots = new double[ SymbolTable.size() ];
+         for ( double x = 0.25; x < 3.0; x += 0.25 )
+         {
+            slots[ SymbolTable.slot( "x" ) ] = x;
+            assertEquals( infix, expr.evaluate( x ), tree.evaluate( slots ),
+                          DELTA );
+         }
+      }
+   }
+
+   @Test public void twoVariableTest() throws ExpressionException
+   {
+      ExpressionTree tree = new TreeFactory().buildTree(
+               "x^2 * y + \\sin{ x * y } / y" );
+      double[] slots = new double[ SymbolTable.size() ];
+      slots[ SymbolTable.slot( "x" ) ] = 3.2;
+      slots[ SymbolTable.slot( "y" ) ] = 0.5;
+
+      assertEquals( 3.2 * 3.2 * 0.5 + Math.sin( 1.6 ) / 0.5,
+                    tree.evaluate( slots ), DELTA );
+   }
+
+   @Test public void derivativeTest() throws ExpressionException
+   {
+      // Trees built by deriving are evaluated the same way
+      ExpressionTree tree = new TreeFactory().buildTree(
+               "x^3 + \\sin{ 2x }" ).derive();
+      double[] slots = new double[ SymbolTable.size() ];
+      slots[ SymbolTable.slot( "x" ) ] = 0.7;
+
+      assertEquals( 3 * 0.49 + 2 * Math.cos( 1.4 ), tree.evaluate( slots ),
+                    DELTA );
+   }
+}
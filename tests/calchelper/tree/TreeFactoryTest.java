@@ -3,6 +3,14 @@ package calchelper.tree;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import org.junit.Before;
 import org.junit.Test;
 
@@ -171,6 +179,161 @@ public class TreeFactoryTest {
       assertEquals( expected, actual );
    }
 
+   @Test public void cacheTest() throws Exception
+   {
+      TreeFactory factory = new TreeFactory( 16 );
+      String[] expressions = { "3x^2 + 2x + 1", "( 5 * x ) / ( 4 + x )",
+               "2 * \\sin{ 2x }", "\\sec^2{ x }" };
+
+      for ( String infix : expressions )
+      {
+         ExpressionTree first = factory.buildTree( infix );
+         ExpressionTree second = factory.buildTree( infix );
+
+         assertEquals( buildTreeFromString( infix ), first );
+         assertEquals( buildTreeFromString( infix ), second );
+         assertNotSame( first.getRoot(), second.getRoot() );
+      }
+
+      CacheStatistics statistics = factory.getCacheStatistics();
+      assertEquals( 4, statistics.getHitCount() );
+      assertEquals( 4, statistics.getMissCount() );
+      assertEquals( 0.5, statistics.getHitRate(), 0.0 );
+   }
+
+   @Test public void cachedTreeIsCopyTest() throws Exception
+   {
+      TreeFactory factory = new TreeFactory( 16 );
+      ExpressionTree first = factory.buildTree( "x + 1" );
+      first.derive();
+      first.simplify();
+
+      assertEquals( buildTreeFromString( "x + 1" ),
+               factory.buildTree( "x + 1" ) );
+      assertNull( new TreeFactory().getCacheStatistics() );
+   }
+
+   @Test public void numberFormatTest() throws Exception
+   {
+      assertEquals( 1500.0,
+               buildTreeFromString( "1.5E3" ).getRoot().getValue(), 0.0 );
+      assertEquals( -2.0,
+               buildTreeFromString( "3-5" ).getRoot().getValue(), 0.0 );
+      assertEquals( -15.0,
+               buildTreeFromString( "3*-5" ).getRoot().getValue(), 0.0 );
+   }
+
+   @Test public void implicitMultiplicationTest() throws Exception
+   {
+      ExpressionTree expected = new ExpressionTree(
+               NodeFactory.createNode( "/",
+                        NodeFactory.createVariableNode( "a" ),
+                        NodeFactory.createNode( "*",
+                                 NodeFactory.createVariableNode( "b" ),
+                                 NodeFactory.createVariableNode( "x" ) ) ) );
+
+      assertEquals( expected, buildTreeFromString( "a/bx" ) );
+      assertEquals( buildTreeFromString( "x^(2*y)" ),
+               buildTreeFromString( "x^2y" ) );
+      assertEquals( buildTreeFromString( "(2^3)^2" ),
+               buildTreeFromString( "2^3^2" ) );
+   }
+
+   @Test public void coefficientTest() throws Exception
+   {
+      ExpressionTree expected = new ExpressionTree(
+               NodeFactory.createTrigNode( "sin",
+                        NodeFactory.createNode( "/",
+                                 NodeFactory.createVariableNode( "a" ),
+                                 NodeFactory.createVariableNode( "b" ) ),
+                        NodeFactory.createVariableNode( "x" ),
+                        NodeFactory.createConstantNode( 1.0 ) ) );
+
+      assertEquals( expected, buildTreeFromString( "a/b*\\sin{x}" ) );
+   }
+
+   @Test( expected = ExpressionException.class )
+   public void unterminatedTest() throws Exception
+   {
+      buildTreeFromString( "( x + 1" );
+   }
+
+   @Test( expected = ExpressionException.class )
+   public void tooManyOperandsTest() throws Exception
+   {
+      buildTreeFromString( "2 3" );
+   }
+
+   @Test public void moduloTest() throws Exception
+   {
+      try
+      {
+         buildTreeFromString( "x % 2" );
+         fail( "Expected ExpressionException" );
+      }
+      catch ( ExpressionException e )
+      {
+         assertEquals( 1, e.getLine() );
+         assertEquals( 3, e.getColumn() );
+      }
+   }
+
+   @Test public void concurrentTest() throws Exception
+   {
+      final String[] expressions = { "3x^2 + 2x + 1", "( 5 * x ) / ( 4 + x )",
+               "2 * \\sin{ 2x }", "\\sec^2{ x }", "x^2y", "a/bx",
+               "( x + 1 ) ^ 0.5", "1 + 2*3*\\cos{x}", "{x+1}*[x-1]" };
+      final ExpressionTree[] expected = new ExpressionTree[ expressions.length ];
+      for ( int i = 0; i < expressions.length; ++i )
+      {
+         expected[ i ] = buildTreeFromString( expressions[ i ] );
+      }
+
+      // One plain and one caching factory, each shared by every thread
+      final TreeFactory[] factories = { new TreeFactory(),
+               new TreeFactory( 4 ) };
+      final int threads = 8;
+      final CountDownLatch start = new CountDownLatch( 1 );
+      ExecutorService pool = Executors.newFixedThreadPool( threads );
+      try
+      {
+         List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+         for ( int t = 0; t < threads; ++t )
+         {
+            final int offset = t;
+            results.add( pool.submit( new Callable<Integer>()
+            {
+               public Integer call() throws Exception
+               {
+                  start.await();
+                  int mismatches = 0;
+                  for ( int n = 0; n < 2000; ++n )
+                  {
+                     int i = ( n + offset ) % expressions.length;
+                     TreeFactory factory = factories[ n & 1 ];
+                     if ( ! expected[ i ].equals(
+                              factory.buildTree( expressions[ i ] ) ) )
+                     {
+                        ++mismatches;
+                     }
+                  }
+                  return mismatches;
+               }
+            } ) );
+         }
+         start.countDown();
+
+         for ( Future<Integer> result : results )
+         {
+            assertEquals( 0, result.get().intValue() );
+         }
+      }
+      finally
+      {
+         pool.shutdown();
+      }
+   }
+
    /**
     * Helper method for tests.
     */